@@ -0,0 +1,63 @@
+package com.grubnest.game.friends.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+import java.io.IOException;
+
+/**
+ * The BenchmarkMain class runs the benchmarks like JMH's own main class, taking the same arguments,
+ * but always with the GC profiler (allocation rate per operation) and a JSON result file,
+ * so the results of two releases can be compared
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class BenchmarkMain {
+
+    /**
+     * Where the results are written, unless -rf or -rff are given
+     */
+    private static final String RESULT_FILE = "target/jmh-result.json";
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private BenchmarkMain() {
+    }
+
+    /**
+     * @param args JMH's arguments, see -h
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            //Nothing to run, JMH's own main class prints what was asked
+            Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        boolean gcProfiled = false;
+        for (ProfilerConfig profiler : commandLine.getProfilers()) {
+            gcProfiled |= profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName());
+        }
+        if (!gcProfiled) {
+            options.addProfiler(GCProfiler.class);
+        }
+
+        if (!commandLine.getResultFormat().hasValue() && !commandLine.getResult().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,188 @@
+package com.grubnest.game.friends.benchmarks;
+
+import com.grubnest.game.friends.config.FriendsConfig;
+import com.grubnest.game.friends.paper.FriendsBukkitPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.SkullMeta;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * The BukkitStubs class lets the bukkit-side classes run without a server.
+ * It installs a Server whose interfaces are all stubbed by dynamic proxies: inventories keep their contents,
+ * item metas accept everything and plugin messages are handed to a consumer. Items themselves are real ItemStacks.
+ * The plugin instance is created without running JavaPlugin's constructor, which requires a plugin class loader
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+final class BukkitStubs {
+
+    private static final Logger LOGGER = Logger.getLogger("BukkitStubs");
+
+    private static volatile Consumer<byte[]> messageSink = message -> {
+    };
+
+    private static boolean installed = false;
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private BukkitStubs() {
+    }
+
+    /**
+     * Installs the stub server and the plugin instance, does nothing if they are already installed
+     */
+    static synchronized void install() throws ReflectiveOperationException {
+        if (installed) {
+            return;
+        }
+
+        Server server = stub(Server.class, new StubHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return switch (method.getName()) {
+                    case "createInventory" -> stub(Inventory.class, new InventoryHandler((InventoryHolder) args[0], (Integer) args[1]));
+                    case "sendPluginMessage" -> {
+                        messageSink.accept((byte[]) args[2]);
+                        yield null;
+                    }
+                    default -> super.invoke(proxy, method, args);
+                };
+            }
+        });
+        Bukkit.setServer(server);
+
+        Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        FriendsBukkitPlugin plugin = (FriendsBukkitPlugin) ((Unsafe) unsafeField.get(null)).allocateInstance(FriendsBukkitPlugin.class);
+        setField(JavaPlugin.class, plugin, "server", server);
+        setField(JavaPlugin.class, plugin, "description", new PluginDescriptionFile("GrubnestFriends", "1.0", FriendsBukkitPlugin.class.getName()));
+        setField(FriendsBukkitPlugin.class, plugin, "friendsConfig", FriendsConfig.empty());
+        setField(FriendsBukkitPlugin.class, null, "instance", plugin);
+
+        installed = true;
+    }
+
+    /**
+     * @param sink receives the plugin messages sent by the plugin, replacing the previous one
+     */
+    static void onPluginMessage(Consumer<byte[]> sink) {
+        messageSink = sink;
+    }
+
+    private static void setField(Class<?> owner, Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(BukkitStubs.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * Answers every call with something harmless: an argument of the returned type if there is one
+     * (ItemFactory.asMetaFor(), updateMaterial()...), another stub for interfaces, zero, false or null otherwise
+     */
+    private static class StubHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Stub " + proxy.getClass().getInterfaces()[0].getSimpleName();
+                case "clone":
+                    //Stubs hold no state
+                    return proxy;
+                case "isApplicable":
+                    return true;
+                case "getItemMeta":
+                    //Heads are cast to SkullMeta, which is an ItemMeta too
+                    return stub(SkullMeta.class, this);
+            }
+
+            Class<?> returnType = method.getReturnType();
+            if (args != null && returnType != Object.class) {
+                for (Object arg : args) {
+                    if (returnType.isInstance(arg)) {
+                        return arg;
+                    }
+                }
+            }
+            return defaultValue(returnType);
+        }
+
+        private Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type == double.class) {
+                return 0D;
+            } else if (type == float.class) {
+                return 0F;
+            } else if (type == short.class) {
+                return (short) 0;
+            } else if (type == byte.class) {
+                return (byte) 0;
+            } else if (type == char.class) {
+                return (char) 0;
+            } else if (type == String.class) {
+                return "";
+            } else if (type == Logger.class) {
+                return LOGGER;
+            } else if (type.isInterface()) {
+                return stub(type, this);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An inventory keeping its contents
+     */
+    private static final class InventoryHandler extends StubHandler {
+        private final InventoryHolder holder;
+        private final ItemStack[] contents;
+
+        private InventoryHandler(InventoryHolder holder, int size) {
+            this.holder = holder;
+            this.contents = new ItemStack[size];
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "getContents" -> contents.clone();
+                case "setContents" -> {
+                    ItemStack[] items = (ItemStack[]) args[0];
+                    System.arraycopy(items, 0, contents, 0, Math.min(items.length, contents.length));
+                    yield null;
+                }
+                case "getSize" -> contents.length;
+                case "getHolder" -> holder;
+                default -> super.invoke(proxy, method, args);
+            };
+        }
+    }
+}
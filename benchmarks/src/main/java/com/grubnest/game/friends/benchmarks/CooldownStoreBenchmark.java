@@ -0,0 +1,96 @@
+package com.grubnest.game.friends.benchmarks;
+
+import com.grubnest.game.friends.velocity.cache.CooldownStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CooldownStoreBenchmark class measures the notification cooldowns checked on every /friend:
+ * a player spamming the same friend (cooldown already running) and a burst of new cooldowns
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CooldownStoreBenchmark {
+
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_ENTRIES = 100_000;
+
+    /**
+     * The number of new cooldowns started by a burst
+     */
+    private static final int BURST = 1000;
+
+    /**
+     * A store whose cooldowns are all running
+     */
+    @State(Scope.Benchmark)
+    public static class RunningCooldowns {
+        @Param({"1000", "50000"})
+        public int pairs;
+
+        CooldownStore store;
+        UUID[] senders;
+        UUID[] receivers;
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            store = new CooldownStore(WINDOW_MILLIS, MAX_ENTRIES);
+            senders = randomUUIDs(pairs, 1);
+            receivers = randomUUIDs(pairs, 2);
+            for (int i = 0; i < pairs; i++) {
+                store.tryAcquire(senders[i], receivers[i]);
+            }
+        }
+    }
+
+    /**
+     * An empty store, replaced before every burst
+     */
+    @State(Scope.Thread)
+    public static class EmptyStore {
+        CooldownStore store;
+        UUID[] senders = randomUUIDs(BURST, 3);
+        UUID[] receivers = randomUUIDs(BURST, 4);
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            store = new CooldownStore(WINDOW_MILLIS, MAX_ENTRIES);
+        }
+    }
+
+    @Benchmark
+    public boolean tryAcquireRunning(RunningCooldowns state) {
+        int i = state.next;
+        state.next = (i + 1) % state.pairs;
+        return state.store.tryAcquire(state.senders[i], state.receivers[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int tryAcquireNew(EmptyStore state) {
+        for (int i = 0; i < BURST; i++) {
+            state.store.tryAcquire(state.senders[i], state.receivers[i]);
+        }
+        state.store.tick();
+        return state.store.size();
+    }
+
+    private static UUID[] randomUUIDs(int count, long seed) {
+        Random random = new Random(seed);
+        UUID[] uuids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        return uuids;
+    }
+}
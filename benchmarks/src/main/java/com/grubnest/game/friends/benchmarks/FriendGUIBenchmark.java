@@ -0,0 +1,103 @@
+package com.grubnest.game.friends.benchmarks;
+
+import com.grubnest.game.friends.api.FriendStore;
+import com.grubnest.game.friends.messaging.FriendMessage;
+import com.grubnest.game.friends.messaging.FriendMessageCodec;
+import com.grubnest.game.friends.paper.commands.friend.FriendGUI;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FriendGUIBenchmark class measures the friends GUI on a stubbed server (see BukkitStubs):
+ * opening it (items, request of the first page to the proxy) and showing a page again when a presence update is received
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendGUIBenchmark {
+
+    private static final String[] SERVERS = {"Lobby", "Survival", "Creative", "Offline", "Hidden"};
+
+    /**
+     * The number of friends of the player, a page shows 45 of them. Only the first page is ever sent to the GUI
+     */
+    @Param({"9", "45", "450"})
+    public int friends;
+
+    private final UUID playerUUID = new UUID(0, 1);
+    private List<UUID> friendsUUIDs;
+
+    /**
+     * A GUI showing its first page
+     */
+    private FriendGUI gui;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        BukkitStubs.install();
+
+        Random random = new Random(42);
+        friendsUUIDs = new ArrayList<>();
+        for (int i = 0; i < friends; i++) {
+            friendsUUIDs.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        friendsUUIDs.sort(FriendStore.PAGE_ORDER);
+
+        //Answers the request of the first page like the proxy would
+        List<FriendMessage> sent = new ArrayList<>();
+        BukkitStubs.onPluginMessage(message -> FriendMessageCodec.decode(message).ifPresent(sent::add));
+        gui = new FriendGUI(playerUUID, friends);
+        BukkitStubs.onPluginMessage(message -> {
+        });
+
+        FriendMessage.GetFriendsPage request = sent.stream()
+                .filter(FriendMessage.GetFriendsPage.class::isInstance)
+                .map(FriendMessage.GetFriendsPage.class::cast)
+                .findFirst()
+                .orElseThrow();
+        List<UUID> page = friendsUUIDs.subList(0, Math.min(request.limit(), friends));
+        List<String> usernames = new ArrayList<>();
+        List<String> skins = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        List<Integer> mutualFriends = new ArrayList<>();
+        List<Integer> secondsSinceSeen = new ArrayList<>();
+        for (int i = 0; i < page.size(); i++) {
+            usernames.add("Player" + i);
+            skins.add(i % 5 == 0 ? "" : "%016x%016x%016x%016x".formatted(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong()));
+            servers.add(SERVERS[random.nextInt(SERVERS.length)]);
+            mutualFriends.add(random.nextInt(20));
+            secondsSinceSeen.add(servers.get(i).equals("Offline") ? random.nextInt(30 * 24 * 3600) : -1);
+        }
+        //Friends who were never seen sort last, by UUID
+        FriendMessage.PageCursor next = page.isEmpty() ? null : new FriendMessage.PageCursor(null, 0, page.get(page.size() - 1));
+        gui.receivePage(request.requestId(), friends, page, usernames, skins, servers, mutualFriends, secondsSinceSeen, next);
+    }
+
+    /**
+     * Opens a new GUI, replacing the previous one of the player
+     */
+    @Benchmark
+    public FriendGUI open() {
+        return new FriendGUI(playerUUID, friends);
+    }
+
+    /**
+     * A friend of the first page switches server, the page is shown again
+     */
+    @Benchmark
+    public FriendGUI receivePresence() {
+        String server = SERVERS[next];
+        next = (next + 1) % SERVERS.length;
+        gui.receivePresence(List.of(friendsUUIDs.get(0)), List.of(server));
+        return gui;
+    }
+}
@@ -0,0 +1,102 @@
+package com.grubnest.game.friends.benchmarks;
+
+import com.grubnest.game.friends.messaging.FriendMessage;
+import com.grubnest.game.friends.messaging.FriendMessageCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FriendMessageCodecBenchmark class measures the encoding and decoding of the "core:friendcommand" messages
+ * sent for each GUI page: the page request, its reply and the presence updates
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendMessageCodecBenchmark {
+
+    private static final String[] SERVERS = {"Lobby", "Survival", "Creative", "Minigames", "Offline", "Hidden"};
+
+    /**
+     * The number of friends in the page, 45 being a full page
+     */
+    @Param({"9", "45"})
+    public int pageSize;
+
+    private FriendMessage.GetFriendsPage request;
+    private FriendMessage.FriendsPage reply;
+    private FriendMessage.PresenceUpdate presence;
+
+    private byte[] encodedRequest;
+    private byte[] encodedReply;
+    private byte[] encodedPresence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        UUID playerUUID = new UUID(random.nextLong(), random.nextLong());
+
+        List<UUID> friends = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        List<String> skins = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        List<Integer> mutualFriends = new ArrayList<>();
+        List<Integer> secondsSinceSeen = new ArrayList<>();
+        for (int i = 0; i < pageSize; i++) {
+            friends.add(new UUID(random.nextLong(), random.nextLong()));
+            usernames.add("Player" + random.nextInt(100_000));
+            //Texture hashes are 64 hexadecimal characters, some players use the default skin
+            skins.add(i % 5 == 0 ? "" : "%016x%016x%016x%016x".formatted(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong()));
+            servers.add(SERVERS[random.nextInt(SERVERS.length)]);
+            mutualFriends.add(random.nextInt(20));
+            secondsSinceSeen.add(servers.get(i).equals("Offline") ? random.nextInt(30 * 24 * 3600) : -1);
+        }
+
+        FriendMessage.PageCursor after = new FriendMessage.PageCursor(SERVERS[0], 0, new UUID(random.nextLong(), random.nextLong()));
+        FriendMessage.PageCursor next = new FriendMessage.PageCursor(null, System.currentTimeMillis(), friends.get(pageSize - 1));
+        request = new FriendMessage.GetFriendsPage(1, playerUUID, after, pageSize);
+        reply = new FriendMessage.FriendsPage(1, playerUUID, 450, friends, usernames, skins, servers, mutualFriends, secondsSinceSeen, next);
+        presence = new FriendMessage.PresenceUpdate(playerUUID, friends, servers);
+
+        encodedRequest = FriendMessageCodec.encode(request);
+        encodedReply = FriendMessageCodec.encode(reply);
+        encodedPresence = FriendMessageCodec.encode(presence);
+    }
+
+    @Benchmark
+    public byte[] encodeGetFriendsPage() {
+        return FriendMessageCodec.encode(request);
+    }
+
+    @Benchmark
+    public Optional<FriendMessage> decodeGetFriendsPage() {
+        return FriendMessageCodec.decode(encodedRequest);
+    }
+
+    @Benchmark
+    public byte[] encodeFriendsPage() {
+        return FriendMessageCodec.encode(reply);
+    }
+
+    @Benchmark
+    public Optional<FriendMessage> decodeFriendsPage() {
+        return FriendMessageCodec.decode(encodedReply);
+    }
+
+    @Benchmark
+    public byte[] encodePresenceUpdate() {
+        return FriendMessageCodec.encode(presence);
+    }
+
+    @Benchmark
+    public Optional<FriendMessage> decodePresenceUpdate() {
+        return FriendMessageCodec.decode(encodedPresence);
+    }
+}
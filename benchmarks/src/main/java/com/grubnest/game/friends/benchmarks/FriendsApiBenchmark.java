@@ -0,0 +1,146 @@
+package com.grubnest.game.friends.benchmarks;
+
+import com.grubnest.game.friends.api.*;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FriendsApiBenchmark class measures the FriendsAPI calls on the SQL store, against an in-memory H2 database in MySQL mode,
+ * and on the memory store. The SQL numbers don't match a real MySQL server, they are meant to compare two versions
+ * of the queries and their JDBC handling
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendsApiBenchmark {
+
+    private static final String URL = "jdbc:h2:mem:friends;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static final UUID STRANGER_UUID = new UUID(0, 0);
+
+    /**
+     * The store behind FriendsAPI: "jdbc" (H2) or "memory"
+     */
+    @Param({"jdbc", "memory"})
+    public String store;
+
+    /**
+     * The number of players in the database
+     */
+    @Param("2000")
+    public int players;
+
+    /**
+     * The number of friends of each player
+     */
+    @Param({"10", "100"})
+    public int friendsPerPlayer;
+
+    private JdbcConnectionPool pool;
+    private UUID[] playersUUIDs;
+
+    /**
+     * The players shown in a GUI page, checked by getFriendedByAmong
+     */
+    private List<UUID> page;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        if (store.equals("jdbc")) {
+            pool = JdbcConnectionPool.create(URL, "sa", "");
+            FriendDatabase.setConnectionSource(pool::getConnection);
+            FriendStores.set(new JdbcFriendStore());
+        } else {
+            FriendStores.set(new InMemoryFriendStore(64));
+        }
+        FriendsAPI.createTable();
+
+        Random random = new Random(42);
+        playersUUIDs = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            playersUUIDs[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+
+        for (UUID playerUUID : playersUUIDs) {
+            List<FriendStore.Mutation> friends = new ArrayList<>();
+            for (int i = 0; i < friendsPerPlayer; i++) {
+                friends.add(new FriendStore.Mutation(playerUUID, playersUUIDs[random.nextInt(players)], true));
+            }
+            FriendStores.get().apply(friends);
+        }
+
+        page = Arrays.asList(playersUUIDs).subList(0, Math.min(45, players));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        if (pool == null) {
+            return;
+        }
+        try (
+                Connection connection = pool.getConnection();
+                Statement statement = connection.createStatement()
+        ) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        pool.dispose();
+    }
+
+    /**
+     * @return the next player, going through all of them in turn
+     */
+    private UUID nextPlayer() {
+        UUID playerUUID = playersUUIDs[next];
+        next = (next + 1) % playersUUIDs.length;
+        return playerUUID;
+    }
+
+    @Benchmark
+    public Optional<List<UUID>> getFriendsUUIDs() throws SQLException {
+        return FriendsAPI.getFriendsUUIDs(nextPlayer());
+    }
+
+    @Benchmark
+    public int countFriends() throws SQLException {
+        return FriendsAPI.countFriends(nextPlayer());
+    }
+
+    @Benchmark
+    public Optional<List<UUID>> getFriendedByUUIDs() throws SQLException {
+        return FriendsAPI.getFriendedByUUIDs(nextPlayer());
+    }
+
+    @Benchmark
+    public boolean isFriendAlready() throws SQLException {
+        return FriendsAPI.isFriendAlready(nextPlayer(), nextPlayer());
+    }
+
+    @Benchmark
+    public Set<UUID> getFriendedByAmong() throws SQLException {
+        return FriendsAPI.getFriendedByAmong(nextPlayer(), page);
+    }
+
+    /**
+     * Adds then removes a friend who is in nobody's friends list, leaving the database as it was
+     */
+    @Benchmark
+    public void markThenRemove() throws SQLException {
+        UUID playerUUID = nextPlayer();
+        FriendsAPI.markAsFriend(playerUUID, STRANGER_UUID);
+        FriendsAPI.removeFromFriendDB(playerUUID, STRANGER_UUID);
+    }
+}
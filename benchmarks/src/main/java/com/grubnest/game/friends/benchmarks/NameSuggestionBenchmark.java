@@ -0,0 +1,87 @@
+package com.grubnest.game.friends.benchmarks;
+
+import com.grubnest.game.friends.velocity.presence.OnlineNameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The NameSuggestionBenchmark class measures the completion of /friend and /unfriend arguments,
+ * run by the proxy on every key typed
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameSuggestionBenchmark {
+
+    private static final String USERNAME_CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_";
+
+    /**
+     * The default of suggestions.max-results
+     */
+    private static final int LIMIT = 50;
+
+    /**
+     * The number of online players
+     */
+    @Param({"500", "5000"})
+    public int online;
+
+    /**
+     * The number of friends of the player typing, suggested first
+     */
+    @Param("100")
+    public int friends;
+
+    private OnlineNameIndex index;
+    private Set<UUID> ranked;
+    private Set<UUID> excluded;
+
+    /**
+     * What the player typed so far: empty, then one to three characters
+     */
+    private String[] prefixes;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        index = new OnlineNameIndex();
+        List<UUID> players = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < online; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            StringBuilder username = new StringBuilder();
+            int length = 3 + random.nextInt(14);
+            for (int c = 0; c < length; c++) {
+                username.append(USERNAME_CHARACTERS.charAt(random.nextInt(USERNAME_CHARACTERS.length())));
+            }
+            index.add(uuid, username.toString());
+            players.add(uuid);
+            usernames.add(username.toString());
+        }
+
+        ranked = new HashSet<>(players.subList(0, Math.min(friends, online)));
+        excluded = Set.of(players.get(online - 1));
+
+        prefixes = new String[256];
+        for (int i = 0; i < prefixes.length; i++) {
+            String username = usernames.get(random.nextInt(online));
+            prefixes[i] = username.substring(0, Math.min(username.length(), i % 4));
+        }
+    }
+
+    @Benchmark
+    public List<String> complete() {
+        String prefix = prefixes[next];
+        next = (next + 1) % prefixes.length;
+        return index.complete(prefix, LIMIT, ranked, excluded);
+    }
+}
@@ -0,0 +1,199 @@
+package com.grubnest.game.friends.api;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The AsyncFriendsAPI interface gives non-blocking variants of every FriendsAPI function.
+ * The calls run on the DatabaseExecutor, the returned futures complete on one of its threads:
+ * switch back to the server thread before touching the game
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public interface AsyncFriendsAPI {
+
+    /**
+     * Creates a new table in the database if not already created
+     *
+     * @return a future completed once the table exists
+     */
+    static CompletableFuture<Void> createTable() {
+        return DatabaseExecutor.getInstance().run(FriendsAPI::createTable);
+    }
+
+    /**
+     * Tries to add given friendUUID to the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to add the friend
+     * @param friendUUID UUID of the friend you want to add
+     * @return a future completed once the friend is added
+     */
+    static CompletableFuture<Void> markAsFriend(UUID playerUUID, UUID friendUUID) {
+        return DatabaseExecutor.getInstance().run(() -> FriendsAPI.markAsFriend(playerUUID, friendUUID));
+    }
+
+    /**
+     * Tries to remove given friendUUID from the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to remove the friend from
+     * @param friendUUID UUID of the player's friend you want to remove
+     * @return a future completed once the friend is removed
+     */
+    static CompletableFuture<Void> removeFromFriendDB(UUID playerUUID, UUID friendUUID) {
+        return DatabaseExecutor.getInstance().run(() -> FriendsAPI.removeFromFriendDB(playerUUID, friendUUID));
+    }
+
+    /**
+     * Checks if the player has marked another as a friend
+     *
+     * @param playerUUID the player's UUID you want to check
+     * @param friendUUID UUID of the player's optional friend
+     * @return a future completed with true if friendUUID is in the player's friends list, false otherwise
+     */
+    static CompletableFuture<Boolean> isFriendAlready(UUID playerUUID, UUID friendUUID) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.isFriendAlready(playerUUID, friendUUID));
+    }
+
+    /**
+     * Tries to get the player's friends UUIDs
+     *
+     * @param playerUUID the player's UUID
+     * @return a future completed with the list containing the player's friends UUIDs
+     */
+    static CompletableFuture<Optional<List<UUID>>> getFriendsUUIDs(UUID playerUUID) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getFriendsUUIDs(playerUUID));
+    }
+
+    /**
+     * Counts the player's friends
+     *
+     * @param playerUUID the player's UUID
+     * @return a future completed with the number of players in the player's friends list
+     */
+    static CompletableFuture<Integer> countFriends(UUID playerUUID) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.countFriends(playerUUID));
+    }
+
+    /**
+     * Gets the stored last time players were seen
+     *
+     * @param playersUUIDs the players' UUIDs
+     * @return a future completed with the time each player left the proxy at, the players who were never seen are missing
+     */
+    static CompletableFuture<Map<UUID, Long>> getLastSeen(Collection<UUID> playersUUIDs) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getLastSeen(playersUUIDs));
+    }
+
+    /**
+     * Tries to get the UUIDs of the players who marked the given player as a friend
+     *
+     * @param playerUUID the player's UUID
+     * @return a future completed with the list containing the UUIDs of the players who have the player in their friends list
+     */
+    static CompletableFuture<Optional<List<UUID>>> getFriendedByUUIDs(UUID playerUUID) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getFriendedByUUIDs(playerUUID));
+    }
+
+    /**
+     * Checks in a single query which of the given players have marked the player as a friend
+     *
+     * @param playerUUID   the player's UUID
+     * @param playersUUIDs the UUIDs of the players to check
+     * @return a future completed with the UUIDs, among the given ones, of the players who have the player in their friends list
+     */
+    static CompletableFuture<Set<UUID>> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getFriendedByAmong(playerUUID, playersUUIDs));
+    }
+
+    /**
+     * Gets the friends two players have in common
+     *
+     * @param firstUUID  a player's UUID
+     * @param secondUUID another player's UUID
+     * @return a future completed with the UUIDs of the players both players have in their friends list
+     */
+    static CompletableFuture<List<UUID>> getMutualFriends(UUID firstUUID, UUID secondUUID) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getMutualFriends(firstUUID, secondUUID));
+    }
+
+    /**
+     * Counts the friends a player has in common with each of the given players
+     *
+     * @param playerUUID  the player's UUID
+     * @param othersUUIDs the UUIDs of the other players
+     * @return a future completed with, for each other player in the same order, the number of friends they have in common with the player
+     */
+    static CompletableFuture<int[]> countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.countMutualFriends(playerUUID, othersUUIDs));
+    }
+
+    /**
+     * Sends a friend request, replacing an expired one between the same players
+     *
+     * @param request the request
+     * @return a future completed with false if the sender already has a pending request to the receiver
+     */
+    static CompletableFuture<Boolean> addFriendRequest(FriendStore.FriendRequest request) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.addFriendRequest(request));
+    }
+
+    /**
+     * Accepts a pending friend request, adding both players to each other's friends list in a single transaction
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player accepting it
+     * @param now          the current time, an expired request can't be accepted
+     * @return a future completed with false if there was no pending request
+     */
+    static CompletableFuture<Boolean> acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.acceptFriendRequest(senderUUID, receiverUUID, now));
+    }
+
+    /**
+     * Removes a pending friend request, denied by the receiver or cancelled by the sender
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player the request was sent to
+     * @param now          the current time, an expired request counts as already removed
+     * @return a future completed with false if there was no pending request
+     */
+    static CompletableFuture<Boolean> removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.removeFriendRequest(senderUUID, receiverUUID, now));
+    }
+
+    /**
+     * Gets the pending friend requests sent to a player
+     *
+     * @param receiverUUID the player's UUID
+     * @param now          the current time, the expired requests are left out
+     * @param limit        the maximum number of requests read
+     * @return a future completed with the requests, the most recent first
+     */
+    static CompletableFuture<List<FriendStore.FriendRequest>> getIncomingRequests(UUID receiverUUID, long now, int limit) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getIncomingRequests(receiverUUID, now, limit));
+    }
+
+    /**
+     * Gets the pending friend requests sent by a player
+     *
+     * @param senderUUID the player's UUID
+     * @param now        the current time, the expired requests are left out
+     * @param limit      the maximum number of requests read
+     * @return a future completed with the requests, the most recent first
+     */
+    static CompletableFuture<List<FriendStore.FriendRequest>> getOutgoingRequests(UUID senderUUID, long now, int limit) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.getOutgoingRequests(senderUUID, now, limit));
+    }
+
+    /**
+     * Removes a batch of expired friend requests
+     *
+     * @param now   the current time
+     * @param limit the maximum number of requests removed
+     * @return a future completed with the number of requests removed
+     */
+    static CompletableFuture<Integer> removeExpiredRequests(long now, int limit) {
+        return DatabaseExecutor.getInstance().supply(() -> FriendsAPI.removeExpiredRequests(now, limit));
+    }
+}
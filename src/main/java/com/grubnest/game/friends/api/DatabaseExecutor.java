@@ -0,0 +1,226 @@
+package com.grubnest.game.friends.api;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The DatabaseExecutor class runs the database calls of the plugin away from the server and proxy threads.
+ * At most poolSize calls run at the same time, and at most queueCapacity calls can wait for their turn,
+ * further calls are rejected. Virtual threads are used when the JVM supports them (Java 21+).
+ * Each call is given a timeout after which its future fails with a TimeoutException
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class DatabaseExecutor {
+
+    /**
+     * A database call, which may throw an SQLException
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    public interface SQLCall<T> {
+        T call() throws SQLException;
+    }
+
+    /**
+     * A database call without result, which may throw an SQLException
+     */
+    @FunctionalInterface
+    public interface SQLRunnable {
+        void run() throws SQLException;
+    }
+
+    /**
+     * A snapshot of the executor counters, used to size the pool
+     *
+     * @param queued          calls currently waiting for a thread
+     * @param running         calls currently running
+     * @param completed       calls finished since the start
+     * @param rejected        calls rejected because the queue was full
+     * @param averageWaitNano average time spent waiting in the queue
+     * @param maxWaitNano     longest time spent waiting in the queue
+     */
+    public record Stats(int queued, int running, long completed, long rejected, long averageWaitNano, long maxWaitNano) {
+    }
+
+    private static DatabaseExecutor INSTANCE = null;
+
+    private final ExecutorService threads;
+    private final Semaphore permits;
+    private final int queueCapacity;
+    private final long timeoutMillis;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNano = new AtomicLong();
+    private final AtomicLong maxWaitNano = new AtomicLong();
+
+    /**
+     * @param poolSize       the maximum number of calls running at the same time
+     * @param queueCapacity  the maximum number of calls waiting for their turn
+     * @param timeoutMillis  the time after which a call is considered failed
+     * @param virtualThreads whether virtual threads should be used if available
+     */
+    private DatabaseExecutor(int poolSize, int queueCapacity, long timeoutMillis, boolean virtualThreads) {
+        this.queueCapacity = queueCapacity;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(poolSize);
+
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.threads = virtual;
+        } else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.threads = Executors.newFixedThreadPool(poolSize, r -> {
+                Thread thread = new Thread(r, "GrubnestFriends-DB-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Replaces the executor with a new one using the given settings, the previous one is shut down
+     *
+     * @param poolSize       the maximum number of calls running at the same time
+     * @param queueCapacity  the maximum number of calls waiting for their turn
+     * @param timeoutMillis  the time after which a call is considered failed
+     * @param virtualThreads whether virtual threads should be used if available
+     */
+    public static synchronized void configure(int poolSize, int queueCapacity, long timeoutMillis, boolean virtualThreads) {
+        if (INSTANCE != null) {
+            INSTANCE.shutdown();
+        }
+        INSTANCE = new DatabaseExecutor(Math.max(1, poolSize), Math.max(1, queueCapacity), timeoutMillis, virtualThreads);
+    }
+
+    /**
+     * Runs the given database call on the executor
+     *
+     * @param call the database call
+     * @param <T>  the result type
+     * @return a future completed with the call's result, or exceptionally if it failed, timed out or was rejected
+     */
+    public <T> CompletableFuture<T> supply(SQLCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Too many database calls waiting"));
+            return future;
+        }
+
+        long submittedAt = System.nanoTime();
+        try {
+            threads.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    queued.decrementAndGet();
+                    future.completeExceptionally(e);
+                    return;
+                }
+
+                queued.decrementAndGet();
+                running.incrementAndGet();
+                recordWait(System.nanoTime() - submittedAt);
+                try {
+                    if (!future.isDone()) {
+                        future.complete(call.call());
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+
+        return future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the given database call on the executor
+     *
+     * @param call the database call
+     * @return a future completed once the call is done, or exceptionally if it failed, timed out or was rejected
+     */
+    public CompletableFuture<Void> run(SQLRunnable call) {
+        return supply(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return a snapshot of the executor counters
+     */
+    public Stats getStats() {
+        long done = completed.get();
+        return new Stats(queued.get(), running.get(), done, rejected.get(),
+                done == 0 ? 0 : totalWaitNano.get() / done, maxWaitNano.get());
+    }
+
+    /**
+     * Stops accepting calls and waits a few seconds for the running ones to finish
+     */
+    public void shutdown() {
+        threads.shutdown();
+        try {
+            threads.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records the time a call spent in the queue
+     *
+     * @param waitNano the time spent in the queue
+     */
+    private void recordWait(long waitNano) {
+        totalWaitNano.addAndGet(waitNano);
+        maxWaitNano.accumulateAndGet(waitNano, Math::max);
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor if the JVM supports it.
+     * Reflection is used since the plugin is compiled for Java 17
+     *
+     * @return the executor, null if virtual threads aren't available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the instance, created with default settings if configure() hasn't been called
+     */
+    public static synchronized DatabaseExecutor getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new DatabaseExecutor(4, 1000, 5000, true);
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,47 @@
+package com.grubnest.game.friends.api;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.nio.file.Path;
+
+/**
+ * The EmbeddedFriendStore class stores the friendships in an H2 database file, for networks with a single proxy
+ * and no MySQL server. H2 runs in MySQL mode, so the queries of JdbcFriendStore are used as they are.
+ * The connections replace the core's ones in FriendDatabase
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class EmbeddedFriendStore extends JdbcFriendStore {
+
+    private final JdbcConnectionPool pool;
+
+    /**
+     * Opens the database file, creating it if it doesn't exist yet
+     *
+     * @param file           the database file, without H2's ".mv.db" extension
+     * @param maxConnections the maximum number of open connections
+     */
+    public EmbeddedFriendStore(Path file, int maxConnections) {
+        this.pool = JdbcConnectionPool.create(
+                "jdbc:h2:" + file.toAbsolutePath() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+                "sa",
+                ""
+        );
+        pool.setMaxConnections(Math.max(1, maxConnections));
+        FriendDatabase.setConnectionSource(pool::getConnection);
+    }
+
+    /**
+     * H2 reads the rows lazily on its own and rejects negative fetch sizes
+     */
+    @Override
+    protected int streamingFetchSize() {
+        return 1000;
+    }
+
+    @Override
+    public void close() {
+        pool.dispose();
+    }
+}
@@ -0,0 +1,136 @@
+package com.grubnest.game.friends.api;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * The ForwardingFriendStore class forwards every call to another store. Decorators (caching, metrics...)
+ * extend it and only override what they need, so they can be put on top of any store, or of each other
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public abstract class ForwardingFriendStore implements FriendStore {
+
+    private final FriendStore delegate;
+
+    /**
+     * @param delegate the store receiving the calls
+     */
+    protected ForwardingFriendStore(FriendStore delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the store receiving the calls
+     */
+    protected FriendStore delegate() {
+        return delegate;
+    }
+
+    @Override
+    public void createTable() throws SQLException {
+        delegate.createTable();
+    }
+
+    @Override
+    public void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException {
+        delegate.markAsFriend(playerUUID, friendUUID);
+    }
+
+    @Override
+    public void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException {
+        delegate.removeFromFriendDB(playerUUID, friendUUID);
+    }
+
+    @Override
+    public boolean isFriendAlready(UUID playerUUID, UUID friendUUID) throws SQLException {
+        return delegate.isFriendAlready(playerUUID, friendUUID);
+    }
+
+    @Override
+    public Optional<List<UUID>> getFriendsUUIDs(UUID playerUUID) throws SQLException {
+        return delegate.getFriendsUUIDs(playerUUID);
+    }
+
+    @Override
+    public Optional<List<UUID>> getFriendedByUUIDs(UUID playerUUID) throws SQLException {
+        return delegate.getFriendedByUUIDs(playerUUID);
+    }
+
+    @Override
+    public Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) throws SQLException {
+        return delegate.getFriendedByAmong(playerUUID, playersUUIDs);
+    }
+
+    @Override
+    public int countFriends(UUID playerUUID) throws SQLException {
+        return delegate.countFriends(playerUUID);
+    }
+
+    @Override
+    public void setLastSeen(Map<UUID, Long> lastSeen) throws SQLException {
+        delegate.setLastSeen(lastSeen);
+    }
+
+    @Override
+    public Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) throws SQLException {
+        return delegate.getLastSeen(playersUUIDs);
+    }
+
+    @Override
+    public List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) throws SQLException {
+        return delegate.getMutualFriends(firstUUID, secondUUID);
+    }
+
+    @Override
+    public int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) throws SQLException {
+        return delegate.countMutualFriends(playerUUID, othersUUIDs);
+    }
+
+    @Override
+    public boolean[] apply(List<Mutation> mutations) throws SQLException {
+        return delegate.apply(mutations);
+    }
+
+    @Override
+    public boolean addFriendRequest(FriendRequest request) throws SQLException {
+        return delegate.addFriendRequest(request);
+    }
+
+    @Override
+    public boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        return delegate.acceptFriendRequest(senderUUID, receiverUUID, now);
+    }
+
+    @Override
+    public boolean removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        return delegate.removeFriendRequest(senderUUID, receiverUUID, now);
+    }
+
+    @Override
+    public List<FriendRequest> getIncomingRequests(UUID receiverUUID, long now, int limit) throws SQLException {
+        return delegate.getIncomingRequests(receiverUUID, now, limit);
+    }
+
+    @Override
+    public List<FriendRequest> getOutgoingRequests(UUID senderUUID, long now, int limit) throws SQLException {
+        return delegate.getOutgoingRequests(senderUUID, now, limit);
+    }
+
+    @Override
+    public int removeExpiredRequests(long now, int limit) throws SQLException {
+        return delegate.removeExpiredRequests(now, limit);
+    }
+
+    @Override
+    public long forEachFriendship(UUID playerUUID, FriendshipConsumer consumer) throws SQLException, IOException {
+        return delegate.forEachFriendship(playerUUID, consumer);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
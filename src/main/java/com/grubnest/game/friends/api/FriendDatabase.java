@@ -0,0 +1,283 @@
+package com.grubnest.game.friends.api;
+
+import com.grubnest.game.core.databasehandler.DatabaseManager;
+
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The FriendDatabase class knows the layout of the friend tables.
+ * Friendships are stored in the friend_v2 table, using BINARY(16) UUIDs and indexed in both directions.
+ * Until the migration of the legacy varchar friend table is done (see FriendTableMigration),
+ * reads keep using the legacy table and writes go to both tables.
+ * The last time each player was seen is stored in player_last_seen, keyed by player.
+ * The pending friend requests are stored in friend_request, indexed by receiver for the incoming requests
+ * and by expiry time for the sweeper
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class FriendDatabase {
+
+    /**
+     * The table storing the friendships
+     */
+    public static final String TABLE = "friend_v2";
+
+    /**
+     * The table used before friend_v2, storing UUIDs as varchar(36)
+     */
+    public static final String LEGACY_TABLE = "friend";
+
+    /**
+     * The table storing the last time each player was seen on the proxy
+     */
+    public static final String LAST_SEEN_TABLE = "player_last_seen";
+
+    /**
+     * The table storing the pending friend requests
+     */
+    public static final String REQUEST_TABLE = "friend_request";
+
+    /**
+     * The table storing the progress of the migration
+     */
+    static final String MIGRATION_TABLE = "friend_migration";
+
+    /**
+     * How long the migration status is trusted before being read again
+     */
+    private static final long STATUS_TTL_MILLIS = 30_000;
+
+    /**
+     * How long writes keep going to the legacy table once the migration is done,
+     * so servers that haven't noticed yet don't read stale data
+     */
+    private static final long LEGACY_WRITES_GRACE_MILLIS = 4 * STATUS_TTL_MILLIS;
+
+    /**
+     * Opens the connections to the database
+     */
+    public interface ConnectionSource {
+        Connection getConnection() throws SQLException;
+    }
+
+    /**
+     * The core's MySQL pool, unless replaced by setConnectionSource()
+     */
+    private static volatile ConnectionSource connectionSource = () -> DatabaseManager.getInstance().getMySQL().getConnection();
+
+    private static volatile boolean migrated = false;
+    private static volatile long migratedAt = 0;
+    private static volatile long lastStatusCheck = 0;
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private FriendDatabase() {
+    }
+
+    /**
+     * @return a new connection to the database
+     */
+    static Connection getConnection() throws SQLException {
+        return connectionSource.getConnection();
+    }
+
+    /**
+     * Replaces the core's MySQL pool, used to run the API against another database (the benchmarks use an embedded one).
+     * The migration status is read again from the new database
+     *
+     * @param source opens the connections to the database
+     */
+    public static void setConnectionSource(ConnectionSource source) {
+        connectionSource = source;
+        migrated = false;
+        migratedAt = 0;
+        lastStatusCheck = 0;
+    }
+
+    /**
+     * Creates the friend_v2, last seen, friend request and migration tables if not already created.
+     * If there is no legacy table to migrate, the migration is marked as done right away
+     */
+    static void createTables() throws SQLException {
+        try (
+                Connection connection = getConnection();
+                Statement statement = connection.createStatement()
+        ) {
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS `friend_v2` (
+                        player_uuid BINARY(16) NOT NULL,
+                        friend_uuid BINARY(16) NOT NULL,
+                        PRIMARY KEY (player_uuid, friend_uuid),
+                        KEY friend_reverse (friend_uuid, player_uuid)
+                    )
+                    """);
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS `player_last_seen` (
+                        player_uuid BINARY(16) NOT NULL PRIMARY KEY,
+                        last_seen BIGINT NOT NULL
+                    )
+                    """);
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS `friend_request` (
+                        sender_uuid BINARY(16) NOT NULL,
+                        receiver_uuid BINARY(16) NOT NULL,
+                        sent_at BIGINT NOT NULL,
+                        expires_at BIGINT NOT NULL,
+                        PRIMARY KEY (sender_uuid, receiver_uuid),
+                        KEY request_incoming (receiver_uuid, sent_at),
+                        KEY request_expiry (expires_at)
+                    )
+                    """);
+            statement.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS `friend_migration` (
+                        name varchar(32) NOT NULL PRIMARY KEY,
+                        last_player_uuid varchar(36),
+                        last_friend_uuid varchar(36),
+                        completed_at BIGINT
+                    )
+                    """);
+
+            if (!legacyTableExists(connection)) {
+                statement.executeUpdate("""
+                        INSERT IGNORE INTO friend_migration (name, completed_at)
+                        VALUES ('friend_v2', 0)
+                        """);
+            }
+        }
+        lastStatusCheck = 0;
+    }
+
+    /**
+     * @return the table reads should use, depending on the migration status
+     */
+    static String readTable() throws SQLException {
+        refreshStatus();
+        return migrated ? TABLE : LEGACY_TABLE;
+    }
+
+    /**
+     * @return the tables writes should go to, depending on the migration status
+     */
+    static List<String> writeTables() throws SQLException {
+        refreshStatus();
+        if (migrated && System.currentTimeMillis() - migratedAt > LEGACY_WRITES_GRACE_MILLIS) {
+            return List.of(TABLE);
+        }
+        return List.of(TABLE, LEGACY_TABLE);
+    }
+
+    /**
+     * Binds a UUID in the format used by the given table
+     *
+     * @param statement the statement
+     * @param index     the parameter index
+     * @param uuid      the UUID
+     * @param table     the table the parameter is compared to
+     */
+    static void setUUID(PreparedStatement statement, int index, UUID uuid, String table) throws SQLException {
+        if (table.equals(LEGACY_TABLE)) {
+            statement.setString(index, uuid.toString());
+        } else {
+            statement.setBytes(index, toBytes(uuid));
+        }
+    }
+
+    /**
+     * Reads a UUID stored in the format used by the given table
+     *
+     * @param rows   the result set
+     * @param column the column
+     * @param table  the table the column comes from
+     * @return the UUID
+     */
+    static UUID getUUID(ResultSet rows, String column, String table) throws SQLException {
+        if (table.equals(LEGACY_TABLE)) {
+            return UUID.fromString(rows.getString(column));
+        }
+        return fromBytes(rows.getBytes(column));
+    }
+
+    /**
+     * @param uuid the UUID
+     * @return the 16 bytes of the UUID, most significant first
+     */
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * @param bytes the 16 bytes of a UUID, most significant first
+     * @return the UUID
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Marks the migration as done for this server
+     *
+     * @param completedAt the time the migration was completed at
+     */
+    static void setMigrated(long completedAt) {
+        migratedAt = completedAt;
+        migrated = true;
+        lastStatusCheck = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true if the friend_v2 table is complete and used for reads
+     */
+    public static boolean isMigrated() throws SQLException {
+        refreshStatus();
+        return migrated;
+    }
+
+    /**
+     * Reads the migration status from the database if it hasn't been read recently.
+     * Once the migration is done, it's never read again
+     */
+    private static void refreshStatus() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (migrated || now - lastStatusCheck < STATUS_TTL_MILLIS) {
+            return;
+        }
+
+        try (
+                Connection connection = getConnection();
+                PreparedStatement statement = connection.prepareStatement("""
+                        SELECT completed_at
+                        FROM friend_migration
+                        WHERE name='friend_v2' AND completed_at IS NOT NULL
+                        """)
+        ) {
+            ResultSet rows = statement.executeQuery();
+            if (rows.next()) {
+                setMigrated(rows.getLong("completed_at"));
+            } else if (!legacyTableExists(connection)) {
+                setMigrated(0);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to read the friend table migration status", e);
+        }
+        lastStatusCheck = now;
+    }
+
+    /**
+     * @param connection an open connection
+     * @return true if the legacy friend table exists
+     */
+    static boolean legacyTableExists(Connection connection) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, LEGACY_TABLE, new String[]{"TABLE"})) {
+            return tables.next();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.grubnest.game.friends.api;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+/**
+ * The FriendGraphTransfer class exports the friendships of the friend store to a file and imports them back, in constant memory.
+ * Exports stream the friendships instead of loading them, imports add them by batches
+ * (friendships already there are ignored, so importing twice is harmless). Two formats are supported:
+ * CSV, one "player_uuid,friend_uuid" line per friendship after a header line,
+ * and BINARY, a magic number followed by two UUIDs (four longs) per friendship
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendGraphTransfer {
+
+    /**
+     * The file formats
+     */
+    public enum Format {
+        CSV,
+        BINARY;
+
+        /**
+         * @param file the file
+         * @return BINARY for files ending with ".bin", CSV otherwise
+         */
+        public static Format fromFileName(Path file) {
+            return file.getFileName().toString().toLowerCase().endsWith(".bin") ? BINARY : CSV;
+        }
+    }
+
+    private static final String CSV_HEADER = "player_uuid,friend_uuid";
+
+    /**
+     * "GFG1", written at the beginning of binary files
+     */
+    private static final int BINARY_MAGIC = 0x47464731;
+
+    private final int batchSize;
+
+    /**
+     * @param batchSize the number of rows inserted per batch, and between two progress reports
+     */
+    public FriendGraphTransfer(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Writes the friendships to the file, replacing it
+     *
+     * @param file       the file
+     * @param format     the file format
+     * @param playerUUID if not null, only the friendships of this player (in both directions) are exported
+     * @param progress   receives the number of exported rows every batchSize rows
+     * @return the number of exported rows
+     */
+    public long exportTo(Path file, Format format, UUID playerUUID, LongConsumer progress) throws SQLException, IOException {
+        long[] count = new long[1];
+        try (FriendshipWriter writer = format == Format.BINARY ? new BinaryWriter(file) : new CsvWriter(file)) {
+            FriendStores.get().forEachFriendship(playerUUID, (player, friend) -> {
+                writer.write(player, friend);
+                if (++count[0] % batchSize == 0) {
+                    progress.accept(count[0]);
+                }
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Reads the friendships from the file and adds the missing ones to the friend store
+     *
+     * @param file     the file
+     * @param format   the file format
+     * @param listener told about every friendship the import added, after each batch, to keep caches up to date
+     * @param progress receives the number of read rows after every batch
+     * @return the number of read rows, friendships already in the store included
+     */
+    public long importFrom(Path file, Format format, FriendMutationQueue.Listener listener, LongConsumer progress) throws SQLException, IOException {
+        long count = 0;
+        try (FriendshipReader reader = format == Format.BINARY ? new BinaryReader(file) : new CsvReader(file)) {
+            List<FriendStore.Mutation> batch = new ArrayList<>(batchSize);
+            UUID[] friendship;
+            while ((friendship = reader.read()) != null) {
+                batch.add(new FriendStore.Mutation(friendship[0], friendship[1], true));
+                count++;
+                if (batch.size() == batchSize) {
+                    apply(batch, listener);
+                    batch.clear();
+                    progress.accept(count);
+                }
+            }
+            if (!batch.isEmpty()) {
+                apply(batch, listener);
+                progress.accept(count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds a batch of friendships to the friend store, then tells the listener about the ones which were missing
+     */
+    private static void apply(List<FriendStore.Mutation> batch, FriendMutationQueue.Listener listener) throws SQLException {
+        boolean[] changed = FriendStores.get().apply(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            if (changed[i]) {
+                listener.onAdded(batch.get(i).playerUUID(), batch.get(i).friendUUID());
+            }
+        }
+    }
+
+    /**
+     * Writes friendships to a file
+     */
+    private interface FriendshipWriter extends Closeable {
+        void write(UUID playerUUID, UUID friendUUID) throws IOException;
+    }
+
+    /**
+     * Reads friendships from a file
+     */
+    private interface FriendshipReader extends Closeable {
+        /**
+         * @return the player's UUID and the friend's UUID, null at the end of the file
+         */
+        UUID[] read() throws IOException;
+    }
+
+    private static final class CsvWriter implements FriendshipWriter {
+        private final BufferedWriter out;
+
+        private CsvWriter(Path file) throws IOException {
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            out.write(CSV_HEADER);
+            out.newLine();
+        }
+
+        @Override
+        public void write(UUID playerUUID, UUID friendUUID) throws IOException {
+            out.write(playerUUID.toString());
+            out.write(',');
+            out.write(friendUUID.toString());
+            out.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class CsvReader implements FriendshipReader {
+        private final BufferedReader in;
+        private long lineNumber = 0;
+
+        private CsvReader(Path file) throws IOException {
+            this.in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public UUID[] read() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.equalsIgnoreCase(CSV_HEADER)) {
+                    continue;
+                }
+
+                int comma = line.indexOf(',');
+                try {
+                    if (comma < 0) {
+                        throw new IllegalArgumentException("missing comma");
+                    }
+                    return new UUID[]{UUID.fromString(line.substring(0, comma).trim()), UUID.fromString(line.substring(comma + 1).trim())};
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid friendship at line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class BinaryWriter implements FriendshipWriter {
+        private final DataOutputStream out;
+
+        private BinaryWriter(Path file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            out.writeInt(BINARY_MAGIC);
+        }
+
+        @Override
+        public void write(UUID playerUUID, UUID friendUUID) throws IOException {
+            out.writeLong(playerUUID.getMostSignificantBits());
+            out.writeLong(playerUUID.getLeastSignificantBits());
+            out.writeLong(friendUUID.getMostSignificantBits());
+            out.writeLong(friendUUID.getLeastSignificantBits());
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class BinaryReader implements FriendshipReader {
+        private final DataInputStream in;
+
+        private BinaryReader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            if (in.readInt() != BINARY_MAGIC) {
+                in.close();
+                throw new IOException("Not a binary friends file");
+            }
+        }
+
+        @Override
+        public UUID[] read() throws IOException {
+            long playerMost;
+            try {
+                playerMost = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            return new UUID[]{new UUID(playerMost, in.readLong()), new UUID(in.readLong(), in.readLong())};
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
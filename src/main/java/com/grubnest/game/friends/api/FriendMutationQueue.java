@@ -0,0 +1,229 @@
+package com.grubnest.game.friends.api;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FriendMutationQueue class writes the friendship removals behind the callers, by batches.
+ * Removals of the same friendship waiting for the same flush are coalesced into a single one, applied through
+ * the friend store (see FriendStores). The store tells whether it changed the friendship, so each caller gets
+ * its outcome without a separate isFriendAlready query. Friendships are only added by accepted friend requests,
+ * which are written in their own transaction.
+ * The queue is flushed every flushMillis, or as soon as batchSize friendships are waiting.
+ * A write made outside of the queue goes through writeAfterPending, so a mutation queued before it can't be applied after it
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendMutationQueue {
+
+    /**
+     * The outcome of a removal
+     */
+    public enum Outcome {
+        REMOVED,
+        NOT_PRESENT
+    }
+
+    /**
+     * Receives the friendships actually added or removed, used to keep caches up to date.
+     * The queue only reports removals, the other writers report both
+     */
+    public interface Listener {
+        void onAdded(UUID playerUUID, UUID friendUUID);
+
+        void onRemoved(UUID playerUUID, UUID friendUUID);
+    }
+
+    private record Edge(UUID playerUUID, UUID friendUUID) {
+    }
+
+    private final int batchSize;
+    private final Listener listener;
+    private final ScheduledExecutorService flusher;
+    private final Object lock = new Object();
+
+    /**
+     * Held while mutations are written, taken before lock, so writes leave in the order their batches were taken
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The callers of the removals waiting for the next flush, by friendship, in arrival order
+     */
+    private Map<Edge, List<CompletableFuture<Outcome>>> pending = new LinkedHashMap<>();
+    private boolean closed = false;
+    private boolean flushRequested = false;
+
+    /**
+     * @param batchSize   the number of friendships written per batch, a flush starts as soon as this many are waiting
+     * @param flushMillis the maximum time a mutation waits before being written
+     * @param listener    receives the friendships actually removed
+     */
+    public FriendMutationQueue(int batchSize, long flushMillis, Listener listener) {
+        this.batchSize = Math.max(1, batchSize);
+        this.listener = listener;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "GrubnestFriends-Mutations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the removal of friendUUID from the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to remove the friend from
+     * @param friendUUID UUID of the player's friend you want to remove
+     * @return REMOVED or NOT_PRESENT, once written
+     */
+    public CompletableFuture<Outcome> remove(UUID playerUUID, UUID friendUUID) {
+        return submit(new Edge(playerUUID, friendUUID));
+    }
+
+    /**
+     * Writes the waiting mutations of the friendships between two players on the calling thread, then runs the given write
+     * before any other flush. Used by the writes made outside of the queue, e.g. an accepted friend request:
+     * a removal queued before it can't be applied after it and delete the new friendship.
+     * If the waiting mutations fail, their callers are told and the write still runs
+     *
+     * @param playerUUID UUID of one of the players
+     * @param friendUUID UUID of the other player
+     * @param write      the write to run once the friendships are up to date
+     * @param <T>        the result type
+     * @return the result of the write
+     */
+    public <T> T writeAfterPending(UUID playerUUID, UUID friendUUID, DatabaseExecutor.SQLCall<T> write) throws SQLException {
+        synchronized (writeLock) {
+            List<Map.Entry<Edge, List<CompletableFuture<Outcome>>>> waiting = new ArrayList<>(2);
+            synchronized (lock) {
+                for (Edge edge : List.of(new Edge(playerUUID, friendUUID), new Edge(friendUUID, playerUUID))) {
+                    List<CompletableFuture<Outcome>> callers = pending.remove(edge);
+                    if (callers != null) {
+                        waiting.add(Map.entry(edge, callers));
+                    }
+                }
+            }
+            if (!waiting.isEmpty()) {
+                writeOrFail(waiting);
+            }
+            return write.call();
+        }
+    }
+
+    /**
+     * Stops accepting mutations, then writes the waiting ones and waits for them
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //Anything queued between the last scheduled flush and the shutdown
+        flushSafely();
+    }
+
+    /**
+     * @return the number of friendships waiting for the next flush
+     */
+    public int size() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    private CompletableFuture<Outcome> submit(Edge edge) {
+        CompletableFuture<Outcome> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("The friend mutation queue is shut down"));
+                return future;
+            }
+            pending.computeIfAbsent(edge, key -> new ArrayList<>(1)).add(future);
+            if (pending.size() >= batchSize && !flushRequested) {
+                flushRequested = true;
+                flusher.execute(this::flushSafely);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Writes everything waiting, batch by batch
+     */
+    private void flushSafely() {
+        synchronized (writeLock) {
+            Map<Edge, List<CompletableFuture<Outcome>>> batch;
+            synchronized (lock) {
+                flushRequested = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+
+            List<Map.Entry<Edge, List<CompletableFuture<Outcome>>>> entries = new ArrayList<>(batch.entrySet());
+            for (int from = 0; from < entries.size(); from += batchSize) {
+                writeOrFail(entries.subList(from, Math.min(entries.size(), from + batchSize)));
+            }
+        }
+    }
+
+    /**
+     * Writes a chunk, or fails the futures of its mutations
+     */
+    private void writeOrFail(List<Map.Entry<Edge, List<CompletableFuture<Outcome>>>> chunk) {
+        try {
+            write(chunk);
+        } catch (SQLException | RuntimeException e) {
+            SQLException error = e instanceof SQLException sqlException ? sqlException : new SQLException("Error while trying to write the friend mutations", e);
+            for (Map.Entry<Edge, List<CompletableFuture<Outcome>>> entry : chunk) {
+                for (CompletableFuture<Outcome> caller : entry.getValue()) {
+                    caller.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a single removal per friendship through the store, then completes the futures
+     */
+    private void write(List<Map.Entry<Edge, List<CompletableFuture<Outcome>>>> chunk) throws SQLException {
+        List<FriendStore.Mutation> removals = new ArrayList<>(chunk.size());
+        for (Map.Entry<Edge, List<CompletableFuture<Outcome>>> entry : chunk) {
+            removals.add(new FriendStore.Mutation(entry.getKey().playerUUID(), entry.getKey().friendUUID(), false));
+        }
+
+        boolean[] changed = FriendStores.get().apply(removals);
+        for (int i = 0; i < chunk.size(); i++) {
+            complete(chunk.get(i).getKey(), chunk.get(i).getValue(), changed[i]);
+        }
+    }
+
+    /**
+     * Tells the listener, then gives the first caller REMOVED if the removal changed the friendship,
+     * the callers following it find the friendship already removed
+     */
+    private void complete(Edge edge, List<CompletableFuture<Outcome>> callers, boolean changed) {
+        if (changed) {
+            //The listener runs first, so the callers see up to date caches
+            listener.onRemoved(edge.playerUUID(), edge.friendUUID());
+        }
+        for (int i = 0; i < callers.size(); i++) {
+            callers.get(i).complete(changed && i == 0 ? Outcome.REMOVED : Outcome.NOT_PRESENT);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.grubnest.game.friends.api;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The FriendRequestSweeper class removes the expired friend requests. A single repeating task runs it, instead of
+ * a task per request: each sweep reads the oldest expired requests through the expiry index and removes them
+ * by batches, until a batch comes back short. Expired requests are already ignored by every read,
+ * so a late sweep only leaves rows behind for a while
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendRequestSweeper {
+
+    private final int batchSize;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * @param batchSize the maximum number of requests removed per batch
+     */
+    public FriendRequestSweeper(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Removes every request expired by now, batch by batch, on the calling thread. Does nothing if another sweep is running
+     *
+     * @return the number of requests removed
+     */
+    public int sweep() throws SQLException {
+        if (!sweeping.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            int batch;
+            do {
+                batch = FriendsAPI.removeExpiredRequests(now, batchSize);
+                removed += batch;
+            } while (batch == batchSize);
+            return removed;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+}
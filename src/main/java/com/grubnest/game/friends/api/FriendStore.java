@@ -0,0 +1,263 @@
+package com.grubnest.game.friends.api;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * The FriendStore interface is where the friendships are stored. FriendsAPI, the mutation queue and the transfers
+ * all go through the store selected by the config (see FriendStores), which can be decorated (see ForwardingFriendStore).
+ * Every implementation must be thread-safe. Calls may block, use AsyncFriendsAPI or the DatabaseExecutor from the game threads
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public interface FriendStore {
+
+    /**
+     * The addition or removal of a friendship
+     *
+     * @param playerUUID the UUID of the player whose friends list changes
+     * @param friendUUID the UUID of the friend added or removed
+     * @param add        true to add the friend, false to remove them
+     */
+    record Mutation(UUID playerUUID, UUID friendUUID, boolean add) {
+    }
+
+    /**
+     * The tie-breaking order of the friends and requests views: the unsigned order of the UUIDs bits,
+     * which is also the order of the BINARY(16) keys and of the lowercase UUID strings of the friend tables
+     */
+    Comparator<UUID> PAGE_ORDER = Comparator.comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    /**
+     * A friend with the last time they were seen on the proxy
+     *
+     * @param friendUUID the friend's UUID
+     * @param lastSeen   the time they left the proxy at, 0 if unknown
+     */
+    record SeenFriend(UUID friendUUID, long lastSeen) {
+    }
+
+    /**
+     * The last seen order of the friends lists: the most recently seen first, then PAGE_ORDER
+     */
+    Comparator<SeenFriend> LAST_SEEN_ORDER = Comparator.comparingLong(SeenFriend::lastSeen).reversed()
+            .thenComparing(SeenFriend::friendUUID, PAGE_ORDER);
+
+    /**
+     * The order of the requests views: the most recent first
+     */
+    Comparator<FriendRequest> REQUEST_ORDER = Comparator.comparingLong(FriendRequest::sentAt).reversed()
+            .thenComparing(FriendRequest::senderUUID, PAGE_ORDER)
+            .thenComparing(FriendRequest::receiverUUID, PAGE_ORDER);
+
+    /**
+     * A friend request waiting for an answer
+     *
+     * @param senderUUID   the UUID of the player who sent the request
+     * @param receiverUUID the UUID of the player the request was sent to
+     * @param sentAt       the time the request was sent at
+     * @param expiresAt    the time the request expires at, it's then ignored until the sweeper removes it
+     */
+    record FriendRequest(UUID senderUUID, UUID receiverUUID, long sentAt, long expiresAt) {
+    }
+
+    /**
+     * Receives the friendships one by one, see forEachFriendship()
+     */
+    interface FriendshipConsumer {
+        void accept(UUID playerUUID, UUID friendUUID) throws IOException;
+    }
+
+    /**
+     * Creates the tables if not already created, does nothing for stores without tables
+     */
+    void createTable() throws SQLException;
+
+    /**
+     * Adds friendUUID to the player's friends list, does nothing if it's already there
+     *
+     * @param playerUUID UUID of the player you want to add the friend
+     * @param friendUUID UUID of the friend you want to add
+     */
+    void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException;
+
+    /**
+     * Removes friendUUID from the player's friends list, does nothing if it's not there
+     *
+     * @param playerUUID UUID of the player you want to remove the friend from
+     * @param friendUUID UUID of the player's friend you want to remove
+     */
+    void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException;
+
+    /**
+     * @param playerUUID the player's UUID you want to check
+     * @param friendUUID UUID of the player's optional friend
+     * @return true if friendUUID is in the player's friends list, false otherwise
+     */
+    boolean isFriendAlready(UUID playerUUID, UUID friendUUID) throws SQLException;
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the player's friends UUIDs, empty if the player has no friend
+     */
+    Optional<List<UUID>> getFriendsUUIDs(UUID playerUUID) throws SQLException;
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the number of players in the player's friends list
+     */
+    int countFriends(UUID playerUUID) throws SQLException;
+
+    /**
+     * Stores the last time players were seen, a time older than the stored one is ignored
+     *
+     * @param lastSeen the time each player left the proxy at, by UUID
+     */
+    void setLastSeen(Map<UUID, Long> lastSeen) throws SQLException;
+
+    /**
+     * @param playersUUIDs the players' UUIDs
+     * @return the stored time each player left the proxy at, the players who were never seen are missing
+     */
+    Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) throws SQLException;
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the UUIDs of the players who have the player in their friends list, empty if there is none
+     */
+    Optional<List<UUID>> getFriendedByUUIDs(UUID playerUUID) throws SQLException;
+
+    /**
+     * @param playerUUID   the player's UUID
+     * @param playersUUIDs the UUIDs of the players to check
+     * @return the UUIDs, among the given ones, of the players who have the player in their friends list
+     */
+    Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) throws SQLException;
+
+    /**
+     * @param firstUUID  a player's UUID
+     * @param secondUUID another player's UUID
+     * @return the UUIDs of the players both players have in their friends list
+     */
+    List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) throws SQLException;
+
+    /**
+     * @param playerUUID   the player's UUID
+     * @param othersUUIDs  the UUIDs of the other players
+     * @return for each other player, in the same order, the number of players both them and the player have in their friends list
+     */
+    int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) throws SQLException;
+
+    /**
+     * Applies the mutations in order, all at once if the store supports transactions
+     *
+     * @param mutations the mutations
+     * @return for each mutation, true if it changed the friendships (false for an addition of a friendship
+     * already there or a removal of a missing one). A store which can't tell returns true
+     */
+    boolean[] apply(List<Mutation> mutations) throws SQLException;
+
+    /**
+     * Stores a friend request, replacing an expired one between the same players
+     *
+     * @param request the request
+     * @return false if the sender already has a pending request to the receiver, nothing is stored then
+     */
+    boolean addFriendRequest(FriendRequest request) throws SQLException;
+
+    /**
+     * Removes the pending request and adds both players to each other's friends list, all at once if the store
+     * supports transactions
+     *
+     * @param senderUUID   the UUID of the player who sent the request
+     * @param receiverUUID the UUID of the player accepting it
+     * @param now          the current time, an expired request can't be accepted
+     * @return false if there was no pending request, nothing is changed then
+     */
+    boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException;
+
+    /**
+     * Removes a pending request, when it's denied by the receiver or cancelled by the sender
+     *
+     * @param senderUUID   the UUID of the player who sent the request
+     * @param receiverUUID the UUID of the player the request was sent to
+     * @param now          the current time, an expired request counts as already removed
+     * @return false if there was no pending request
+     */
+    boolean removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException;
+
+    /**
+     * @param receiverUUID the player's UUID
+     * @param now          the current time, the expired requests are left out
+     * @param limit        the maximum number of requests read
+     * @return the pending requests sent to the player, the most recent first
+     */
+    List<FriendRequest> getIncomingRequests(UUID receiverUUID, long now, int limit) throws SQLException;
+
+    /**
+     * @param senderUUID the player's UUID
+     * @param now        the current time, the expired requests are left out
+     * @param limit      the maximum number of requests read
+     * @return the pending requests sent by the player, the most recent first
+     */
+    List<FriendRequest> getOutgoingRequests(UUID senderUUID, long now, int limit) throws SQLException;
+
+    /**
+     * Removes a batch of expired requests, the oldest ones first when the store can tell
+     *
+     * @param now   the current time
+     * @param limit the maximum number of requests removed
+     * @return the number of requests removed, lower than limit once none is left
+     */
+    int removeExpiredRequests(long now, int limit) throws SQLException;
+
+    /**
+     * Gives every friendship to the consumer, without loading them all in memory
+     *
+     * @param playerUUID if not null, only the friendships of this player (in both directions)
+     * @param consumer   receives the friendships
+     * @return the number of friendships given to the consumer
+     */
+    long forEachFriendship(UUID playerUUID, FriendshipConsumer consumer) throws SQLException, IOException;
+
+    /**
+     * Selects a page out of values held in memory, in any order
+     *
+     * @param values the values to select from
+     * @param after  the value the selected ones must follow, null to select from all of them
+     * @param limit  the maximum number of values selected
+     * @param order  the order of the page
+     * @return the first values following after, in order
+     */
+    static <T> List<T> firstAfter(Collection<T> values, T after, int limit, Comparator<? super T> order) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        //The last selected value is at the head, replaced as soon as a smaller one is found
+        PriorityQueue<T> first = new PriorityQueue<>(Math.min(limit, values.size()) + 1, order.reversed());
+        for (T value : values) {
+            if (after != null && order.compare(value, after) <= 0) {
+                continue;
+            }
+            if (first.size() < limit) {
+                first.add(value);
+            } else if (order.compare(value, first.peek()) < 0) {
+                first.poll();
+                first.add(value);
+            }
+        }
+
+        List<T> page = new ArrayList<>(first);
+        page.sort(order);
+        return page;
+    }
+
+    /**
+     * Releases the resources of the store, it must not be used anymore
+     */
+    default void close() {
+    }
+}
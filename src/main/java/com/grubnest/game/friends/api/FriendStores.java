@@ -0,0 +1,62 @@
+package com.grubnest.game.friends.api;
+
+import com.grubnest.game.friends.config.FriendsConfig;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * The FriendStores class holds the friend store used by FriendsAPI, and creates the one selected by the config.
+ * Until another one is set, the friendships are stored in the core's MySQL database
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class FriendStores {
+
+    private static volatile FriendStore store = new JdbcFriendStore();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private FriendStores() {
+    }
+
+    /**
+     * @return the store used by FriendsAPI
+     */
+    public static FriendStore get() {
+        return store;
+    }
+
+    /**
+     * Replaces the store used by FriendsAPI, the previous one isn't closed
+     *
+     * @param friendStore the new store
+     */
+    public static void set(FriendStore friendStore) {
+        store = friendStore;
+    }
+
+    /**
+     * Creates the store selected by "store.type": "mysql" (the core's database), "memory" (nothing is persisted)
+     * or "embedded" (an H2 file in the data directory)
+     *
+     * @param config        the plugin's config
+     * @param dataDirectory the plugin's data directory
+     * @return the new store, not set yet
+     * @throws IllegalArgumentException if the type is unknown
+     */
+    public static FriendStore create(FriendsConfig config, Path dataDirectory) {
+        String type = config.getString("store.type", "mysql").toLowerCase(Locale.ROOT);
+        return switch (type) {
+            case "mysql" -> new JdbcFriendStore();
+            case "memory" -> new InMemoryFriendStore(config.getInt("store.memory-shards", 64));
+            case "embedded" -> new EmbeddedFriendStore(
+                    dataDirectory.resolve(config.getString("store.embedded-file", "friends")),
+                    config.getInt("database.pool-size", 4)
+            );
+            default -> throw new IllegalArgumentException("Unknown store type: " + type);
+        };
+    }
+}
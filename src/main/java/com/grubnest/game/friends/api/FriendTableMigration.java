@@ -0,0 +1,216 @@
+package com.grubnest.game.friends.api;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * The FriendTableMigration class copies the legacy varchar friend table into the binary friend_v2 table.
+ * The copy is done in chunks following the legacy primary key, each chunk being copied by a single
+ * INSERT ... SELECT which only locks the rows of that chunk. The last copied key is saved in the same
+ * transaction as the chunk, so a stopped migration resumes where it stopped.
+ * Writes keep going to both tables while the migration runs (see FriendDatabase)
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendTableMigration implements Runnable {
+
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final Consumer<String> log;
+
+    /**
+     * @param chunkSize   the number of rows copied per chunk
+     * @param pauseMillis the pause between two chunks, leaving room for other queries
+     * @param log         receives progress messages
+     */
+    public FriendTableMigration(int chunkSize, long pauseMillis, Consumer<String> log) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pauseMillis = pauseMillis;
+        this.log = log;
+    }
+
+    /**
+     * Runs the migration until it's done, does nothing if it's already done
+     */
+    @Override
+    public void run() {
+        try {
+            migrate();
+        } catch (SQLException e) {
+            log.accept("The friend table migration stopped, it will resume on next start: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies the chunks one after the other
+     */
+    private void migrate() throws SQLException, InterruptedException {
+        if (FriendDatabase.isMigrated()) {
+            return;
+        }
+
+        String[] lastKey = readProgress();
+        if (lastKey == null) {
+            log.accept("Migrating the friend table to the friend_v2 table");
+        } else {
+            log.accept("Resuming the friend table migration after player " + lastKey[0]);
+        }
+
+        long copied = 0;
+        int chunks = 0;
+        while (true) {
+            String[] upperKey = findChunkEnd(lastKey);
+            copied += copyChunk(lastKey, upperKey);
+            if (upperKey == null) {
+                break;
+            }
+            lastKey = upperKey;
+
+            if (++chunks % 20 == 0) {
+                log.accept("Friend table migration: " + copied + " rows copied");
+            }
+            Thread.sleep(pauseMillis);
+        }
+
+        long completedAt = System.currentTimeMillis();
+        try (
+                Connection connection = FriendDatabase.getConnection();
+                PreparedStatement statement = connection.prepareStatement("""
+                        UPDATE friend_migration
+                        SET completed_at=?
+                        WHERE name='friend_v2'
+                        """)
+        ) {
+            statement.setLong(1, completedAt);
+            statement.executeUpdate();
+        }
+        FriendDatabase.setMigrated(completedAt);
+        log.accept("Friend table migration done, " + copied + " rows copied. The legacy friend table can be dropped.");
+    }
+
+    /**
+     * @return the last copied key, null if nothing has been copied yet
+     */
+    private String[] readProgress() throws SQLException {
+        try (
+                Connection connection = FriendDatabase.getConnection();
+                PreparedStatement insert = connection.prepareStatement("""
+                        INSERT IGNORE INTO friend_migration (name)
+                        VALUES ('friend_v2')
+                        """);
+                PreparedStatement select = connection.prepareStatement("""
+                        SELECT last_player_uuid, last_friend_uuid
+                        FROM friend_migration
+                        WHERE name='friend_v2'
+                        """)
+        ) {
+            insert.executeUpdate();
+            ResultSet rows = select.executeQuery();
+            if (rows.next() && rows.getString("last_player_uuid") != null) {
+                return new String[]{rows.getString("last_player_uuid"), rows.getString("last_friend_uuid")};
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Finds the last key of the chunk starting after the given key
+     *
+     * @param lastKey the last copied key, null to start from the beginning
+     * @return the last key of the chunk, null if the chunk goes to the end of the table
+     */
+    private String[] findChunkEnd(String[] lastKey) throws SQLException {
+        String query = """
+                SELECT player_uuid, friend_uuid
+                FROM friend
+                %s
+                ORDER BY player_uuid, friend_uuid
+                LIMIT 1 OFFSET ?
+                """.formatted(lastKey == null ? "" : "WHERE player_uuid > ? OR (player_uuid = ? AND friend_uuid > ?)");
+
+        try (
+                Connection connection = FriendDatabase.getConnection();
+                PreparedStatement statement = connection.prepareStatement(query)
+        ) {
+            int index = bindKey(statement, 1, lastKey);
+            statement.setInt(index, chunkSize - 1);
+            ResultSet rows = statement.executeQuery();
+            if (rows.next()) {
+                return new String[]{rows.getString("player_uuid"), rows.getString("friend_uuid")};
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Copies the rows between the two keys and saves the progress, in a single transaction
+     *
+     * @param lastKey  the last copied key (excluded), null to start from the beginning
+     * @param upperKey the last key of the chunk (included), null to go to the end of the table
+     * @return the number of rows copied
+     */
+    private int copyChunk(String[] lastKey, String[] upperKey) throws SQLException {
+        String lower = lastKey == null ? "TRUE" : "(player_uuid > ? OR (player_uuid = ? AND friend_uuid > ?))";
+        String upper = upperKey == null ? "TRUE" : "(player_uuid < ? OR (player_uuid = ? AND friend_uuid <= ?))";
+        String copy = """
+                INSERT IGNORE INTO friend_v2 (player_uuid, friend_uuid)
+                SELECT UNHEX(REPLACE(player_uuid, '-', '')), UNHEX(REPLACE(friend_uuid, '-', ''))
+                FROM friend
+                WHERE %s AND %s AND LENGTH(player_uuid) = 36 AND LENGTH(friend_uuid) = 36
+                """.formatted(lower, upper);
+        String progress = """
+                UPDATE friend_migration
+                SET last_player_uuid=?, last_friend_uuid=?
+                WHERE name='friend_v2'
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            try (
+                    PreparedStatement copyStatement = connection.prepareStatement(copy);
+                    PreparedStatement progressStatement = connection.prepareStatement(progress)
+            ) {
+                int index = bindKey(copyStatement, 1, lastKey);
+                bindKey(copyStatement, index, upperKey);
+                int copied = copyStatement.executeUpdate();
+
+                if (upperKey != null) {
+                    progressStatement.setString(1, upperKey[0]);
+                    progressStatement.setString(2, upperKey[1]);
+                    progressStatement.executeUpdate();
+                }
+                connection.commit();
+                return copied;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Binds the parameters of a key condition: player_uuid, player_uuid then friend_uuid
+     *
+     * @param statement the statement
+     * @param index     the index of the first parameter
+     * @param key       the key, nothing is bound if null
+     * @return the index of the next parameter
+     */
+    private static int bindKey(PreparedStatement statement, int index, String[] key) throws SQLException {
+        if (key == null) {
+            return index;
+        }
+        statement.setString(index, key[0]);
+        statement.setString(index + 1, key[0]);
+        statement.setString(index + 2, key[1]);
+        return index + 3;
+    }
+}
@@ -1,19 +1,11 @@
 package com.grubnest.game.friends.api;
 
-import com.grubnest.game.core.databasehandler.DatabaseManager;
-
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * The FriendDBManager interface allows you to manage the friend database.
- * Each function requires a MySQL instance as parameter, which you can get from the core
+ * Every function goes through the friend store selected by the config (see FriendStores), MySQL by default
  *
  * @author NevaZyo
  * @version 1.0 at 06/01/2022
@@ -24,20 +16,189 @@ public interface FriendsAPI {
      * Creates a new table in the database if not already created
      */
     static void createTable() throws SQLException {
-        try (
-                Connection connection = DatabaseManager.getInstance().getMySQL().getConnection();
-                PreparedStatement statement = connection.prepareStatement("""
-                        CREATE TABLE IF NOT EXISTS `friend` (
-                            player_uuid varchar(36),
-                            friend_uuid varchar(36),
-                            PRIMARY KEY (player_uuid, friend_uuid)
-                        )
-                        """)
-        ) {
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException("Error while trying to create database friend table");
-        }
+        FriendStores.get().createTable();
+    }
+
+    /**
+     * Tries to add given friendUUID to the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to add the friend
+     * @param friendUUID UUID of the friend you want to add
+     */
+    static void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException {
+        FriendStores.get().markAsFriend(playerUUID, friendUUID);
+    }
+
+    /**
+     * Tries to remove given friendUUID from the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to remove the friend from
+     * @param friendUUID UUID of the player's friend you want to remove
+     */
+    static void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException {
+        FriendStores.get().removeFromFriendDB(playerUUID, friendUUID);
+    }
+
+    /**
+     * Returns a boolean indicating if the player has marked another as a friend
+     *
+     * @param playerUUID the player's UUID you want to check
+     * @param friendUUID UUID of the player's optional friend
+     * @return true if friendUUID is in the player's friends list, false otherwise
+     */
+    static boolean isFriendAlready(UUID playerUUID, UUID friendUUID) throws SQLException {
+        return FriendStores.get().isFriendAlready(playerUUID, friendUUID);
+    }
+
+    /**
+     * Tries to get the player's friends UUIDs
+     *
+     * @param playerUUID the player's UUID
+     * @return list containing the player's friends UUIDs
+     */
+    static Optional<List<UUID>> getFriendsUUIDs(UUID playerUUID) throws SQLException {
+        return FriendStores.get().getFriendsUUIDs(playerUUID);
+    }
+
+    /**
+     * Counts the player's friends without reading them
+     *
+     * @param playerUUID the player's UUID
+     * @return the number of players in the player's friends list
+     */
+    static int countFriends(UUID playerUUID) throws SQLException {
+        return FriendStores.get().countFriends(playerUUID);
+    }
+
+    /**
+     * Stores the last time players were seen, in a single batch
+     *
+     * @param lastSeen the time each player left the proxy at, by UUID
+     */
+    static void setLastSeen(Map<UUID, Long> lastSeen) throws SQLException {
+        FriendStores.get().setLastSeen(lastSeen);
+    }
+
+    /**
+     * Gets the stored last time players were seen. On the proxy, LastSeenTracker also knows the times not stored yet
+     *
+     * @param playersUUIDs the players' UUIDs
+     * @return the time each player left the proxy at, the players who were never seen are missing
+     */
+    static Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) throws SQLException {
+        return FriendStores.get().getLastSeen(playersUUIDs);
+    }
+
+    /**
+     * Tries to get the UUIDs of the players who marked the given player as a friend
+     *
+     * @param playerUUID the player's UUID
+     * @return list containing the UUIDs of the players who have the player in their friends list
+     */
+    static Optional<List<UUID>> getFriendedByUUIDs(UUID playerUUID) throws SQLException {
+        return FriendStores.get().getFriendedByUUIDs(playerUUID);
+    }
+
+    /**
+     * Checks in a single query which of the given players have marked the player as a friend
+     *
+     * @param playerUUID   the player's UUID
+     * @param playersUUIDs the UUIDs of the players to check
+     * @return the UUIDs, among the given ones, of the players who have the player in their friends list
+     */
+    static Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) throws SQLException {
+        return FriendStores.get().getFriendedByAmong(playerUUID, playersUUIDs);
+    }
+
+    /**
+     * Gets the friends two players have in common, in a single query
+     *
+     * @param firstUUID  a player's UUID
+     * @param secondUUID another player's UUID
+     * @return the UUIDs of the players both players have in their friends list
+     */
+    static List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) throws SQLException {
+        return FriendStores.get().getMutualFriends(firstUUID, secondUUID);
+    }
+
+    /**
+     * Counts in a single query the friends a player has in common with each of the given players
+     *
+     * @param playerUUID  the player's UUID
+     * @param othersUUIDs the UUIDs of the other players
+     * @return for each other player, in the same order, the number of friends they have in common with the player
+     */
+    static int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) throws SQLException {
+        return FriendStores.get().countMutualFriends(playerUUID, othersUUIDs);
+    }
+
+    /**
+     * Sends a friend request, replacing an expired one between the same players
+     *
+     * @param request the request
+     * @return false if the sender already has a pending request to the receiver
+     */
+    static boolean addFriendRequest(FriendStore.FriendRequest request) throws SQLException {
+        return FriendStores.get().addFriendRequest(request);
+    }
+
+    /**
+     * Accepts a pending friend request, adding both players to each other's friends list in a single transaction
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player accepting it
+     * @param now          the current time, an expired request can't be accepted
+     * @return false if there was no pending request
+     */
+    static boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        return FriendStores.get().acceptFriendRequest(senderUUID, receiverUUID, now);
+    }
+
+    /**
+     * Removes a pending friend request, denied by the receiver or cancelled by the sender
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player the request was sent to
+     * @param now          the current time, an expired request counts as already removed
+     * @return false if there was no pending request
+     */
+    static boolean removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        return FriendStores.get().removeFriendRequest(senderUUID, receiverUUID, now);
+    }
+
+    /**
+     * Gets the pending friend requests sent to a player
+     *
+     * @param receiverUUID the player's UUID
+     * @param now          the current time, the expired requests are left out
+     * @param limit        the maximum number of requests read
+     * @return the requests, the most recent first
+     */
+    static List<FriendStore.FriendRequest> getIncomingRequests(UUID receiverUUID, long now, int limit) throws SQLException {
+        return FriendStores.get().getIncomingRequests(receiverUUID, now, limit);
+    }
+
+    /**
+     * Gets the pending friend requests sent by a player
+     *
+     * @param senderUUID the player's UUID
+     * @param now        the current time, the expired requests are left out
+     * @param limit      the maximum number of requests read
+     * @return the requests, the most recent first
+     */
+    static List<FriendStore.FriendRequest> getOutgoingRequests(UUID senderUUID, long now, int limit) throws SQLException {
+        return FriendStores.get().getOutgoingRequests(senderUUID, now, limit);
+    }
+
+    /**
+     * Removes a batch of expired friend requests, see FriendRequestSweeper
+     *
+     * @param now   the current time
+     * @param limit the maximum number of requests removed
+     * @return the number of requests removed
+     */
+    static int removeExpiredRequests(long now, int limit) throws SQLException {
+        return FriendStores.get().removeExpiredRequests(now, limit);
     }
 
     /**
@@ -45,25 +206,11 @@ public interface FriendsAPI {
      *
      * @param playerUUID UUID of the player you want to add the friend
      * @param friendUUID UUID of the friend you want to add
+     * @deprecated use {@link #markAsFriend(UUID, UUID)}
      */
+    @Deprecated
     static void markAsFriend(String playerUUID, String friendUUID) throws SQLException {
-        String query = """
-                INSERT INTO friend
-                	(player_uuid, friend_uuid)
-                VALUES
-                	(?, ?)
-                """;
-
-        try (
-                Connection connection = DatabaseManager.getInstance().getMySQL().getConnection();
-                PreparedStatement statement = connection.prepareStatement(query)
-        ) {
-            statement.setString(1, playerUUID);
-            statement.setString(2, friendUUID);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException("Error while trying to mark a player as friend in the database");
-        }
+        markAsFriend(UUID.fromString(playerUUID), UUID.fromString(friendUUID));
     }
 
     /**
@@ -71,23 +218,11 @@ public interface FriendsAPI {
      *
      * @param playerUUID UUID of the player you want to remove the friend from
      * @param friendUUID UUID of the player's friend you want to remove
+     * @deprecated use {@link #removeFromFriendDB(UUID, UUID)}
      */
+    @Deprecated
     static void removeFromFriendDB(String playerUUID, String friendUUID) throws SQLException {
-        String query = """
-                DELETE FROM friend
-                WHERE player_uuid=? AND friend_uuid=?;
-                """;
-
-        try (
-                Connection connection = DatabaseManager.getInstance().getMySQL().getConnection();
-                PreparedStatement statement = connection.prepareStatement(query)
-        ) {
-            statement.setString(1, playerUUID);
-            statement.setString(2, friendUUID);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException("Error while trying to remove a player from friend database");
-        }
+        removeFromFriendDB(UUID.fromString(playerUUID), UUID.fromString(friendUUID));
     }
 
     /**
@@ -96,27 +231,11 @@ public interface FriendsAPI {
      * @param playerUUID the player's UUID you want to check
      * @param friendUUID UUID of the player's optional friend
      * @return true if friendUUID is in the player's friends list, false otherwise
+     * @deprecated use {@link #isFriendAlready(UUID, UUID)}
      */
+    @Deprecated
     static boolean isFriendAlready(String playerUUID, String friendUUID) throws SQLException {
-        String query = """
-                SELECT player_uuid
-                FROM friend
-                WHERE player_uuid=? AND friend_uuid=?
-                """;
-
-        boolean friendAlready;
-        try (
-                Connection connection = DatabaseManager.getInstance().getMySQL().getConnection();
-                PreparedStatement statement = connection.prepareStatement(query)
-        ) {
-            statement.setString(1, playerUUID);
-            statement.setString(2, friendUUID);
-            ResultSet rows = statement.executeQuery();
-            friendAlready = rows.next();
-        } catch (SQLException e) {
-            throw new SQLException("Error while trying to check if a player is friend with another");
-        }
-        return friendAlready;
+        return isFriendAlready(UUID.fromString(playerUUID), UUID.fromString(friendUUID));
     }
 
     /**
@@ -124,30 +243,11 @@ public interface FriendsAPI {
      *
      * @param playerUUID the player's UUID
      * @return list containing the player's friends UUIDs
+     * @deprecated use {@link #getFriendsUUIDs(UUID)}
      */
+    @Deprecated
     static Optional<List<UUID>> getFriendsUUIDs(String playerUUID) throws SQLException {
-        String query = """
-                SELECT friend_uuid
-                FROM friend
-                WHERE player_uuid=?
-                """;
-        List<UUID> friendsUUIDs = null;
-        try (
-                Connection connection = DatabaseManager.getInstance().getMySQL().getConnection();
-                PreparedStatement statement = connection.prepareStatement(query)
-        ) {
-            statement.setString(1, playerUUID);
-            ResultSet rows = statement.executeQuery();
-            while (rows.next()) {
-                if (friendsUUIDs == null) {
-                    friendsUUIDs = new ArrayList<>();
-                }
-                friendsUUIDs.add(UUID.fromString(rows.getString("friend_uuid")));
-            }
-        } catch (SQLException e) {
-            throw new SQLException("Error while trying to get the friends list of a player");
-        }
-        return Optional.ofNullable(friendsUUIDs);
+        return getFriendsUUIDs(UUID.fromString(playerUUID));
     }
 
 }
@@ -0,0 +1,383 @@
+package com.grubnest.game.friends.api;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The InMemoryFriendStore class keeps the friendships in memory only, they are lost when the proxy stops.
+ * It's meant for tests, benchmarks and small networks which don't need persistent friendships.
+ * The friendships are spread over shards by player, each shard having its own lock: a friendship is stored
+ * in the shard of the player (friends list) and in the shard of the friend (reverse index).
+ * The friend requests are indexed by sender, by receiver and by expiry time, under a single lock
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class InMemoryFriendStore implements FriendStore {
+
+    private static final class Shard {
+        /**
+         * The friends of the players of this shard
+         */
+        private final Map<UUID, Set<UUID>> friends = new HashMap<>();
+
+        /**
+         * The players who marked the players of this shard as a friend
+         */
+        private final Map<UUID, Set<UUID>> friendedBy = new HashMap<>();
+    }
+
+    private final Shard[] shards;
+
+    /**
+     * The last time each player was seen
+     */
+    private final Map<UUID, Long> lastSeen = new ConcurrentHashMap<>();
+
+    /**
+     * The friend requests by sender then receiver, guarded by requestsLock
+     */
+    private final Map<UUID, Map<UUID, FriendRequest>> outgoingRequests = new HashMap<>();
+
+    /**
+     * The friend requests by receiver then sender, guarded by requestsLock
+     */
+    private final Map<UUID, Map<UUID, FriendRequest>> incomingRequests = new HashMap<>();
+
+    /**
+     * The friend requests, the first to expire first, guarded by requestsLock
+     */
+    private final NavigableSet<FriendRequest> requestsByExpiry = new TreeSet<>(
+            Comparator.comparingLong(FriendRequest::expiresAt).thenComparing(REQUEST_ORDER));
+    private final Object requestsLock = new Object();
+
+    /**
+     * @param shardCount the number of shards, rounded up to a power of two
+     */
+    public InMemoryFriendStore(int shardCount) {
+        int size = shardCount <= 1 ? 1 : Integer.highestOneBit(Math.min(shardCount, 1 << 16) - 1) << 1;
+        this.shards = new Shard[size];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    @Override
+    public void createTable() {
+    }
+
+    @Override
+    public void markAsFriend(UUID playerUUID, UUID friendUUID) {
+        mutate(playerUUID, friendUUID, true);
+    }
+
+    @Override
+    public void removeFromFriendDB(UUID playerUUID, UUID friendUUID) {
+        mutate(playerUUID, friendUUID, false);
+    }
+
+    @Override
+    public boolean isFriendAlready(UUID playerUUID, UUID friendUUID) {
+        Shard shard = shardOf(playerUUID);
+        synchronized (shard) {
+            Set<UUID> friends = shard.friends.get(playerUUID);
+            return friends != null && friends.contains(friendUUID);
+        }
+    }
+
+    @Override
+    public Optional<List<UUID>> getFriendsUUIDs(UUID playerUUID) {
+        Shard shard = shardOf(playerUUID);
+        synchronized (shard) {
+            return copyOf(shard.friends.get(playerUUID));
+        }
+    }
+
+    @Override
+    public int countFriends(UUID playerUUID) {
+        Shard shard = shardOf(playerUUID);
+        synchronized (shard) {
+            Set<UUID> friends = shard.friends.get(playerUUID);
+            return friends == null ? 0 : friends.size();
+        }
+    }
+
+    @Override
+    public void setLastSeen(Map<UUID, Long> lastSeen) {
+        lastSeen.forEach((playerUUID, time) -> this.lastSeen.merge(playerUUID, time, Math::max));
+    }
+
+    @Override
+    public Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) {
+        Map<UUID, Long> times = new HashMap<>();
+        for (UUID playerUUID : playersUUIDs) {
+            Long time = lastSeen.get(playerUUID);
+            if (time != null) {
+                times.put(playerUUID, time);
+            }
+        }
+        return times;
+    }
+
+    @Override
+    public Optional<List<UUID>> getFriendedByUUIDs(UUID playerUUID) {
+        Shard shard = shardOf(playerUUID);
+        synchronized (shard) {
+            return copyOf(shard.friendedBy.get(playerUUID));
+        }
+    }
+
+    @Override
+    public Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) {
+        Set<UUID> result = new HashSet<>();
+        Shard shard = shardOf(playerUUID);
+        synchronized (shard) {
+            Set<UUID> friendedBy = shard.friendedBy.get(playerUUID);
+            if (friendedBy != null) {
+                for (UUID uuid : playersUUIDs) {
+                    if (friendedBy.contains(uuid)) {
+                        result.add(uuid);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) {
+        List<UUID> mutualFriends = new ArrayList<>();
+        Set<UUID> secondFriends = new HashSet<>(getFriendsUUIDs(secondUUID).orElse(List.of()));
+        for (UUID friendUUID : getFriendsUUIDs(firstUUID).orElse(List.of())) {
+            if (secondFriends.contains(friendUUID)) {
+                mutualFriends.add(friendUUID);
+            }
+        }
+        return mutualFriends;
+    }
+
+    @Override
+    public int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) {
+        Set<UUID> playerFriends = new HashSet<>(getFriendsUUIDs(playerUUID).orElse(List.of()));
+        int[] counts = new int[othersUUIDs.size()];
+        for (int i = 0; i < counts.length; i++) {
+            for (UUID friendUUID : getFriendsUUIDs(othersUUIDs.get(i)).orElse(List.of())) {
+                if (playerFriends.contains(friendUUID)) {
+                    counts[i]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public boolean[] apply(List<Mutation> mutations) {
+        boolean[] changed = new boolean[mutations.size()];
+        for (int i = 0; i < changed.length; i++) {
+            Mutation mutation = mutations.get(i);
+            changed[i] = mutate(mutation.playerUUID(), mutation.friendUUID(), mutation.add());
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean addFriendRequest(FriendRequest request) {
+        synchronized (requestsLock) {
+            FriendRequest current = outgoingRequests.getOrDefault(request.senderUUID(), Map.of()).get(request.receiverUUID());
+            if (current != null) {
+                if (current.expiresAt() > request.sentAt()) {
+                    return false;
+                }
+                removeRequest(current);
+            }
+            outgoingRequests.computeIfAbsent(request.senderUUID(), uuid -> new HashMap<>()).put(request.receiverUUID(), request);
+            incomingRequests.computeIfAbsent(request.receiverUUID(), uuid -> new HashMap<>()).put(request.senderUUID(), request);
+            requestsByExpiry.add(request);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the request, and the one the receiver may have sent meanwhile, then adds both friendships
+     * without releasing the lock of the requests
+     */
+    @Override
+    public boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) {
+        synchronized (requestsLock) {
+            if (!removeFriendRequest(senderUUID, receiverUUID, now)) {
+                return false;
+            }
+            removeFriendRequest(receiverUUID, senderUUID, now);
+            mutate(senderUUID, receiverUUID, true);
+            mutate(receiverUUID, senderUUID, true);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) {
+        synchronized (requestsLock) {
+            FriendRequest request = outgoingRequests.getOrDefault(senderUUID, Map.of()).get(receiverUUID);
+            if (request == null || request.expiresAt() <= now) {
+                return false;
+            }
+            removeRequest(request);
+            return true;
+        }
+    }
+
+    @Override
+    public List<FriendRequest> getIncomingRequests(UUID receiverUUID, long now, int limit) {
+        synchronized (requestsLock) {
+            return pendingRequests(incomingRequests.get(receiverUUID), now, limit);
+        }
+    }
+
+    @Override
+    public List<FriendRequest> getOutgoingRequests(UUID senderUUID, long now, int limit) {
+        synchronized (requestsLock) {
+            return pendingRequests(outgoingRequests.get(senderUUID), now, limit);
+        }
+    }
+
+    /**
+     * Removes the requests from the head of the expiry index, the others expire later
+     */
+    @Override
+    public int removeExpiredRequests(long now, int limit) {
+        int removed = 0;
+        synchronized (requestsLock) {
+            while (removed < limit && !requestsByExpiry.isEmpty() && requestsByExpiry.first().expiresAt() <= now) {
+                removeRequest(requestsByExpiry.first());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Gives the friendships shard by shard, each shard being copied before its friendships are given to the consumer
+     *
+     * @param playerUUID if not null, only the friendships of this player (in both directions)
+     * @param consumer   receives the friendships
+     * @return the number of friendships given to the consumer
+     */
+    @Override
+    public long forEachFriendship(UUID playerUUID, FriendshipConsumer consumer) throws IOException {
+        long count = 0;
+        if (playerUUID != null) {
+            for (UUID friendUUID : getFriendsUUIDs(playerUUID).orElse(List.of())) {
+                consumer.accept(playerUUID, friendUUID);
+                count++;
+            }
+            for (UUID uuid : getFriendedByUUIDs(playerUUID).orElse(List.of())) {
+                if (!uuid.equals(playerUUID)) {
+                    consumer.accept(uuid, playerUUID);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        for (Shard shard : shards) {
+            List<UUID[]> friendships = new ArrayList<>();
+            synchronized (shard) {
+                for (Map.Entry<UUID, Set<UUID>> entry : shard.friends.entrySet()) {
+                    for (UUID friendUUID : entry.getValue()) {
+                        friendships.add(new UUID[]{entry.getKey(), friendUUID});
+                    }
+                }
+            }
+            for (UUID[] friendship : friendships) {
+                consumer.accept(friendship[0], friendship[1]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds or removes a friendship, locking the shards of both players in index order
+     *
+     * @return true if the friendship was changed
+     */
+    private boolean mutate(UUID playerUUID, UUID friendUUID, boolean add) {
+        int playerShard = indexOf(playerUUID);
+        int friendShard = indexOf(friendUUID);
+        Shard first = shards[Math.min(playerShard, friendShard)];
+        Shard second = shards[Math.max(playerShard, friendShard)];
+        synchronized (first) {
+            synchronized (second) {
+                Shard players = shards[playerShard];
+                Shard friends = shards[friendShard];
+                if (add) {
+                    if (!players.friends.computeIfAbsent(playerUUID, uuid -> new HashSet<>()).add(friendUUID)) {
+                        return false;
+                    }
+                    friends.friendedBy.computeIfAbsent(friendUUID, uuid -> new HashSet<>()).add(playerUUID);
+                    return true;
+                }
+
+                if (!removeFrom(players.friends, playerUUID, friendUUID)) {
+                    return false;
+                }
+                removeFrom(friends.friendedBy, friendUUID, playerUUID);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes a request from the three indexes, called with the lock of the requests held
+     */
+    private void removeRequest(FriendRequest request) {
+        requestsByExpiry.remove(request);
+        removeFromRequests(outgoingRequests, request.senderUUID(), request.receiverUUID());
+        removeFromRequests(incomingRequests, request.receiverUUID(), request.senderUUID());
+    }
+
+    private static List<FriendRequest> pendingRequests(Map<UUID, FriendRequest> requests, long now, int limit) {
+        if (requests == null) {
+            return new ArrayList<>();
+        }
+        List<FriendRequest> pending = new ArrayList<>();
+        for (FriendRequest request : requests.values()) {
+            if (request.expiresAt() > now) {
+                pending.add(request);
+            }
+        }
+        return FriendStore.firstAfter(pending, null, limit, REQUEST_ORDER);
+    }
+
+    private static void removeFromRequests(Map<UUID, Map<UUID, FriendRequest>> index, UUID key, UUID value) {
+        Map<UUID, FriendRequest> values = index.get(key);
+        if (values != null && values.remove(value) != null && values.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static boolean removeFrom(Map<UUID, Set<UUID>> index, UUID key, UUID value) {
+        Set<UUID> values = index.get(key);
+        if (values == null || !values.remove(value)) {
+            return false;
+        }
+        if (values.isEmpty()) {
+            index.remove(key);
+        }
+        return true;
+    }
+
+    private static Optional<List<UUID>> copyOf(Set<UUID> uuids) {
+        return uuids == null ? Optional.empty() : Optional.of(new ArrayList<>(uuids));
+    }
+
+    private Shard shardOf(UUID uuid) {
+        return shards[indexOf(uuid)];
+    }
+
+    private int indexOf(UUID uuid) {
+        int hash = uuid.hashCode();
+        return (hash ^ (hash >>> 16)) & (shards.length - 1);
+    }
+}
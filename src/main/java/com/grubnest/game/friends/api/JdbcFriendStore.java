@@ -0,0 +1,793 @@
+package com.grubnest.game.friends.api;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * The JdbcFriendStore class stores the friendships in the friend tables of a SQL database, MySQL by default (see FriendDatabase
+ * for the layout of the tables and the connections). The queries use MySQL's syntax, other databases must be run in MySQL mode
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class JdbcFriendStore implements FriendStore {
+
+    /**
+     * Creates a new table in the database if not already created
+     */
+    @Override
+    public void createTable() throws SQLException {
+        try {
+            FriendDatabase.createTables();
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to create database friend table", e);
+        }
+    }
+
+    /**
+     * Tries to add given friendUUID to the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to add the friend
+     * @param friendUUID UUID of the friend you want to add
+     */
+    @Override
+    public void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException {
+        String query = """
+                INSERT IGNORE INTO %s
+                	(player_uuid, friend_uuid)
+                VALUES
+                	(?, ?)
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (String table : FriendDatabase.writeTables()) {
+                    try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                        FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                        FriendDatabase.setUUID(statement, 2, friendUUID, table);
+                        statement.executeUpdate();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                //Both tables or neither, the connection goes back to the pool without an open transaction
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to mark a player as friend in the database", e);
+        }
+    }
+
+    /**
+     * Tries to remove given friendUUID from the player's friends list
+     *
+     * @param playerUUID UUID of the player you want to remove the friend from
+     * @param friendUUID UUID of the player's friend you want to remove
+     */
+    @Override
+    public void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException {
+        String query = """
+                DELETE FROM %s
+                WHERE player_uuid=? AND friend_uuid=?;
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (String table : FriendDatabase.writeTables()) {
+                    try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                        FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                        FriendDatabase.setUUID(statement, 2, friendUUID, table);
+                        statement.executeUpdate();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                //Both tables or neither, the connection goes back to the pool without an open transaction
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to remove a player from friend database", e);
+        }
+    }
+
+    /**
+     * Returns a boolean indicating if the player has marked another as a friend
+     *
+     * @param playerUUID the player's UUID you want to check
+     * @param friendUUID UUID of the player's optional friend
+     * @return true if friendUUID is in the player's friends list, false otherwise
+     */
+    @Override
+    public boolean isFriendAlready(UUID playerUUID, UUID friendUUID) throws SQLException {
+        String query = """
+                SELECT player_uuid
+                FROM %s
+                WHERE player_uuid=? AND friend_uuid=?
+                """;
+
+        boolean friendAlready;
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                FriendDatabase.setUUID(statement, 2, friendUUID, table);
+                ResultSet rows = statement.executeQuery();
+                friendAlready = rows.next();
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to check if a player is friend with another", e);
+        }
+        return friendAlready;
+    }
+
+    /**
+     * Tries to get the player's friends UUIDs
+     *
+     * @param playerUUID the player's UUID
+     * @return list containing the player's friends UUIDs
+     */
+    @Override
+    public Optional<List<UUID>> getFriendsUUIDs(UUID playerUUID) throws SQLException {
+        String query = """
+                SELECT friend_uuid
+                FROM %s
+                WHERE player_uuid=?
+                """;
+        List<UUID> friendsUUIDs = null;
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    if (friendsUUIDs == null) {
+                        friendsUUIDs = new ArrayList<>();
+                    }
+                    friendsUUIDs.add(FriendDatabase.getUUID(rows, "friend_uuid", table));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to get the friends list of a player", e);
+        }
+        return Optional.ofNullable(friendsUUIDs);
+    }
+
+    /**
+     * Counts the player's friends, reading the primary key only
+     *
+     * @param playerUUID the player's UUID
+     * @return the number of players in the player's friends list
+     */
+    @Override
+    public int countFriends(UUID playerUUID) throws SQLException {
+        String query = """
+                SELECT COUNT(*) AS friends
+                FROM %s
+                WHERE player_uuid=?
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                ResultSet rows = statement.executeQuery();
+                return rows.next() ? rows.getInt("friends") : 0;
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to count the friends of a player", e);
+        }
+    }
+
+    /**
+     * Upserts the times as a single JDBC batch, keeping the most recent time of each player
+     *
+     * @param lastSeen the time each player left the proxy at, by UUID
+     */
+    @Override
+    public void setLastSeen(Map<UUID, Long> lastSeen) throws SQLException {
+        if (lastSeen.isEmpty()) {
+            return;
+        }
+
+        String query = """
+                INSERT INTO %s
+                	(player_uuid, last_seen)
+                VALUES
+                	(?, ?)
+                ON DUPLICATE KEY UPDATE last_seen=GREATEST(last_seen, VALUES(last_seen))
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(FriendDatabase.LAST_SEEN_TABLE))) {
+                for (Map.Entry<UUID, Long> entry : lastSeen.entrySet()) {
+                    FriendDatabase.setUUID(statement, 1, entry.getKey(), FriendDatabase.LAST_SEEN_TABLE);
+                    statement.setLong(2, entry.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to write the last seen times of players", e);
+        }
+    }
+
+    @Override
+    public Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) throws SQLException {
+        if (playersUUIDs.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            return readLastSeen(connection, List.copyOf(playersUUIDs));
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to read the last seen times of players", e);
+        }
+    }
+
+    /**
+     * Tries to get the UUIDs of the players who marked the given player as a friend
+     *
+     * @param playerUUID the player's UUID
+     * @return list containing the UUIDs of the players who have the player in their friends list
+     */
+    @Override
+    public Optional<List<UUID>> getFriendedByUUIDs(UUID playerUUID) throws SQLException {
+        String query = """
+                SELECT player_uuid
+                FROM %s
+                WHERE friend_uuid=?
+                """;
+        List<UUID> playersUUIDs = null;
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    if (playersUUIDs == null) {
+                        playersUUIDs = new ArrayList<>();
+                    }
+                    playersUUIDs.add(FriendDatabase.getUUID(rows, "player_uuid", table));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to get the players who marked a player as friend", e);
+        }
+        return Optional.ofNullable(playersUUIDs);
+    }
+
+    /**
+     * Checks in a single query which of the given players have marked the player as a friend
+     *
+     * @param playerUUID   the player's UUID
+     * @param playersUUIDs the UUIDs of the players to check
+     * @return the UUIDs, among the given ones, of the players who have the player in their friends list
+     */
+    @Override
+    public Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) throws SQLException {
+        Set<UUID> friendedBy = new HashSet<>();
+        if (playersUUIDs.isEmpty()) {
+            return friendedBy;
+        }
+
+        String query = """
+                SELECT player_uuid
+                FROM %s
+                WHERE friend_uuid=? AND player_uuid IN (%s)
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            String placeholders = String.join(", ", Collections.nCopies(playersUUIDs.size(), "?"));
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table, placeholders))) {
+                FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                int index = 2;
+                for (UUID uuid : playersUUIDs) {
+                    FriendDatabase.setUUID(statement, index++, uuid, table);
+                }
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    friendedBy.add(FriendDatabase.getUUID(rows, "player_uuid", table));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to check which players marked a player as friend", e);
+        }
+        return friendedBy;
+    }
+
+    /**
+     * Joins the friends lists of both players on the table itself, each side being read through the primary key
+     *
+     * @param firstUUID  a player's UUID
+     * @param secondUUID another player's UUID
+     * @return the UUIDs of the players both players have in their friends list
+     */
+    @Override
+    public List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) throws SQLException {
+        String query = """
+                SELECT a.friend_uuid
+                FROM %s a
+                JOIN %1$s b ON b.player_uuid=? AND b.friend_uuid=a.friend_uuid
+                WHERE a.player_uuid=?
+                """;
+
+        List<UUID> mutualFriends = new ArrayList<>();
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table))) {
+                FriendDatabase.setUUID(statement, 1, secondUUID, table);
+                FriendDatabase.setUUID(statement, 2, firstUUID, table);
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    mutualFriends.add(FriendDatabase.getUUID(rows, "friend_uuid", table));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to get the mutual friends of two players", e);
+        }
+        return mutualFriends;
+    }
+
+    /**
+     * Counts the mutual friends of the player with every given player in a single query, grouping the same self-join
+     *
+     * @param playerUUID  the player's UUID
+     * @param othersUUIDs the UUIDs of the other players
+     * @return for each other player, in the same order, the number of friends they have in common with the player
+     */
+    @Override
+    public int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) throws SQLException {
+        int[] counts = new int[othersUUIDs.size()];
+        if (othersUUIDs.isEmpty()) {
+            return counts;
+        }
+
+        String query = """
+                SELECT b.player_uuid, COUNT(*) AS mutual_friends
+                FROM %s a
+                JOIN %1$s b ON b.friend_uuid=a.friend_uuid
+                WHERE a.player_uuid=? AND b.player_uuid IN (%s)
+                GROUP BY b.player_uuid
+                """;
+
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            Set<UUID> distinctUUIDs = new LinkedHashSet<>(othersUUIDs);
+            String placeholders = String.join(", ", Collections.nCopies(distinctUUIDs.size(), "?"));
+            Map<UUID, Integer> countsByPlayer = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table, placeholders))) {
+                FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                int index = 2;
+                for (UUID uuid : distinctUUIDs) {
+                    FriendDatabase.setUUID(statement, index++, uuid, table);
+                }
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    countsByPlayer.put(FriendDatabase.getUUID(rows, "player_uuid", table), rows.getInt("mutual_friends"));
+                }
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = countsByPlayer.getOrDefault(othersUUIDs.get(i), 0);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to count the mutual friends of players", e);
+        }
+        return counts;
+    }
+
+    /**
+     * Runs the mutations as JDBC batches, one per table, in a single transaction.
+     * The update counts of the table used for reads tell which mutations changed something
+     *
+     * @param mutations the mutations
+     * @return for each mutation, true if it changed the friendships
+     */
+    @Override
+    public boolean[] apply(List<Mutation> mutations) throws SQLException {
+        String insertQuery = """
+                INSERT IGNORE INTO %s
+                	(player_uuid, friend_uuid)
+                VALUES
+                	(?, ?)
+                """;
+        String deleteQuery = """
+                DELETE FROM %s
+                WHERE player_uuid=? AND friend_uuid=?
+                """;
+
+        List<Integer> insertIndexes = new ArrayList<>();
+        List<Integer> deleteIndexes = new ArrayList<>();
+        for (int i = 0; i < mutations.size(); i++) {
+            (mutations.get(i).add() ? insertIndexes : deleteIndexes).add(i);
+        }
+
+        boolean[] changed = new boolean[mutations.size()];
+        Arrays.fill(changed, true);
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            String readTable = FriendDatabase.readTable();
+            try {
+                for (String table : FriendDatabase.writeTables()) {
+                    int[] insertCounts = executeBatch(connection, insertQuery.formatted(table), mutations, insertIndexes, table);
+                    int[] deleteCounts = executeBatch(connection, deleteQuery.formatted(table), mutations, deleteIndexes, table);
+                    if (table.equals(readTable)) {
+                        //An unknown count (driver rewriting the batch) is taken as a change
+                        for (int i = 0; i < insertCounts.length; i++) {
+                            changed[insertIndexes.get(i)] = insertCounts[i] != 0;
+                        }
+                        for (int i = 0; i < deleteCounts.length; i++) {
+                            changed[deleteIndexes.get(i)] = deleteCounts[i] != 0;
+                        }
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to write the friend mutations", e);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes an expired request between the same players, then inserts the new one, in a single transaction.
+     * The primary key rejects a second pending request
+     *
+     * @param request the request
+     * @return false if the sender already has a pending request to the receiver
+     */
+    @Override
+    public boolean addFriendRequest(FriendRequest request) throws SQLException {
+        String insertQuery = """
+                INSERT IGNORE INTO %s
+                	(sender_uuid, receiver_uuid, sent_at, expires_at)
+                VALUES
+                	(?, ?, ?, ?)
+                """;
+
+        String table = FriendDatabase.REQUEST_TABLE;
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                deleteRequest(connection, request.senderUUID(), request.receiverUUID(), request.sentAt(), true);
+                int inserted;
+                try (PreparedStatement statement = connection.prepareStatement(insertQuery.formatted(table))) {
+                    FriendDatabase.setUUID(statement, 1, request.senderUUID(), table);
+                    FriendDatabase.setUUID(statement, 2, request.receiverUUID(), table);
+                    statement.setLong(3, request.sentAt());
+                    statement.setLong(4, request.expiresAt());
+                    inserted = statement.executeUpdate();
+                }
+                connection.commit();
+                return inserted != 0;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to send a friend request", e);
+        }
+    }
+
+    /**
+     * Removes the request, and the one the receiver may have sent meanwhile, then inserts both friendships
+     * in every friend table, in a single transaction
+     *
+     * @param senderUUID   the UUID of the player who sent the request
+     * @param receiverUUID the UUID of the player accepting it
+     * @param now          the current time, an expired request can't be accepted
+     * @return false if there was no pending request
+     */
+    @Override
+    public boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        String insertQuery = """
+                INSERT IGNORE INTO %s
+                	(player_uuid, friend_uuid)
+                VALUES
+                	(?, ?)
+                """;
+
+        List<Mutation> friendships = List.of(new Mutation(senderUUID, receiverUUID, true), new Mutation(receiverUUID, senderUUID, true));
+        try (Connection connection = FriendDatabase.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (deleteRequest(connection, senderUUID, receiverUUID, now, false) == 0) {
+                    connection.rollback();
+                    return false;
+                }
+                deleteRequest(connection, receiverUUID, senderUUID, now, false);
+                for (String table : FriendDatabase.writeTables()) {
+                    executeBatch(connection, insertQuery.formatted(table), friendships, List.of(0, 1), table);
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to accept a friend request", e);
+        }
+    }
+
+    @Override
+    public boolean removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        try (Connection connection = FriendDatabase.getConnection()) {
+            return deleteRequest(connection, senderUUID, receiverUUID, now, false) != 0;
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to remove a friend request", e);
+        }
+    }
+
+    /**
+     * Reads the pending requests through the receiver index
+     */
+    @Override
+    public List<FriendRequest> getIncomingRequests(UUID receiverUUID, long now, int limit) throws SQLException {
+        try {
+            return readRequests("receiver_uuid", receiverUUID, now, limit);
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to get the friend requests sent to a player", e);
+        }
+    }
+
+    /**
+     * Reads the pending requests through the primary key
+     */
+    @Override
+    public List<FriendRequest> getOutgoingRequests(UUID senderUUID, long now, int limit) throws SQLException {
+        try {
+            return readRequests("sender_uuid", senderUUID, now, limit);
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to get the friend requests sent by a player", e);
+        }
+    }
+
+    /**
+     * Reads the oldest expired requests through the expiry index, then deletes them by primary key as a single JDBC batch.
+     * A request sent again meanwhile isn't expired anymore and is kept, one accepted or denied meanwhile is already gone:
+     * neither is counted
+     *
+     * @param now   the current time
+     * @param limit the maximum number of requests removed
+     * @return the number of requests removed
+     */
+    @Override
+    public int removeExpiredRequests(long now, int limit) throws SQLException {
+        String selectQuery = """
+                SELECT sender_uuid, receiver_uuid
+                FROM %s
+                WHERE expires_at<=?
+                ORDER BY expires_at
+                LIMIT ?
+                """;
+        String deleteQuery = """
+                DELETE FROM %s
+                WHERE sender_uuid=? AND receiver_uuid=? AND expires_at<=?
+                """;
+
+        String table = FriendDatabase.REQUEST_TABLE;
+        try (Connection connection = FriendDatabase.getConnection()) {
+            List<UUID[]> expired = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(selectQuery.formatted(table))) {
+                statement.setLong(1, now);
+                statement.setInt(2, limit);
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    expired.add(new UUID[]{FriendDatabase.getUUID(rows, "sender_uuid", table), FriendDatabase.getUUID(rows, "receiver_uuid", table)});
+                }
+            }
+            if (expired.isEmpty()) {
+                return 0;
+            }
+
+            connection.setAutoCommit(false);
+            int removed = 0;
+            try (PreparedStatement statement = connection.prepareStatement(deleteQuery.formatted(table))) {
+                for (UUID[] request : expired) {
+                    FriendDatabase.setUUID(statement, 1, request[0], table);
+                    FriendDatabase.setUUID(statement, 2, request[1], table);
+                    statement.setLong(3, now);
+                    statement.addBatch();
+                }
+                for (int count : statement.executeBatch()) {
+                    //An unknown count (driver rewriting the batch) is taken as a removal
+                    removed += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return removed;
+        } catch (SQLException e) {
+            throw new SQLException("Error while trying to remove the expired friend requests", e);
+        }
+    }
+
+    /**
+     * Deletes the request between two players
+     *
+     * @param connection   the connection to use
+     * @param senderUUID   the UUID of the player who sent the request
+     * @param receiverUUID the UUID of the player the request was sent to
+     * @param now          the current time
+     * @param expired      true to delete the request only if it's expired, false only if it's pending
+     * @return the number of requests deleted
+     */
+    private static int deleteRequest(Connection connection, UUID senderUUID, UUID receiverUUID, long now, boolean expired) throws SQLException {
+        String query = """
+                DELETE FROM %s
+                WHERE sender_uuid=? AND receiver_uuid=? AND expires_at%s?
+                """;
+
+        String table = FriendDatabase.REQUEST_TABLE;
+        try (PreparedStatement statement = connection.prepareStatement(query.formatted(table, expired ? "<=" : ">"))) {
+            FriendDatabase.setUUID(statement, 1, senderUUID, table);
+            FriendDatabase.setUUID(statement, 2, receiverUUID, table);
+            statement.setLong(3, now);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads the pending requests of a player, the most recent first
+     *
+     * @param column the column the player is compared to, sender_uuid or receiver_uuid
+     * @param uuid   the player's UUID
+     * @param now    the current time
+     * @param limit  the maximum number of requests read
+     * @return the requests, in REQUEST_ORDER
+     */
+    private static List<FriendRequest> readRequests(String column, UUID uuid, long now, int limit) throws SQLException {
+        String query = """
+                SELECT sender_uuid, receiver_uuid, sent_at, expires_at
+                FROM %s
+                WHERE %s=? AND expires_at>?
+                ORDER BY sent_at DESC, sender_uuid, receiver_uuid
+                LIMIT ?
+                """;
+
+        List<FriendRequest> requests = new ArrayList<>();
+        String table = FriendDatabase.REQUEST_TABLE;
+        try (
+                Connection connection = FriendDatabase.getConnection();
+                PreparedStatement statement = connection.prepareStatement(query.formatted(table, column))
+        ) {
+            FriendDatabase.setUUID(statement, 1, uuid, table);
+            statement.setLong(2, now);
+            statement.setInt(3, limit);
+            ResultSet rows = statement.executeQuery();
+            while (rows.next()) {
+                requests.add(new FriendRequest(
+                        FriendDatabase.getUUID(rows, "sender_uuid", table),
+                        FriendDatabase.getUUID(rows, "receiver_uuid", table),
+                        rows.getLong("sent_at"),
+                        rows.getLong("expires_at")
+                ));
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Reads the last seen times of the given players, by chunks so the IN lists stay small
+     *
+     * @param connection   the connection to use
+     * @param playersUUIDs the UUIDs of the players
+     * @return the time each player was last seen at, players never seen are missing
+     */
+    private static Map<UUID, Long> readLastSeen(Connection connection, List<UUID> playersUUIDs) throws SQLException {
+        String query = """
+                SELECT player_uuid, last_seen
+                FROM %s
+                WHERE player_uuid IN (%s)
+                """;
+
+        Map<UUID, Long> lastSeen = new HashMap<>();
+        String table = FriendDatabase.LAST_SEEN_TABLE;
+        for (int from = 0; from < playersUUIDs.size(); from += 500) {
+            List<UUID> chunk = playersUUIDs.subList(from, Math.min(from + 500, playersUUIDs.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table, placeholders))) {
+                int index = 1;
+                for (UUID uuid : chunk) {
+                    FriendDatabase.setUUID(statement, index++, uuid, table);
+                }
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    lastSeen.put(FriendDatabase.getUUID(rows, "player_uuid", table), rows.getLong("last_seen"));
+                }
+            }
+        }
+        return lastSeen;
+    }
+
+    /**
+     * @return the fetch size making the driver stream the rows instead of loading the whole result,
+     * Integer.MIN_VALUE for MySQL Connector/J
+     */
+    protected int streamingFetchSize() {
+        return Integer.MIN_VALUE;
+    }
+
+    private static int[] executeBatch(Connection connection, String query, List<Mutation> mutations, List<Integer> indexes, String table) throws SQLException {
+        if (indexes.isEmpty()) {
+            return new int[0];
+        }
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            for (int index : indexes) {
+                FriendDatabase.setUUID(statement, 1, mutations.get(index).playerUUID(), table);
+                FriendDatabase.setUUID(statement, 2, mutations.get(index).friendUUID(), table);
+                statement.addBatch();
+            }
+            return statement.executeBatch();
+        }
+    }
+
+    /**
+     * Streams the rows from the database instead of loading them
+     *
+     * @param playerUUID if not null, only the friendships of this player (in both directions)
+     * @param consumer   receives the friendships
+     * @return the number of friendships given to the consumer
+     */
+    @Override
+    public long forEachFriendship(UUID playerUUID, FriendshipConsumer consumer) throws SQLException, IOException {
+        String query = playerUUID == null
+                ? "SELECT player_uuid, friend_uuid FROM %s"
+                : "SELECT player_uuid, friend_uuid FROM %s WHERE player_uuid=? UNION ALL SELECT player_uuid, friend_uuid FROM %1$s WHERE friend_uuid=? AND player_uuid<>?";
+
+        long count = 0;
+        try (Connection connection = FriendDatabase.getConnection()) {
+            String table = FriendDatabase.readTable();
+            try (PreparedStatement statement = connection.prepareStatement(query.formatted(table),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(streamingFetchSize());
+                if (playerUUID != null) {
+                    FriendDatabase.setUUID(statement, 1, playerUUID, table);
+                    FriendDatabase.setUUID(statement, 2, playerUUID, table);
+                    FriendDatabase.setUUID(statement, 3, playerUUID, table);
+                }
+
+                ResultSet rows = statement.executeQuery();
+                while (rows.next()) {
+                    consumer.accept(FriendDatabase.getUUID(rows, "player_uuid", table), FriendDatabase.getUUID(rows, "friend_uuid", table));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
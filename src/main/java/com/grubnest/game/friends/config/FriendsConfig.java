@@ -0,0 +1,110 @@
+package com.grubnest.game.friends.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * The FriendsConfig class holds the tunable settings of the plugin, read from the config.properties file
+ * stored in the plugin's data directory. The default file is copied from the plugin's resources on first start.
+ * Every getter takes a default value, which is used if the key is missing or invalid
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendsConfig {
+
+    private static final String FILE_NAME = "config.properties";
+
+    private final Properties properties;
+
+    /**
+     * Private constructor, use load() instead
+     *
+     * @param properties the loaded properties
+     */
+    private FriendsConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Loads the config from the given data directory, creating the default one if it doesn't exist yet
+     *
+     * @param dataDirectory the plugin's data directory
+     * @return the loaded config
+     */
+    public static FriendsConfig load(Path dataDirectory) throws IOException {
+        Path file = dataDirectory.resolve(FILE_NAME);
+        if (Files.notExists(file)) {
+            Files.createDirectories(dataDirectory);
+            try (InputStream defaults = FriendsConfig.class.getClassLoader().getResourceAsStream(FILE_NAME)) {
+                if (defaults != null) {
+                    Files.copy(defaults, file);
+                }
+            }
+        }
+
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+        }
+        return new FriendsConfig(properties);
+    }
+
+    /**
+     * @return a config containing no value, every getter will return its default
+     */
+    public static FriendsConfig empty() {
+        return new FriendsConfig(new Properties());
+    }
+
+    /**
+     * @param key          the key
+     * @param defaultValue returned if the key is missing
+     * @return the value as a string
+     */
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /**
+     * @param key          the key
+     * @param defaultValue returned if the key is missing or isn't a number
+     * @return the value as an int
+     */
+    public int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key          the key
+     * @param defaultValue returned if the key is missing or isn't a number
+     * @return the value as a long
+     */
+    public long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key          the key
+     * @param defaultValue returned if the key is missing
+     * @return the value as a boolean
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,136 @@
+package com.grubnest.game.friends.messaging;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The FriendMessage interface lists the messages exchanged between the proxy-side and the bukkit-side
+ * of the plugin on the channel "core:friendcommand". They are encoded and decoded by FriendMessageCodec
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public sealed interface FriendMessage {
+
+    /**
+     * @return the type of the message, written in its header
+     */
+    MessageType type();
+
+    /**
+     * Where a page of the friends GUI starts: right after the friend it was taken from.
+     * Online friends come first, sorted by server then UUID, the others follow, the most recently seen first
+     *
+     * @param server     the server of the friend, null if they were listed as offline
+     * @param lastSeen   the time the friend was last seen at, when listed as offline
+     * @param friendUUID the friend's UUID
+     */
+    record PageCursor(String server, long lastSeen, UUID friendUUID) {
+    }
+
+    /**
+     * Proxy to server: open the friends GUI for the player, its pages are then requested with GetFriendsPage
+     *
+     * @param playerUUID  the player's UUID
+     * @param friendCount the number of friends of the player, never 0
+     */
+    record MakeGUI(UUID playerUUID, int friendCount) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.MAKE_GUI;
+        }
+    }
+
+    /**
+     * Server to proxy: connect the player to the server their friend is playing on
+     *
+     * @param playerUUID the player's UUID
+     * @param friendUUID the friend's UUID
+     */
+    record Join(UUID playerUUID, UUID friendUUID) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.JOIN;
+        }
+    }
+
+    /**
+     * Server to proxy: send the player the presence changes of the given friends, until the next
+     * WatchPresence or UnwatchPresence message. The proxy replies with their current presence
+     *
+     * @param playerUUID   the UUID of the player viewing the GUI
+     * @param friendsUUIDs the UUIDs of the friends shown on the current page
+     */
+    record WatchPresence(UUID playerUUID, List<UUID> friendsUUIDs) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.WATCH_PRESENCE;
+        }
+    }
+
+    /**
+     * Server to proxy: stop sending presence changes to the player, their GUI was closed
+     *
+     * @param playerUUID the UUID of the player who viewed the GUI
+     */
+    record UnwatchPresence(UUID playerUUID) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.UNWATCH_PRESENCE;
+        }
+    }
+
+    /**
+     * Proxy to server: the new servers names of some of the watched friends
+     *
+     * @param playerUUID   the UUID of the player viewing the GUI
+     * @param friendsUUIDs the UUIDs of the friends whose presence changed
+     * @param serversNames the names of the servers, in the same order as the friends
+     */
+    record PresenceUpdate(UUID playerUUID, List<UUID> friendsUUIDs, List<String> serversNames) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.PRESENCE_UPDATE;
+        }
+    }
+
+    /**
+     * Server to proxy: get a page of the player's friends list, online friends first
+     *
+     * @param requestId  identifies the request, sent back in the reply
+     * @param playerUUID the UUID of the player viewing the GUI
+     * @param after      the cursor of the previous page, null for the first page
+     * @param limit      the maximum number of friends of the page
+     */
+    record GetFriendsPage(int requestId, UUID playerUUID, PageCursor after, int limit) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.GET_FRIENDS_PAGE;
+        }
+    }
+
+    /**
+     * Proxy to server: a page of the player's friends list with their usernames and skins, the names of their servers
+     * and the number of friends they have in common with the player, all in the same order as the friends
+     *
+     * @param requestId     the id of the GetFriendsPage request this is the reply to
+     * @param playerUUID    the UUID of the player viewing the GUI
+     * @param friendCount   the current number of friends of the player
+     * @param friendsUUIDs  the UUIDs of the friends of the page
+     * @param usernames     the usernames of the friends
+     * @param skins         the texture hashes of the friends skins, empty strings for unknown skins
+     * @param serversNames  the names of the servers
+     * @param mutualFriends    the numbers of mutual friends
+     * @param secondsSinceSeen the seconds elapsed since the offline friends were last seen, -1 for the others
+     *                         and for the friends never seen. Durations don't depend on the clocks of the proxy and servers
+     * @param next             the cursor of the next page, null if the page is empty
+     */
+    record FriendsPage(int requestId, UUID playerUUID, int friendCount, List<UUID> friendsUUIDs, List<String> usernames,
+                       List<String> skins, List<String> serversNames, List<Integer> mutualFriends, List<Integer> secondsSinceSeen,
+                       PageCursor next) implements FriendMessage {
+        @Override
+        public MessageType type() {
+            return MessageType.FRIENDS_PAGE;
+        }
+    }
+}
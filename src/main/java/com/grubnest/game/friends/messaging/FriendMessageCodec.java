@@ -0,0 +1,397 @@
+package com.grubnest.game.friends.messaging;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The FriendMessageCodec class encodes and decodes the messages sent on the channel "core:friendcommand".
+ * Every message starts with a header: the protocol version, the message type and a flags byte.
+ * Lists are prefixed by their size, UUIDs are written as two longs and the servers names of a message
+ * are written once in a table, entries then refer to them by index.
+ * Bodies bigger than COMPRESSION_THRESHOLD bytes are compressed when it makes them smaller
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class FriendMessageCodec {
+
+    /**
+     * The plugin messaging channel
+     */
+    public static final String CHANNEL = "core:friendcommand";
+
+    /**
+     * The protocol version, messages using another version are ignored
+     */
+    public static final byte VERSION = 9;
+
+    /**
+     * Bodies bigger than this number of bytes are compressed
+     */
+    static final int COMPRESSION_THRESHOLD = 512;
+
+    private static final byte FLAG_COMPRESSED = 1;
+
+    /**
+     * Upper bound of any list or decompressed body, protects against corrupted messages
+     */
+    private static final int MAX_LENGTH = 1 << 20;
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private FriendMessageCodec() {
+    }
+
+    /**
+     * @param message the message to encode
+     * @return the bytes to send on the channel
+     */
+    public static byte[] encode(FriendMessage message) {
+        try {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64);
+            DataOutputStream body = new DataOutputStream(bodyBytes);
+            writeBody(body, message);
+            byte[] raw = bodyBytes.toByteArray();
+
+            //UUIDs barely compress, the compressed body is only kept if it's actually smaller
+            byte[] compressed = raw.length > COMPRESSION_THRESHOLD ? deflate(raw) : null;
+            boolean compress = compressed != null && compressed.length + 5 < raw.length;
+
+            ByteArrayOutputStream outBytes = new ByteArrayOutputStream(raw.length + 8);
+            DataOutputStream out = new DataOutputStream(outBytes);
+            out.writeByte(VERSION);
+            out.writeByte(message.type().getId());
+            out.writeByte(compress ? FLAG_COMPRESSED : 0);
+            if (compress) {
+                writeVarInt(out, raw.length);
+                out.write(compressed);
+            } else {
+                out.write(raw);
+            }
+            return outBytes.toByteArray();
+        } catch (IOException e) {
+            //Writing to a byte array never fails
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param data the bytes received on the channel
+     * @return the decoded message, empty if it uses another protocol version, an unknown type or is malformed
+     */
+    public static Optional<FriendMessage> decode(byte[] data) {
+        if (data.length < 3 || data[0] != VERSION) {
+            return Optional.empty();
+        }
+        MessageType type = MessageType.fromId(data[1]);
+        if (type == null) {
+            return Optional.empty();
+        }
+
+        try {
+            DataInputStream in;
+            if ((data[2] & FLAG_COMPRESSED) != 0) {
+                DataInputStream header = new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3));
+                int length = readLength(header);
+                int consumed = data.length - 3 - header.available();
+                in = new DataInputStream(new ByteArrayInputStream(inflate(data, 3 + consumed, length)));
+            } else {
+                in = new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3));
+            }
+            return Optional.of(readBody(in, type));
+        } catch (IOException | DataFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the fields of the message
+     */
+    private static void writeBody(DataOutputStream out, FriendMessage message) throws IOException {
+        switch (message.type()) {
+            case MAKE_GUI -> {
+                FriendMessage.MakeGUI makeGUI = (FriendMessage.MakeGUI) message;
+                writeUUID(out, makeGUI.playerUUID());
+                writeVarInt(out, makeGUI.friendCount());
+            }
+            case JOIN -> {
+                FriendMessage.Join join = (FriendMessage.Join) message;
+                writeUUID(out, join.playerUUID());
+                writeUUID(out, join.friendUUID());
+            }
+            case WATCH_PRESENCE -> {
+                FriendMessage.WatchPresence watch = (FriendMessage.WatchPresence) message;
+                writeUUID(out, watch.playerUUID());
+                writeUUIDs(out, watch.friendsUUIDs());
+            }
+            case UNWATCH_PRESENCE -> {
+                FriendMessage.UnwatchPresence unwatch = (FriendMessage.UnwatchPresence) message;
+                writeUUID(out, unwatch.playerUUID());
+            }
+            case PRESENCE_UPDATE -> {
+                FriendMessage.PresenceUpdate update = (FriendMessage.PresenceUpdate) message;
+                writeUUID(out, update.playerUUID());
+                writeUUIDs(out, update.friendsUUIDs());
+                writeInternedStrings(out, update.serversNames());
+            }
+            case GET_FRIENDS_PAGE -> {
+                FriendMessage.GetFriendsPage request = (FriendMessage.GetFriendsPage) message;
+                writeVarInt(out, request.requestId());
+                writeUUID(out, request.playerUUID());
+                writeCursor(out, request.after());
+                writeVarInt(out, request.limit());
+            }
+            case FRIENDS_PAGE -> {
+                FriendMessage.FriendsPage page = (FriendMessage.FriendsPage) message;
+                writeVarInt(out, page.requestId());
+                writeUUID(out, page.playerUUID());
+                writeVarInt(out, page.friendCount());
+                writeUUIDs(out, page.friendsUUIDs());
+                writeStrings(out, page.usernames());
+                writeInternedStrings(out, page.skins());
+                writeInternedStrings(out, page.serversNames());
+                writeVarInts(out, page.mutualFriends());
+                writeVarInts(out, page.secondsSinceSeen());
+                writeCursor(out, page.next());
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a message of the given type
+     */
+    private static FriendMessage readBody(DataInputStream in, MessageType type) throws IOException {
+        return switch (type) {
+            case MAKE_GUI -> new FriendMessage.MakeGUI(readUUID(in), readLength(in));
+            case JOIN -> new FriendMessage.Join(readUUID(in), readUUID(in));
+            case WATCH_PRESENCE -> new FriendMessage.WatchPresence(readUUID(in), readUUIDs(in));
+            case UNWATCH_PRESENCE -> new FriendMessage.UnwatchPresence(readUUID(in));
+            case PRESENCE_UPDATE -> readPresenceUpdate(in);
+            case GET_FRIENDS_PAGE -> new FriendMessage.GetFriendsPage(readVarInt(in), readUUID(in), readCursor(in), readLength(in));
+            case FRIENDS_PAGE -> readFriendsPage(in);
+        };
+    }
+
+    private static FriendMessage readFriendsPage(DataInputStream in) throws IOException {
+        int requestId = readVarInt(in);
+        UUID playerUUID = readUUID(in);
+        int friendCount = readLength(in);
+        List<UUID> friendsUUIDs = readUUIDs(in);
+        List<String> usernames = readStrings(in);
+        List<String> skins = readInternedStrings(in);
+        List<String> serversNames = readInternedStrings(in);
+        List<Integer> mutualFriends = readVarInts(in);
+        List<Integer> secondsSinceSeen = readVarInts(in);
+        FriendMessage.PageCursor next = readCursor(in);
+        int size = friendsUUIDs.size();
+        if (usernames.size() != size || skins.size() != size || serversNames.size() != size || mutualFriends.size() != size
+                || secondsSinceSeen.size() != size) {
+            throw new IOException("Mismatched friends page");
+        }
+        return new FriendMessage.FriendsPage(requestId, playerUUID, friendCount, friendsUUIDs, usernames, skins, serversNames, mutualFriends, secondsSinceSeen, next);
+    }
+
+    private static FriendMessage readPresenceUpdate(DataInputStream in) throws IOException {
+        UUID playerUUID = readUUID(in);
+        List<UUID> friendsUUIDs = readUUIDs(in);
+        List<String> serversNames = readInternedStrings(in);
+        if (friendsUUIDs.size() != serversNames.size()) {
+            throw new IOException("Mismatched presence update");
+        }
+        return new FriendMessage.PresenceUpdate(playerUUID, friendsUUIDs, serversNames);
+    }
+
+    static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    static void writeUUIDs(DataOutputStream out, List<UUID> uuids) throws IOException {
+        writeVarInt(out, uuids.size());
+        for (UUID uuid : uuids) {
+            writeUUID(out, uuid);
+        }
+    }
+
+    static List<UUID> readUUIDs(DataInputStream in) throws IOException {
+        int size = readLength(in);
+        List<UUID> uuids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            uuids.add(readUUID(in));
+        }
+        return uuids;
+    }
+
+    /**
+     * Writes a nullable cursor: a kind byte (none, online or offline), then its fields
+     */
+    static void writeCursor(DataOutputStream out, FriendMessage.PageCursor cursor) throws IOException {
+        if (cursor == null) {
+            out.writeByte(0);
+            return;
+        }
+        if (cursor.server() != null) {
+            out.writeByte(1);
+            out.writeUTF(cursor.server());
+        } else {
+            out.writeByte(2);
+            out.writeLong(cursor.lastSeen());
+        }
+        writeUUID(out, cursor.friendUUID());
+    }
+
+    static FriendMessage.PageCursor readCursor(DataInputStream in) throws IOException {
+        return switch (in.readByte()) {
+            case 0 -> null;
+            case 1 -> new FriendMessage.PageCursor(in.readUTF(), 0, readUUID(in));
+            case 2 -> new FriendMessage.PageCursor(null, in.readLong(), readUUID(in));
+            default -> throw new IOException("Unknown cursor kind");
+        };
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        writeVarInt(out, strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = readLength(in);
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    /**
+     * Writes a list of strings as a table of the distinct values followed by one index per entry
+     */
+    static void writeInternedStrings(DataOutputStream out, List<String> strings) throws IOException {
+        Map<String, Integer> table = new LinkedHashMap<>();
+        for (String string : strings) {
+            table.putIfAbsent(string, table.size());
+        }
+
+        writeVarInt(out, table.size());
+        for (String string : table.keySet()) {
+            out.writeUTF(string);
+        }
+        writeVarInt(out, strings.size());
+        for (String string : strings) {
+            writeVarInt(out, table.get(string));
+        }
+    }
+
+    static List<String> readInternedStrings(DataInputStream in) throws IOException {
+        String[] table = new String[readLength(in)];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = in.readUTF();
+        }
+
+        int size = readLength(in);
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int index = readLength(in);
+            if (index >= table.length) {
+                throw new IOException("String index out of the table");
+            }
+            strings.add(table[index]);
+        }
+        return strings;
+    }
+
+    static void writeVarInts(DataOutputStream out, List<Integer> values) throws IOException {
+        writeVarInt(out, values.size());
+        for (int value : values) {
+            writeVarInt(out, value);
+        }
+    }
+
+    static List<Integer> readVarInts(DataInputStream in) throws IOException {
+        int size = readLength(in);
+        List<Integer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readVarInt(in));
+        }
+        return values;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    /**
+     * Reads a size or an index, which can't be negative nor bigger than MAX_LENGTH
+     */
+    static int readLength(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            byte[] raw = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed body");
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new DataFormatException("Unexpected body length");
+            }
+            return raw;
+        } finally {
+            inflater.end();
+        }
+    }
+}
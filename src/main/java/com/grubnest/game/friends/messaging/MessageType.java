@@ -0,0 +1,48 @@
+package com.grubnest.game.friends.messaging;
+
+/**
+ * The MessageType enum gives each FriendMessage the byte identifying it on the wire.
+ * Ids must never be reused once released, add new types at the end.
+ * 2 and 3 were GET_SERVERS_NAMES and UPDATE_SERVERS_NAMES, replaced by the friends pages
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public enum MessageType {
+    MAKE_GUI(1),
+    JOIN(4),
+    WATCH_PRESENCE(5),
+    UNWATCH_PRESENCE(6),
+    PRESENCE_UPDATE(7),
+    GET_FRIENDS_PAGE(8),
+    FRIENDS_PAGE(9);
+
+    private static final MessageType[] BY_ID = new MessageType[128];
+
+    static {
+        for (MessageType type : values()) {
+            BY_ID[type.id] = type;
+        }
+    }
+
+    private final byte id;
+
+    MessageType(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     * @return the byte identifying the type on the wire
+     */
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * @param id the byte read from the wire
+     * @return the matching type, null if unknown
+     */
+    public static MessageType fromId(byte id) {
+        return id < 0 ? null : BY_ID[id];
+    }
+}
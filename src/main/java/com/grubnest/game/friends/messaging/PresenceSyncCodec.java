@@ -0,0 +1,87 @@
+package com.grubnest.game.friends.messaging;
+
+import java.io.*;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The PresenceSyncCodec class encodes and decodes the messages exchanged between the proxies.
+ * Every message starts with the protocol version and its kind, the labels are written once in a table
+ * like the servers names of FriendMessageCodec: a snapshot costs 17 bytes per player.
+ * The edges messages have no labels, the other player of each pair follows: 32 bytes per pair
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class PresenceSyncCodec {
+
+    /**
+     * The protocol version, messages using another version are ignored
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private PresenceSyncCodec() {
+    }
+
+    /**
+     * @param message the message to encode
+     * @return the bytes to send to the other proxies
+     */
+    public static byte[] encode(PresenceSyncMessage message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.playersUUIDs().size() * 17 + message.othersUUIDs().size() * 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeByte(message.kind().ordinal());
+            out.writeUTF(message.proxyId());
+            out.writeLong(message.epoch());
+            out.writeLong(message.sequence());
+            FriendMessageCodec.writeUUIDs(out, message.playersUUIDs());
+            FriendMessageCodec.writeInternedStrings(out, message.labels());
+            if (message.kind() == PresenceSyncMessage.Kind.EDGES) {
+                FriendMessageCodec.writeUUIDs(out, message.othersUUIDs());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            //Writing to a byte array never fails
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param data the bytes received from another proxy
+     * @return the decoded message, empty if it uses another protocol version, an unknown kind or is malformed
+     */
+    public static Optional<PresenceSyncMessage> decode(byte[] data) {
+        if (data.length < 2 || data[0] != VERSION || data[1] < 0 || data[1] >= PresenceSyncMessage.Kind.values().length) {
+            return Optional.empty();
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 2, data.length - 2));
+            PresenceSyncMessage.Kind kind = PresenceSyncMessage.Kind.values()[data[1]];
+            String proxyId = in.readUTF();
+            long epoch = in.readLong();
+            long sequence = in.readLong();
+            List<UUID> playersUUIDs = FriendMessageCodec.readUUIDs(in);
+            List<String> labels = FriendMessageCodec.readInternedStrings(in);
+            if (kind == PresenceSyncMessage.Kind.EDGES) {
+                List<UUID> othersUUIDs = FriendMessageCodec.readUUIDs(in);
+                if (!labels.isEmpty() || playersUUIDs.size() != othersUUIDs.size()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new PresenceSyncMessage(kind, proxyId, epoch, sequence, playersUUIDs, labels, othersUUIDs));
+            }
+            if (playersUUIDs.size() != labels.size()) {
+                return Optional.empty();
+            }
+            return Optional.of(new PresenceSyncMessage(kind, proxyId, epoch, sequence, playersUUIDs, labels, List.of()));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
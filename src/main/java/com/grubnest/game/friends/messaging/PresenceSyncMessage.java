@@ -0,0 +1,32 @@
+package com.grubnest.game.friends.messaging;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A message sent by a proxy to the other proxies of the network to share the presence of its players (see PresenceSync),
+ * or the pairs of players whose friendships or requests it changed
+ *
+ * @param kind         DELTA for the changes since the previous message, SNAPSHOT for the full list of the proxy's players,
+ *                     EDGES for the pairs of players whose friendships or requests changed
+ * @param proxyId      the id of the sending proxy
+ * @param epoch        the time the sending proxy started at, another epoch means the proxy restarted
+ * @param sequence     the number of the message among the ones sent by the proxy since it started
+ * @param playersUUIDs the players
+ * @param labels       their labels, in the same order: a server name, "Offline" or "Unknown server". Empty for EDGES
+ * @param othersUUIDs  for EDGES, the other player of each pair, in the same order as the players. Empty for the other kinds
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public record PresenceSyncMessage(Kind kind, String proxyId, long epoch, long sequence, List<UUID> playersUUIDs,
+                                  List<String> labels, List<UUID> othersUUIDs) {
+
+    /**
+     * The kinds of presence messages, new kinds are added at the end: the proxies ignore the kinds they don't know
+     */
+    public enum Kind {
+        DELTA,
+        SNAPSHOT,
+        EDGES
+    }
+}
@@ -0,0 +1,185 @@
+package com.grubnest.game.friends.metrics;
+
+import com.grubnest.game.friends.api.DatabaseExecutor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The FriendsMetrics class is the registry of the plugin's metrics: a LatencyTimer per timed operation
+ * (store calls, plugin messages round trips, GUI renders...) and gauges reading the state of the caches and queues.
+ * Operations slower than the configured threshold also commit a SlowOperationEvent to the Flight Recorder.
+ * The metrics can be written in the Prometheus text format, see writePrometheus()
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendsMetrics {
+
+    /**
+     * Created eagerly, it's used from every thread
+     */
+    private static final FriendsMetrics INSTANCE = new FriendsMetrics();
+
+    private static final String PREFIX = "grubnest_friends_";
+
+    private final Map<String, LatencyTimer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile long slowNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Singleton constructor
+     */
+    private FriendsMetrics() {
+    }
+
+    /**
+     * @param slowMillis the duration above which an operation commits a SlowOperationEvent
+     */
+    public void configure(long slowMillis) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+    }
+
+    /**
+     * @param operation the name of the operation
+     * @return the timer of the operation, created on first use
+     */
+    public LatencyTimer timer(String operation) {
+        LatencyTimer timer = timers.get(operation);
+        return timer != null ? timer : timers.computeIfAbsent(operation, LatencyTimer::new);
+    }
+
+    /**
+     * Records a call of an operation
+     *
+     * @param operation the name of the operation
+     * @param nanos     the duration of the call
+     * @param failed    true if the call failed
+     */
+    public void record(String operation, long nanos, boolean failed) {
+        timer(operation).record(nanos, failed);
+        if (nanos >= slowNanos) {
+            SlowOperationEvent event = new SlowOperationEvent();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.durationNanos = nanos;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Registers a gauge, replacing the one with the same name
+     *
+     * @param name  the name of the gauge
+     * @param value reads the current value, called on every snapshot: it must be cheap and thread-safe
+     */
+    public void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Registers the gauges of the DatabaseExecutor, its queue depth and the time the calls wait in it
+     */
+    public void registerDatabaseGauges() {
+        registerGauge("database_queued", () -> DatabaseExecutor.getInstance().getStats().queued());
+        registerGauge("database_running", () -> DatabaseExecutor.getInstance().getStats().running());
+        registerGauge("database_completed", () -> DatabaseExecutor.getInstance().getStats().completed());
+        registerGauge("database_rejected", () -> DatabaseExecutor.getInstance().getStats().rejected());
+        registerGauge("database_average_wait_nanos", () -> DatabaseExecutor.getInstance().getStats().averageWaitNano());
+        registerGauge("database_max_wait_nanos", () -> DatabaseExecutor.getInstance().getStats().maxWaitNano());
+    }
+
+    /**
+     * @return the snapshots of every timer, sorted by name
+     */
+    public List<LatencyTimer.Snapshot> timerSnapshots() {
+        List<LatencyTimer.Snapshot> snapshots = new ArrayList<>();
+        for (LatencyTimer timer : timers.values()) {
+            snapshots.add(timer.snapshot());
+        }
+        snapshots.sort(Comparator.comparing(LatencyTimer.Snapshot::name));
+        return snapshots;
+    }
+
+    /**
+     * @return the current value of every gauge, sorted by name
+     */
+    public SortedMap<String, Long> gaugeValues() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, value) -> values.put(name, value.getAsLong()));
+        return values;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format: one histogram family labelled by operation,
+     * an error counter family and a gauge per registered gauge
+     *
+     * @param out where the metrics are written
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        List<LatencyTimer.Snapshot> snapshots = timerSnapshots();
+
+        out.write("# HELP " + PREFIX + "operation_seconds Duration of the plugin's operations\n");
+        out.write("# TYPE " + PREFIX + "operation_seconds histogram\n");
+        for (LatencyTimer.Snapshot snapshot : snapshots) {
+            String operation = "operation=\"" + escape(snapshot.name()) + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < snapshot.buckets().length; i++) {
+                cumulative += snapshot.buckets()[i];
+                String bound = i == snapshot.buckets().length - 1 ? "+Inf" : seconds(LatencyTimer.upperBoundNanos(i));
+                out.write(PREFIX + "operation_seconds_bucket{" + operation + ",le=\"" + bound + "\"} " + cumulative + "\n");
+            }
+            out.write(PREFIX + "operation_seconds_sum{" + operation + "} " + seconds(snapshot.totalNanos()) + "\n");
+            out.write(PREFIX + "operation_seconds_count{" + operation + "} " + snapshot.count() + "\n");
+        }
+
+        out.write("# HELP " + PREFIX + "operation_errors_total Failed calls of the plugin's operations\n");
+        out.write("# TYPE " + PREFIX + "operation_errors_total counter\n");
+        for (LatencyTimer.Snapshot snapshot : snapshots) {
+            out.write(PREFIX + "operation_errors_total{operation=\"" + escape(snapshot.name()) + "\"} " + snapshot.errors() + "\n");
+        }
+
+        for (Map.Entry<String, Long> gauge : gaugeValues().entrySet()) {
+            String name = PREFIX + gauge.getKey().replaceAll("[^a-zA-Z0-9_]", "_");
+            out.write("# TYPE " + name + " gauge\n");
+            out.write(name + " " + gauge.getValue() + "\n");
+        }
+    }
+
+    /**
+     * Writes the metrics to a file, replacing it at once so a scraper never reads half a file
+     *
+     * @param file the file
+     */
+    public void dumpPrometheus(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary)) {
+            writePrometheus(out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * @return the instance (singleton)
+     */
+    public static FriendsMetrics getInstance() {
+        return INSTANCE;
+    }
+}
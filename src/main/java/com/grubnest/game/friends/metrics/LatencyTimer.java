@@ -0,0 +1,107 @@
+package com.grubnest.game.friends.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyTimer class counts the calls of an operation, its failures, and keeps a histogram of its durations.
+ * The histogram has one bucket per power of two microseconds, so recording a duration never allocates nor locks
+ * and the percentiles it gives are upper bounds, at most twice the real value
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class LatencyTimer {
+
+    /**
+     * Bucket i counts the durations below 2^i microseconds, the last one counts everything else (more than ~67 seconds)
+     */
+    static final int BUCKETS = 28;
+
+    /**
+     * The counters of a timer at a given time
+     *
+     * @param name       the name of the operation
+     * @param count      the number of calls
+     * @param errors     the number of failed calls, included in count
+     * @param totalNanos the sum of the durations
+     * @param maxNanos   the longest duration
+     * @param buckets    the number of calls of each bucket, not cumulative
+     */
+    public record Snapshot(String name, long count, long errors, long totalNanos, long maxNanos, long[] buckets) {
+
+        /**
+         * @param percentile between 0 and 1
+         * @return the upper bound of the bucket the percentile falls in, in nanoseconds, 0 if there is no call
+         */
+        public long percentileNanos(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == buckets.length - 1 ? maxNanos : Math.min(upperBoundNanos(i), maxNanos);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final String name;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param name the name of the operation
+     */
+    LatencyTimer(String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos  the duration of a call
+     * @param failed true if the call failed
+     */
+    public void record(long nanos, boolean failed) {
+        long micros = Math.max(0, nanos) / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets[bucket].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * @return the name of the operation
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the current counters, each one read separately: a call recorded meanwhile can be in some of them only
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(name, count.sum(), errors.sum(), totalNanos.sum(), maxNanos.get(), counts);
+    }
+
+    /**
+     * @return the exclusive upper bound of a bucket, Long.MAX_VALUE for the last one
+     */
+    static long upperBoundNanos(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+    }
+}
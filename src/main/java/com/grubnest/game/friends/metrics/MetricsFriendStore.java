@@ -0,0 +1,170 @@
+package com.grubnest.game.friends.metrics;
+
+import com.grubnest.game.friends.api.ForwardingFriendStore;
+import com.grubnest.game.friends.api.FriendStore;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * The MetricsFriendStore class times every call made to the store it decorates, and counts the failed ones.
+ * Put on top of the store selected by the config, it times every FriendsAPI function.
+ * The operations are named "store.<method>"
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class MetricsFriendStore extends ForwardingFriendStore {
+
+    /**
+     * A call to the decorated store
+     */
+    @FunctionalInterface
+    private interface StoreCall<T> {
+        T call() throws SQLException;
+    }
+
+    private final FriendsMetrics metrics;
+
+    /**
+     * @param delegate the store receiving the calls
+     * @param metrics  the registry receiving the durations
+     */
+    public MetricsFriendStore(FriendStore delegate, FriendsMetrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void createTable() throws SQLException {
+        time("store.createTable", () -> {
+            super.createTable();
+            return null;
+        });
+    }
+
+    @Override
+    public void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException {
+        time("store.markAsFriend", () -> {
+            super.markAsFriend(playerUUID, friendUUID);
+            return null;
+        });
+    }
+
+    @Override
+    public void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException {
+        time("store.removeFromFriendDB", () -> {
+            super.removeFromFriendDB(playerUUID, friendUUID);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isFriendAlready(UUID playerUUID, UUID friendUUID) throws SQLException {
+        return time("store.isFriendAlready", () -> super.isFriendAlready(playerUUID, friendUUID));
+    }
+
+    @Override
+    public Optional<List<UUID>> getFriendsUUIDs(UUID playerUUID) throws SQLException {
+        return time("store.getFriendsUUIDs", () -> super.getFriendsUUIDs(playerUUID));
+    }
+
+    @Override
+    public Optional<List<UUID>> getFriendedByUUIDs(UUID playerUUID) throws SQLException {
+        return time("store.getFriendedByUUIDs", () -> super.getFriendedByUUIDs(playerUUID));
+    }
+
+    @Override
+    public int countFriends(UUID playerUUID) throws SQLException {
+        return time("store.countFriends", () -> super.countFriends(playerUUID));
+    }
+
+    @Override
+    public void setLastSeen(Map<UUID, Long> lastSeen) throws SQLException {
+        time("store.setLastSeen", () -> {
+            super.setLastSeen(lastSeen);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) throws SQLException {
+        return time("store.getLastSeen", () -> super.getLastSeen(playersUUIDs));
+    }
+
+    @Override
+    public Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) throws SQLException {
+        return time("store.getFriendedByAmong", () -> super.getFriendedByAmong(playerUUID, playersUUIDs));
+    }
+
+    @Override
+    public List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) throws SQLException {
+        return time("store.getMutualFriends", () -> super.getMutualFriends(firstUUID, secondUUID));
+    }
+
+    @Override
+    public int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) throws SQLException {
+        return time("store.countMutualFriends", () -> super.countMutualFriends(playerUUID, othersUUIDs));
+    }
+
+    @Override
+    public boolean[] apply(List<Mutation> mutations) throws SQLException {
+        return time("store.apply", () -> super.apply(mutations));
+    }
+
+    @Override
+    public boolean addFriendRequest(FriendRequest request) throws SQLException {
+        return time("store.addFriendRequest", () -> super.addFriendRequest(request));
+    }
+
+    @Override
+    public boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        return time("store.acceptFriendRequest", () -> super.acceptFriendRequest(senderUUID, receiverUUID, now));
+    }
+
+    @Override
+    public boolean removeFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        return time("store.removeFriendRequest", () -> super.removeFriendRequest(senderUUID, receiverUUID, now));
+    }
+
+    @Override
+    public List<FriendRequest> getIncomingRequests(UUID receiverUUID, long now, int limit) throws SQLException {
+        return time("store.getIncomingRequests", () -> super.getIncomingRequests(receiverUUID, now, limit));
+    }
+
+    @Override
+    public List<FriendRequest> getOutgoingRequests(UUID senderUUID, long now, int limit) throws SQLException {
+        return time("store.getOutgoingRequests", () -> super.getOutgoingRequests(senderUUID, now, limit));
+    }
+
+    @Override
+    public int removeExpiredRequests(long now, int limit) throws SQLException {
+        return time("store.removeExpiredRequests", () -> super.removeExpiredRequests(now, limit));
+    }
+
+    @Override
+    public long forEachFriendship(UUID playerUUID, FriendshipConsumer consumer) throws SQLException, IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            long count = super.forEachFriendship(playerUUID, consumer);
+            failed = false;
+            return count;
+        } finally {
+            metrics.record("store.forEachFriendship", System.nanoTime() - start, failed);
+        }
+    }
+
+    private <T> T time(String operation, StoreCall<T> call) throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+}
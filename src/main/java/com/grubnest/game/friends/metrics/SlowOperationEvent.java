@@ -0,0 +1,27 @@
+package com.grubnest.game.friends.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * The SlowOperationEvent class is the Flight Recorder event committed for every operation slower than
+ * the threshold of FriendsMetrics (metrics.slow-millis). It costs nothing when no recording is running
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+@Name("com.grubnest.friends.SlowOperation")
+@Label("Slow Friends Operation")
+@Category("GrubnestFriends")
+@Description("An operation of the friends plugin slower than metrics.slow-millis")
+class SlowOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long durationNanos;
+
+    @Label("Failed")
+    boolean failed;
+}
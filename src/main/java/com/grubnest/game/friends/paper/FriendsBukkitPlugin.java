@@ -1,9 +1,22 @@
 package com.grubnest.game.friends.paper;
 
+import com.grubnest.game.friends.api.DatabaseExecutor;
+import com.grubnest.game.friends.config.FriendsConfig;
+import com.grubnest.game.friends.messaging.FriendMessageCodec;
+import com.grubnest.game.friends.metrics.FriendsMetrics;
+import com.grubnest.game.friends.paper.commands.friend.FriendGUIListener;
+import com.grubnest.game.friends.paper.commands.friend.FriendGUISessions;
 import com.grubnest.game.friends.paper.commands.friend.FriendMessageListener;
+import com.grubnest.game.friends.paper.commands.friend.HeadCache;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
 /**
  * The FriendsBukkitPlugin class is the bukkit-side of the plugin GrubnestFriends
  *
@@ -12,6 +25,7 @@ import org.bukkit.plugin.java.JavaPlugin;
  */
 public class FriendsBukkitPlugin extends JavaPlugin {
     private static FriendsBukkitPlugin instance;
+    private FriendsConfig friendsConfig;
 
     /**
      * Runs when plugin is enabled
@@ -20,9 +34,22 @@ public class FriendsBukkitPlugin extends JavaPlugin {
     public void onEnable() {
         instance = this;
 
+        loadFriendsConfig();
+        DatabaseExecutor.configure(
+                friendsConfig.getInt("database.pool-size", 4),
+                friendsConfig.getInt("database.queue-capacity", 1000),
+                friendsConfig.getLong("database.timeout-millis", 5000),
+                friendsConfig.getBoolean("database.virtual-threads", true)
+        );
+
         //Register Plugin Messaging channels
-        this.getServer().getMessenger().registerOutgoingPluginChannel(this, "core:friendcommand");
-        this.getServer().getMessenger().registerIncomingPluginChannel(this, "core:friendcommand", FriendMessageListener.getInstance());
+        this.getServer().getMessenger().registerOutgoingPluginChannel(this, FriendMessageCodec.CHANNEL);
+        this.getServer().getMessenger().registerIncomingPluginChannel(this, FriendMessageCodec.CHANNEL, FriendMessageListener.getInstance());
+
+        //Single listener of all the friends GUIs
+        getServer().getPluginManager().registerEvents(new FriendGUIListener(), this);
+
+        registerMetrics();
 
         getServer().getConsoleSender().sendMessage(ChatColor.AQUA + "GrubnestFriends is enabled");
     }
@@ -35,6 +62,63 @@ public class FriendsBukkitPlugin extends JavaPlugin {
         //Unregister channels on disable
         this.getServer().getMessenger().unregisterOutgoingPluginChannel(this);
         this.getServer().getMessenger().unregisterIncomingPluginChannel(this);
+
+        DatabaseExecutor.getInstance().shutdown();
+    }
+
+    /**
+     * Registers the gauges of the GUIs and the database calls, and schedules the dump of the metrics in the Prometheus format
+     */
+    private void registerMetrics() {
+        FriendsMetrics metrics = FriendsMetrics.getInstance();
+        metrics.configure(friendsConfig.getLong("metrics.slow-millis", 100));
+        metrics.registerDatabaseGauges();
+        //The gauges are read asynchronously, the singletons are created here on the main thread
+        FriendGUISessions sessions = FriendGUISessions.getInstance();
+        HeadCache heads = HeadCache.getInstance();
+        metrics.registerGauge("gui_sessions", sessions::getOpenSessions);
+        metrics.registerGauge("heads_entries", heads::size);
+
+        long dumpSeconds = friendsConfig.getLong("metrics.dump-seconds", 60);
+        if (dumpSeconds > 0) {
+            Path file = getDataFolder().toPath().resolve("metrics.prom");
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+                try {
+                    Files.createDirectories(file.getParent());
+                    metrics.dumpPrometheus(file);
+                } catch (IOException e) {
+                    getLogger().log(Level.WARNING, "Could not write the metrics file", e);
+                }
+            }, dumpSeconds * 20, dumpSeconds * 20);
+        }
+    }
+
+    /**
+     * Loads the config file, falling back to the default values if it can't be read
+     */
+    private void loadFriendsConfig() {
+        try {
+            friendsConfig = FriendsConfig.load(getDataFolder().toPath());
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not load the config file, using default values", e);
+            friendsConfig = FriendsConfig.empty();
+        }
+    }
+
+    /**
+     * @return the plugin's config
+     */
+    public FriendsConfig getFriendsConfig() {
+        return friendsConfig;
+    }
+
+    /**
+     * Used to switch back to the main server thread once an asynchronous call is done
+     *
+     * @return an executor running the tasks on the main server thread
+     */
+    public Executor getMainThreadExecutor() {
+        return task -> getServer().getScheduler().runTask(this, task);
     }
 
     /**
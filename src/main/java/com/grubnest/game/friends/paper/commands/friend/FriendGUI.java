@@ -1,33 +1,32 @@
 package com.grubnest.game.friends.paper.commands.friend;
 
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
-import com.grubnest.game.core.databasehandler.utils.DataUtils;
+import com.grubnest.game.friends.messaging.FriendMessage;
+import com.grubnest.game.friends.messaging.FriendMessageCodec;
+import com.grubnest.game.friends.metrics.FriendsMetrics;
 import com.grubnest.game.friends.paper.FriendsBukkitPlugin;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
-import org.bukkit.event.inventory.InventoryCloseEvent;
-import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.inventory.meta.SkullMeta;
+import org.bukkit.persistence.PersistentDataType;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The FriendGUI class opens a GUI to the player, showing their friends activity statuses
+ * The FriendGUI class opens a GUI to the player, showing their friends activity statuses.
+ * The friends are requested from the proxy page by page, only when a page is about to be displayed.
+ * It's the holder of its inventory, the events are routed to it by FriendGUIListener
  *
  * @author NevaZyo
  * @version 1.0 at 06/01/2022
  */
-public class FriendGUI implements Listener {
+public class FriendGUI implements InventoryHolder {
 
     /**
      * The owner's UUID
@@ -38,7 +37,12 @@ public class FriendGUI implements Listener {
      * The size (in rows) the GUI should be to display the heads, keep in mind that one extra row will be added for the page-navigation items
      * This cannot be less than 1 or greater than 5
      */
-    private int numberOfRows;
+    private final int numberOfRows;
+
+    /**
+     * The number of heads of a full page, the pages are requested with this size
+     */
+    private final int headsPerPage;
 
     /**
      * The GUI's inventory
@@ -50,19 +54,84 @@ public class FriendGUI implements Listener {
      */
     private int currentPage;
 
+    /**
+     * The number of pages, updated with the number of friends sent along every page
+     */
+    private int pageCount;
+
+
+    /**
+     * How long a received page is reused before being requested again
+     */
+    private static final long PAGE_TTL_MILLIS = 5000;
+
+    /**
+     * Gives each request sent to the proxy its own id, so replies can be matched to the page that asked for them
+     */
+    private static final AtomicInteger REQUEST_IDS = new AtomicInteger();
+
+    /**
+     * The server name sent by the proxy for the offline friends
+     */
+    private static final String OFFLINE = "Offline";
+
+    /**
+     * The friends of a page with their usernames and skins, the names of the servers they are playing on,
+     * their number of mutual friends with the player and the last time they were seen, all stored in the same order
+     *
+     * @param friendsUUIDs  the friends UUIDs
+     * @param usernames     the friends usernames
+     * @param skins         the texture hashes of the friends skins
+     * @param servers       the servers names
+     * @param mutualFriends the numbers of mutual friends
+     * @param lastSeen      the last time the offline friends were seen at, by this server's clock, 0 if not shown
+     * @param receivedAt    the time the page was received at
+     */
+    private record Page(List<UUID> friendsUUIDs, List<String> usernames, List<String> skins, List<String> servers,
+                        List<Integer> mutualFriends, List<Long> lastSeen, long receivedAt) {
+    }
 
     /**
-     * The inside-list stores the UUIDs of the friends currently being displayed
-     * The wrapping list stores all the pages created
+     * A request sent to the proxy and still waiting for its reply
+     *
+     * @param requestId   the id of the request
+     * @param sentAt      the time the request was sent at
+     * @param sentAtNanos the same time, as given by System.nanoTime() to measure the round trip
      */
-    private final List<List<UUID>> pages;
+    private record PendingRequest(int requestId, long sentAt, long sentAtNanos) {
+    }
 
+    /**
+     * The pages received, by index, including the prefetched pages around the current one
+     */
+    private final Map<Integer, Page> pages = new HashMap<>();
 
     /**
-     * This list contains the names of the servers the player's currently displayed friends (in the GUI) are playing on
-     * It is stored in the same order as their UUIDs in the page list
+     * The cursor given by the proxy with the previous page, by page index: a page is requested with the friends following it.
+     * It's known once the previous page is received, the first page doesn't need one
      */
-    private List<String> currentPageServers;
+    private final Map<Integer, FriendMessage.PageCursor> pageAfter = new HashMap<>();
+
+    /**
+     * The requests waiting for a reply, by page index. Replies to any other request are ignored
+     */
+    private final Map<Integer, PendingRequest> pendingRequests = new HashMap<>();
+
+    /**
+     * The index of the page whose friends' presence is pushed by the proxy, -1 if none.
+     * Its servers names are kept up to date by the presence updates instead of being requested again
+     */
+    private int watchedPage = -1;
+
+    /**
+     * The friends of the watched page, as they were when the proxy was asked to watch them
+     */
+    private List<UUID> watchedFriends = List.of();
+
+    /**
+     * When the GUI was created, as given by System.nanoTime(), until its first page is shown. -1 afterwards
+     */
+    private long createdAtNanos = System.nanoTime();
 
 
     /**
@@ -82,45 +151,35 @@ public class FriendGUI implements Listener {
     private ItemStack nextPage;
 
     /**
-     * Sets up a GUI displaying the player's friends, allowing him to join their server
+     * Sets up a GUI displaying the player's friends, allowing him to join their server.
+     * Its pages are requested from the proxy when they are about to be displayed
      *
-     * @param playerUUID   the UUID of the player you want to open the GUI for
-     * @param friendsUUIDs a list containing the player's friends UUIDs
+     * @param playerUUID  the UUID of the player you want to open the GUI for
+     * @param friendCount the number of friends of the player
      */
-    public FriendGUI(UUID playerUUID, List<UUID> friendsUUIDs) {
+    public FriendGUI(UUID playerUUID, int friendCount) {
 
         this.playerUUID = playerUUID;
         int maxHeadsPerPage = 45;
 
-        pages = new ArrayList<>();
-        List<UUID> page = new ArrayList<>();
-
-        int i = 0;
-        for (UUID uuid : friendsUUIDs) {
-            if (i == maxHeadsPerPage) {
-                i = 0;
-                pages.add(page);
-                page = new ArrayList<>();
-            }
-
-            page.add(uuid);
-            i++;
-        }
-        if (i != maxHeadsPerPage) {
-            pages.add(page);
-        }
-
-        this.numberOfRows = (int) Math.ceil(((double) pages.get(0).size()) / 9);
-        if (numberOfRows > 5) {
-            numberOfRows = 5;
-        }
+        this.numberOfRows = Math.max(1, (int) Math.ceil(((double) Math.min(friendCount, maxHeadsPerPage)) / 9));
+        this.headsPerPage = numberOfRows * 9;
+        this.pageCount = pageCountOf(friendCount);
         makeGUI();
     }
 
+    /**
+     * @param friendCount a number of friends
+     * @return the number of pages needed to show them, at least 1
+     */
+    private int pageCountOf(int friendCount) {
+        return Math.max(1, (friendCount + headsPerPage - 1) / headsPerPage);
+    }
+
     /**
      * Sets the contents of the GUI, you may want to use requestPage() instead
      *
-     * @param pageIndex the page's index
+     * @param pageIndex the page's index, it must have been received
      */
     private void showPage(int pageIndex) {
         //Updating the stored index of the page currently being displayed to the player
@@ -132,28 +191,35 @@ public class FriendGUI implements Listener {
         contents[numberOfRows * 9 + 3] = pageIndex == 0 ? glass : previousPage;
 
         //Showing the nextPage item if the page exists, otherwise showing glass
-        contents[numberOfRows * 9 + 5] = pageIndex == pages.size() - 1 ? glass : nextPage;
+        contents[numberOfRows * 9 + 5] = pageIndex >= pageCount - 1 ? glass : nextPage;
 
         //Getting the sign item
         final ItemMeta signMeta = contents[numberOfRows * 9 + 4].getItemMeta();
 
         //Replacing its name with the current page index
-        Objects.requireNonNull(signMeta).setDisplayName("Page " + (currentPage + 1) + "/" + pages.size());
+        Objects.requireNonNull(signMeta).setDisplayName("Page " + (currentPage + 1) + "/" + pageCount);
         contents[numberOfRows * 9 + 4].setItemMeta(signMeta);
 
         //Replacing the heads and the servers' status with the ones for the current page
+        Page page = pages.get(pageIndex);
+        List<String> servers = page.servers();
         int slot = 0;
-        for (UUID friendUUID : pages.get(pageIndex)) {
-            ItemStack item = new ItemStack(Material.PLAYER_HEAD, 1);
-            SkullMeta meta = (SkullMeta) item.getItemMeta();
-
-            Optional<String> nameOpt = DataUtils.getUsernameFromID(friendUUID);
-            String name = nameOpt.orElse("NotFound");
-            Objects.requireNonNull(meta).setDisplayName(name);
-
-            meta.setOwningPlayer(Bukkit.getOfflinePlayer(friendUUID));
-            String server = currentPageServers.get(slot);
-            meta.setLore(Collections.singletonList(server));
+        for (UUID friendUUID : page.friendsUUIDs()) {
+            ItemStack item = HeadCache.getInstance().getHead(friendUUID, page.usernames().get(slot), page.skins().get(slot));
+            ItemMeta meta = item.getItemMeta();
+
+            //The server stays the first line, it's checked when the head is clicked
+            List<String> lore = new ArrayList<>(3);
+            lore.add(servers.get(slot));
+            long lastSeen = page.lastSeen().get(slot);
+            if (lastSeen > 0) {
+                lore.add(ChatColor.GRAY + "Last online " + formatElapsed(System.currentTimeMillis() - lastSeen));
+            }
+            int mutualFriends = page.mutualFriends().get(slot);
+            if (mutualFriends > 0) {
+                lore.add(ChatColor.GRAY + (mutualFriends + (mutualFriends == 1 ? " mutual friend" : " mutual friends")));
+            }
+            Objects.requireNonNull(meta).setLore(lore);
             item.setItemMeta(meta);
             contents[slot] = item;
             slot++;
@@ -168,35 +234,194 @@ public class FriendGUI implements Listener {
 
         //Replacing the inventory's contents with the new ones
         gui.setContents(contents);
+
+        if (createdAtNanos >= 0) {
+            FriendsMetrics.getInstance().record("gui.firstRender", System.nanoTime() - createdAtNanos, false);
+            createdAtNanos = -1;
+        }
     }
 
     /**
-     * Sends a request to the proxy to get the names of the servers the player's friends (shown in the current GUI page) are playing on
+     * Sends a request to the proxy to get the friends of the given GUI page, the servers they are playing on...
+     * unless a recent request for this page is still waiting for its reply.
+     * Nothing is sent until the previous page is received, it tells where this one starts
      *
-     * @param uuids the friends UUIDs
+     * @param pageIndex the index of the page
      */
-    private void requestServers(List<UUID> uuids) {
+    private void requestFriends(int pageIndex) {
+        long now = System.currentTimeMillis();
+        PendingRequest pending = pendingRequests.get(pageIndex);
+        if (pending != null && now - pending.sentAt() < PAGE_TTL_MILLIS) {
+            return;
+        }
+        if (pageIndex > 0 && !pageAfter.containsKey(pageIndex)) {
+            return;
+        }
 
-        ByteArrayDataOutput out = ByteStreams.newDataOutput();
-        out.writeUTF("GetServersNames");
-        out.writeUTF(playerUUID.toString());
-        for (UUID uuid : uuids) {
-            out.writeUTF(uuid.toString());
+        int requestId = REQUEST_IDS.incrementAndGet();
+        pendingRequests.put(pageIndex, new PendingRequest(requestId, now, System.nanoTime()));
+        sendToProxy(new FriendMessage.GetFriendsPage(requestId, playerUUID, pageAfter.get(pageIndex), headsPerPage));
+    }
+
+    /**
+     * Asks the proxy to push the presence changes of the friends shown in the given page, instead of the previously watched ones
+     *
+     * @param pageIndex the index of the page, ignored if it wasn't received
+     */
+    private void watchPage(int pageIndex) {
+        Page page = pages.get(pageIndex);
+        if (page == null || (pageIndex == watchedPage && page.friendsUUIDs().equals(watchedFriends))) {
+            return;
+        }
+        watchedPage = pageIndex;
+        watchedFriends = page.friendsUUIDs();
+        sendToProxy(new FriendMessage.WatchPresence(playerUUID, watchedFriends));
+    }
+
+    /**
+     * Applies the presence changes pushed by the proxy to the watched page, and shows them if it's the page currently displayed
+     *
+     * @param friendsUUIDs the UUIDs of the friends whose presence changed
+     * @param servers      their new servers names
+     */
+    public void receivePresence(List<UUID> friendsUUIDs, List<String> servers) {
+        Page watched = watchedPage < 0 ? null : pages.get(watchedPage);
+        if (watched == null) {
+            //The reply to the request of the page will have the current presence
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<String> updated = new ArrayList<>(watched.servers());
+        List<Long> lastSeen = new ArrayList<>(watched.lastSeen());
+        for (int i = 0; i < friendsUUIDs.size(); i++) {
+            int slot = watched.friendsUUIDs().indexOf(friendsUUIDs.get(i));
+            if (slot >= 0) {
+                //A friend going offline was seen just now
+                updated.set(slot, servers.get(i));
+                lastSeen.set(slot, servers.get(i).equals(OFFLINE) ? now : 0L);
+            }
         }
+        pages.put(watchedPage, new Page(watched.friendsUUIDs(), watched.usernames(), watched.skins(), updated, watched.mutualFriends(), lastSeen, now));
 
+        if (watchedPage == currentPage) {
+            showPage(currentPage);
+        }
+    }
+
+    /**
+     * @param millis a duration
+     * @return the duration in its largest unit, e.g. "3h ago"
+     */
+    private static String formatElapsed(long millis) {
+        long minutes = Math.max(0, millis) / 60_000;
+        if (minutes < 1) {
+            return "just now";
+        }
+        if (minutes < 60) {
+            return minutes + "m ago";
+        }
+        if (minutes < 24 * 60) {
+            return minutes / 60 + "h ago";
+        }
+        return minutes / (24 * 60) + "d ago";
+    }
+
+    /**
+     * Sends a message to the proxy
+     *
+     * @param message the message
+     */
+    private void sendToProxy(FriendMessage message) {
         //Handled in com.grubnest.game.friends.velocity.commands.FriendCommand:onPluginMessageReceived()
-        FriendsBukkitPlugin.getInstance().getServer().sendPluginMessage(FriendsBukkitPlugin.getInstance(), "core:friendcommand", out.toByteArray());
+        FriendsBukkitPlugin.getInstance().getServer().sendPluginMessage(FriendsBukkitPlugin.getInstance(), FriendMessageCodec.CHANNEL, FriendMessageCodec.encode(message));
     }
 
     /**
-     * Sets the names of the servers of the players currently displayed in the GUI
+     * Stores a page received from the proxy, and shows it if it's the page currently displayed.
+     * If the page now ends somewhere else (friends were added or removed, or changed server or went offline), the pages
+     * after it are dropped since they start from the wrong friend. Replies to requests that were replaced by a newer one are ignored
      *
-     * @param servers the new list containing the friends servers names
+     * @param requestId     the id of the request this is the reply to
+     * @param friendCount   the current number of friends of the player
+     * @param friendsUUIDs  the friends of the page
+     * @param usernames     the friends usernames
+     * @param skins         the texture hashes of the friends skins
+     * @param servers       the friends servers names
+     * @param mutualFriends    the numbers of mutual friends of the player with each friend
+     * @param secondsSinceSeen the seconds elapsed since the offline friends were last seen, -1 for the others
+     * @param next             the cursor of the next page, null if the page is empty
+     */
+    public void receivePage(int requestId, int friendCount, List<UUID> friendsUUIDs, List<String> usernames, List<String> skins,
+                            List<String> servers, List<Integer> mutualFriends, List<Integer> secondsSinceSeen,
+                            FriendMessage.PageCursor next) {
+        Integer pageIndex = null;
+        for (Map.Entry<Integer, PendingRequest> pending : pendingRequests.entrySet()) {
+            if (pending.getValue().requestId() == requestId) {
+                pageIndex = pending.getKey();
+                break;
+            }
+        }
+        int size = friendsUUIDs.size();
+        if (pageIndex == null || size > headsPerPage || servers.size() != size || usernames.size() != size
+                || skins.size() != size || mutualFriends.size() != size || secondsSinceSeen.size() != size) {
+            return;
+        }
+
+        FriendsMetrics.getInstance().record("gui.pageRoundTrip", System.nanoTime() - pendingRequests.remove(pageIndex).sentAtNanos(), false);
+        long now = System.currentTimeMillis();
+        List<Long> lastSeen = new ArrayList<>(size);
+        for (int seconds : secondsSinceSeen) {
+            lastSeen.add(seconds < 0 ? 0L : now - seconds * 1000L);
+        }
+        pages.put(pageIndex, new Page(friendsUUIDs, usernames, skins, servers, mutualFriends, lastSeen, now));
+        pageCount = pageCountOf(friendCount);
+
+        boolean dropped = false;
+        if (next != null && !next.equals(pageAfter.get(pageIndex + 1))) {
+            int index = pageIndex;
+            dropped = pageAfter.containsKey(index + 1);
+            pages.keySet().removeIf(i -> i > index);
+            pageAfter.keySet().removeIf(i -> i > index);
+            pendingRequests.keySet().removeIf(i -> i > index);
+            pageAfter.put(index + 1, next);
+        }
+
+        //Going back to the last page if friends were removed, or to the closest page that can still be requested
+        int target = Math.min(currentPage, pageCount - 1);
+        if (dropped && target > pageIndex + 1) {
+            target = pageIndex + 1;
+        }
+        if (target != currentPage || (dropped && currentPage > pageIndex)) {
+            requestPage(target);
+        } else if (pageIndex == currentPage) {
+            watchPage(currentPage);
+            showPage(currentPage);
+            prefetch(currentPage + 1);
+        }
+    }
+
+    /**
+     * @param pageIndex the index of the page
+     * @return true if the page was received recently, or if its friends' presence is kept up to date by the proxy
      */
-    public void setCurrentPageServers(List<String> servers) {
-        this.currentPageServers = servers;
+    private boolean hasFreshPage(int pageIndex) {
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            return false;
+        }
+        return pageIndex == watchedPage || System.currentTimeMillis() - page.receivedAt() < PAGE_TTL_MILLIS;
+    }
 
-        showPage(currentPage);
+    /**
+     * Requests a page in advance, so it's displayed instantly when the player goes to it
+     *
+     * @param pageIndex the index of the page, ignored if it doesn't exist
+     */
+    private void prefetch(int pageIndex) {
+        if (pageIndex >= 0 && pageIndex < pageCount && !hasFreshPage(pageIndex)) {
+            requestFriends(pageIndex);
+        }
     }
 
     /**
@@ -208,9 +433,9 @@ public class FriendGUI implements Listener {
             return;
         }
 
-        gui = Bukkit.createInventory(null, (numberOfRows + 1) * 9, "Your friends");
+        gui = Bukkit.createInventory(this, (numberOfRows + 1) * 9, "Your friends");
         p.openInventory(gui);
-        FriendsBukkitPlugin.getInstance().getServer().getPluginManager().registerEvents(this, FriendsBukkitPlugin.getInstance());
+        FriendGUISessions.getInstance().open(playerUUID, this);
 
         this.glass = new ItemStack(Material.BLACK_STAINED_GLASS_PANE);
         ItemMeta meta = glass.getItemMeta();
@@ -244,19 +469,23 @@ public class FriendGUI implements Listener {
      */
     private void requestPage(int pageIndex) {
         currentPage = pageIndex;
-        requestServers(pages.get(pageIndex));
+        if (hasFreshPage(pageIndex)) {
+            watchPage(pageIndex);
+            showPage(pageIndex);
+        } else {
+            requestFriends(pageIndex);
+        }
+
+        prefetch(pageIndex - 1);
+        prefetch(pageIndex + 1);
     }
 
     /**
-     * GUI's management
+     * GUI's management, called by FriendGUIListener
      *
      * @param e InventoryClickEvent
      */
-    @EventHandler
-    public void onInventoryClick(final InventoryClickEvent e) {
-        if (!e.getInventory().equals(gui)) {
-            return;
-        }
+    void onClick(final InventoryClickEvent e) {
         e.setCancelled(true);
 
         final ItemStack clickedItem = e.getCurrentItem();
@@ -282,8 +511,10 @@ public class FriendGUI implements Listener {
                 return;
             }
 
-            Optional<UUID> friendUUID = DataUtils.getIDFromUsername(clickedItem.getItemMeta().getDisplayName());
-            friendUUID.ifPresent(uuid -> sendConnectionRequest(p, uuid));
+            String friendUUID = clickedItem.getItemMeta().getPersistentDataContainer().get(HeadCache.FRIEND_UUID_KEY, PersistentDataType.STRING);
+            if (friendUUID != null) {
+                sendConnectionRequest(p, UUID.fromString(friendUUID));
+            }
         }
     }
 
@@ -294,39 +525,28 @@ public class FriendGUI implements Listener {
      * @param friendUUID their friend
      */
     private void sendConnectionRequest(Player p, UUID friendUUID) {
-        ByteArrayDataOutput output = ByteStreams.newDataOutput();
-        output.writeUTF("Join");
-        output.writeUTF(p.getUniqueId().toString());
-        output.writeUTF(friendUUID.toString());
+        byte[] message = FriendMessageCodec.encode(new FriendMessage.Join(p.getUniqueId(), friendUUID));
 
         //Handled in com.grubnest.game.friends.velocity.commands.FriendCommand:onPluginMessageReceived()
-        p.sendPluginMessage(FriendsBukkitPlugin.getInstance(), "core:friendcommand", output.toByteArray());
+        p.sendPluginMessage(FriendsBukkitPlugin.getInstance(), FriendMessageCodec.CHANNEL, message);
     }
 
     /**
-     * Cancel the click
-     *
-     * @param e InventoryDragEvent
+     * Closes the session: stops watching the friends' presence and removes the GUI from the opened ones.
+     * Does nothing if it's already closed
      */
-    @EventHandler
-    public void onInventoryClick(final InventoryDragEvent e) {
-        if (e.getInventory().equals(gui)) {
-            e.setCancelled(true);
+    void close() {
+        if (FriendGUISessions.getInstance().close(this.playerUUID, this)) {
+            sendToProxy(new FriendMessage.UnwatchPresence(this.playerUUID));
         }
     }
 
     /**
-     * Close the GUI properly and unregister the listeners
-     *
-     * @param e InventoryCloseEvent
+     * @return the GUI's inventory
      */
-    @EventHandler
-    public void onInventoryClose(final InventoryCloseEvent e) {
-        if (!e.getInventory().equals(gui)) {
-            return;
-        }
-        FriendMessageListener.getInstance().getOpenedGUIs().remove(this.playerUUID);
-        HandlerList.unregisterAll(this);
+    @Override
+    public Inventory getInventory() {
+        return gui;
     }
 
 }
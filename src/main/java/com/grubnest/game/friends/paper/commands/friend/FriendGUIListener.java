@@ -0,0 +1,97 @@
+package com.grubnest.game.friends.paper.commands.friend;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerKickEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * The FriendGUIListener class is the single listener of every friends GUI.
+ * Events are routed to the GUI owning the inventory, found through the inventory holder
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendGUIListener implements Listener {
+
+    /**
+     * GUI's management
+     *
+     * @param e InventoryClickEvent
+     */
+    @EventHandler
+    public void onInventoryClick(final InventoryClickEvent e) {
+        if (e.getInventory().getHolder() instanceof FriendGUI gui) {
+            gui.onClick(e);
+        }
+    }
+
+    /**
+     * Cancel the drag
+     *
+     * @param e InventoryDragEvent
+     */
+    @EventHandler
+    public void onInventoryDrag(final InventoryDragEvent e) {
+        if (e.getInventory().getHolder() instanceof FriendGUI) {
+            e.setCancelled(true);
+        }
+    }
+
+    /**
+     * Close the GUI properly
+     *
+     * @param e InventoryCloseEvent
+     */
+    @EventHandler
+    public void onInventoryClose(final InventoryCloseEvent e) {
+        if (e.getInventory().getHolder() instanceof FriendGUI gui) {
+            gui.close();
+        }
+    }
+
+    /**
+     * Removes the session of a player who left
+     *
+     * @param e PlayerQuitEvent
+     */
+    @EventHandler
+    public void onQuit(final PlayerQuitEvent e) {
+        closeSession(e.getPlayer());
+    }
+
+    /**
+     * Removes the session of a player who was kicked
+     *
+     * @param e PlayerKickEvent
+     */
+    @EventHandler
+    public void onKick(final PlayerKickEvent e) {
+        closeSession(e.getPlayer());
+    }
+
+    /**
+     * Closes the GUI of a player who changed world
+     *
+     * @param e PlayerChangedWorldEvent
+     */
+    @EventHandler
+    public void onWorldChange(final PlayerChangedWorldEvent e) {
+        if (FriendGUISessions.getInstance().get(e.getPlayer().getUniqueId()) != null) {
+            e.getPlayer().closeInventory();
+        }
+        closeSession(e.getPlayer());
+    }
+
+    private void closeSession(Player player) {
+        FriendGUI gui = FriendGUISessions.getInstance().get(player.getUniqueId());
+        if (gui != null) {
+            gui.close();
+        }
+    }
+}
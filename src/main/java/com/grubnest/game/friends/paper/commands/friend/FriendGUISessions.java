@@ -0,0 +1,71 @@
+package com.grubnest.game.friends.paper.commands.friend;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The FriendGUISessions class keeps track of the opened friends GUIs, one per player.
+ * Sessions are removed when the GUI is closed, and when the player quits, is kicked or changes world
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendGUISessions {
+
+    private static FriendGUISessions INSTANCE;
+    private final Map<UUID, FriendGUI> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor (singleton)
+     */
+    private FriendGUISessions() {
+    }
+
+    /**
+     * Registers an opened GUI, replacing the previous GUI of the player
+     *
+     * @param playerUUID the UUID of the player viewing the GUI
+     * @param gui        the GUI
+     */
+    public void open(UUID playerUUID, FriendGUI gui) {
+        sessions.put(playerUUID, gui);
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the GUI opened by the player, null if none
+     */
+    public FriendGUI get(UUID playerUUID) {
+        return sessions.get(playerUUID);
+    }
+
+    /**
+     * Removes the GUI, unless the player already opened another one
+     *
+     * @param playerUUID the UUID of the player viewing the GUI
+     * @param gui        the GUI
+     * @return true if the session was removed, false if it was already
+     */
+    public boolean close(UUID playerUUID, FriendGUI gui) {
+        return sessions.remove(playerUUID, gui);
+    }
+
+    /**
+     * Gauge of the opened GUIs
+     *
+     * @return the number of opened GUIs
+     */
+    public int getOpenSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the instance (singleton)
+     */
+    public static FriendGUISessions getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new FriendGUISessions();
+        return INSTANCE;
+    }
+}
@@ -1,16 +1,12 @@
 package com.grubnest.game.friends.paper.commands.friend;
 
-import com.google.common.io.ByteArrayDataInput;
-import com.google.common.io.ByteStreams;
-import com.grubnest.game.friends.api.FriendsAPI;
+import com.grubnest.game.friends.messaging.FriendMessage;
+import com.grubnest.game.friends.messaging.FriendMessageCodec;
 import com.grubnest.game.friends.paper.FriendsBukkitPlugin;
-import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.messaging.PluginMessageListener;
 import org.jetbrains.annotations.NotNull;
 
-import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -22,7 +18,6 @@ import java.util.*;
 public class FriendMessageListener implements PluginMessageListener {
 
     private static FriendMessageListener INSTANCE;
-    private final HashMap<UUID, FriendGUI> guis = new HashMap<>();
 
     /**
      * Private constructor (singleton)
@@ -39,45 +34,34 @@ public class FriendMessageListener implements PluginMessageListener {
      */
     @Override
     public void onPluginMessageReceived(@NotNull String channel, @NotNull Player player, @NotNull byte[] message) {
-        if (!channel.equals("core:friendcommand")) {
+        if (!channel.equals(FriendMessageCodec.CHANNEL)) {
             return;
         }
 
-        ByteArrayDataInput in = ByteStreams.newDataInput(message);
-
-        String subChannel = in.readUTF();
-        if (subChannel.equals("MakeGUI")) {
-            UUID playerUUID = UUID.fromString(in.readUTF());
+        Optional<FriendMessage> messageOpt = FriendMessageCodec.decode(message);
+        if (messageOpt.isEmpty()) {
+            FriendsBukkitPlugin.getInstance().getLogger().info("ERROR: Read an unknown or malformed message from PluginMessaging in core:friendcommand");
+            return;
+        }
 
-            Optional<List<UUID>> friends = Optional.empty();
-            try {
-                friends = FriendsAPI.getFriendsUUIDs(playerUUID.toString());
-            } catch (SQLException e) {
-                e.printStackTrace();
+        if (messageOpt.get() instanceof FriendMessage.MakeGUI makeGUI) {
+            //The proxy already counted the friends, and only asks for a GUI if there are some
+            if (makeGUI.friendCount() > 0) {
+                new FriendGUI(makeGUI.playerUUID(), makeGUI.friendCount());
             }
-
-            if (friends.isEmpty()) {
-                Player p = Bukkit.getPlayer(playerUUID);
-                Objects.requireNonNull(p).sendMessage(ChatColor.RED + "You don't have any friends, do /friend <player> to add someone to your friends list.");
-                return;
+        } else if (messageOpt.get() instanceof FriendMessage.FriendsPage page) {
+            FriendGUI gui = FriendGUISessions.getInstance().get(page.playerUUID());
+            if (gui != null) {
+                gui.receivePage(page.requestId(), page.friendCount(), page.friendsUUIDs(), page.usernames(), page.skins(),
+                        page.serversNames(), page.mutualFriends(), page.secondsSinceSeen(), page.next());
             }
-
-            guis.put(playerUUID, new FriendGUI(playerUUID, friends.get()));
-        } else if (subChannel.equals("UpdateServersNames")) {
-            UUID playerUUID = UUID.fromString(in.readUTF());
-            List<String> serversNames = new ArrayList<>();
-            boolean valid = true;
-            while (valid) {
-                try {
-                    String server = in.readUTF();
-                    serversNames.add(server);
-                } catch (Exception e) {
-                    valid = false;
-                }
+        } else if (messageOpt.get() instanceof FriendMessage.PresenceUpdate update) {
+            FriendGUI gui = FriendGUISessions.getInstance().get(update.playerUUID());
+            if (gui != null) {
+                gui.receivePresence(update.friendsUUIDs(), update.serversNames());
             }
-            this.getOpenedGUIs().get(playerUUID).setCurrentPageServers(serversNames);
         } else {
-            FriendsBukkitPlugin.getInstance().getLogger().info("ERROR: Read an unknown category name from PluginMessaging in core:friendcommand");
+            FriendsBukkitPlugin.getInstance().getLogger().info("ERROR: Read an unexpected message type from PluginMessaging in core:friendcommand: " + messageOpt.get().type());
         }
     }
 
@@ -91,13 +75,4 @@ public class FriendMessageListener implements PluginMessageListener {
             INSTANCE = new FriendMessageListener();
         return INSTANCE;
     }
-
-    /**
-     * Basic getter
-     *
-     * @return a map containing every opened GUIs and their owner
-     */
-    public HashMap<UUID, FriendGUI> getOpenedGUIs() {
-        return this.guis;
-    }
 }
@@ -0,0 +1,114 @@
+package com.grubnest.game.friends.paper.commands.friend;
+
+import com.grubnest.game.friends.paper.FriendsBukkitPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.SkullMeta;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.profile.PlayerProfile;
+import org.bukkit.profile.PlayerTextures;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * The HeadCache class keeps ready-made player heads in memory, so the GUI only has to clone them.
+ * Heads are built from the username and the skin texture hash sent by the proxy, no profile is ever looked up.
+ * It must only be used from the main server thread
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class HeadCache {
+
+    private static HeadCache INSTANCE;
+
+    private static final String TEXTURE_URL_PREFIX = "http://textures.minecraft.net/texture/";
+
+    /**
+     * Key of the friend's UUID stored on each head, so a click never has to resolve the friend by name
+     */
+    static final NamespacedKey FRIEND_UUID_KEY = new NamespacedKey(FriendsBukkitPlugin.getInstance(), "friend_uuid");
+
+    /**
+     * A head and what it was built from, it's built again if the username or the skin changed
+     */
+    private record CachedHead(ItemStack head, String username, String skin) {
+    }
+
+    /**
+     * Heads by UUID, in access order
+     */
+    private final LinkedHashMap<UUID, CachedHead> heads;
+
+    /**
+     * Private constructor (singleton)
+     */
+    private HeadCache() {
+        int maxEntries = FriendsBukkitPlugin.getInstance().getFriendsConfig().getInt("heads.max-entries", 2000);
+        this.heads = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CachedHead> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param friendUUID the friend's UUID, stored on the head
+     * @param username   the friend's username, used as the head's name
+     * @param skin       the texture hash of the friend's skin, empty for the default skin
+     * @return a copy of the friend's head, which can be modified freely
+     */
+    public ItemStack getHead(UUID friendUUID, String username, String skin) {
+        CachedHead cached = heads.get(friendUUID);
+        if (cached == null || !cached.username().equals(username) || !cached.skin().equals(skin)) {
+            cached = new CachedHead(makeHead(friendUUID, username, skin), username, skin);
+            heads.put(friendUUID, cached);
+        }
+        return cached.head().clone();
+    }
+
+    /**
+     * Builds a head, setting its owner profile from the given data only
+     */
+    private static ItemStack makeHead(UUID friendUUID, String username, String skin) {
+        ItemStack head = new ItemStack(Material.PLAYER_HEAD, 1);
+        SkullMeta meta = (SkullMeta) Objects.requireNonNull(head.getItemMeta());
+
+        PlayerProfile profile = Bukkit.createPlayerProfile(friendUUID, username);
+        if (!skin.isEmpty()) {
+            try {
+                PlayerTextures textures = profile.getTextures();
+                textures.setSkin(new URL(TEXTURE_URL_PREFIX + skin));
+                profile.setTextures(textures);
+            } catch (MalformedURLException e) {
+                //Default skin
+            }
+        }
+        meta.setOwnerProfile(profile);
+        meta.setDisplayName(username);
+        meta.getPersistentDataContainer().set(FRIEND_UUID_KEY, PersistentDataType.STRING, friendUUID.toString());
+        head.setItemMeta(meta);
+        return head;
+    }
+
+    /**
+     * @return the number of cached heads
+     */
+    public int size() {
+        return heads.size();
+    }
+
+    /**
+     * @return the instance (singleton)
+     */
+    public static HeadCache getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new HeadCache();
+        return INSTANCE;
+    }
+}
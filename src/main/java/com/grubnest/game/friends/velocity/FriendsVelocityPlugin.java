@@ -1,17 +1,54 @@
 package com.grubnest.game.friends.velocity;
 
 import com.google.inject.Inject;
-import com.grubnest.game.friends.api.FriendsAPI;
+import com.grubnest.game.friends.api.AsyncFriendsAPI;
+import com.grubnest.game.friends.api.DatabaseExecutor;
+import com.grubnest.game.friends.api.FriendMutationQueue;
+import com.grubnest.game.friends.api.FriendRequestSweeper;
+import com.grubnest.game.friends.api.FriendStore;
+import com.grubnest.game.friends.api.FriendStores;
+import com.grubnest.game.friends.api.FriendTableMigration;
+import com.grubnest.game.friends.api.JdbcFriendStore;
+import com.grubnest.game.friends.config.FriendsConfig;
+import com.grubnest.game.friends.metrics.FriendsMetrics;
+import com.grubnest.game.friends.metrics.MetricsFriendStore;
+import com.grubnest.game.friends.velocity.cache.CooldownStore;
+import com.grubnest.game.friends.velocity.cache.EdgeInvalidator;
+import com.grubnest.game.friends.velocity.cache.FriendCache;
+import com.grubnest.game.friends.velocity.cache.NameCache;
+import com.grubnest.game.friends.velocity.cache.RequestCache;
+import com.grubnest.game.friends.velocity.cache.SkinCache;
 import com.grubnest.game.friends.velocity.commands.FriendCommand;
+import com.grubnest.game.friends.velocity.commands.FriendsAdminCommand;
 import com.grubnest.game.friends.velocity.commands.UnfriendCommand;
+import com.grubnest.game.friends.velocity.graph.FriendGraph;
+import com.grubnest.game.friends.velocity.graph.FriendGraphStore;
+import com.grubnest.game.friends.velocity.graph.FriendSuggestions;
+import com.grubnest.game.friends.velocity.listeners.PlayerConnectionListener;
+import com.grubnest.game.friends.velocity.presence.OnlineNameIndex;
+import com.grubnest.game.friends.velocity.presence.PresenceIndex;
+import com.grubnest.game.friends.velocity.presence.FriendListOrder;
+import com.grubnest.game.friends.velocity.presence.LastSeenTracker;
+import com.grubnest.game.friends.velocity.presence.PresenceSync;
+import com.grubnest.game.friends.velocity.presence.PresenceTransport;
+import com.grubnest.game.friends.velocity.presence.PresenceTransports;
+import com.grubnest.game.friends.velocity.presence.PresenceSubscriptions;
 import com.velocitypowered.api.command.CommandManager;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
+import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.ProxyServer;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The FriendsVelocityPlugin class is the proxy-side of the plugin GrubnestFriends
@@ -25,12 +62,31 @@ public class FriendsVelocityPlugin {
 
     private final ProxyServer server;
     private final Logger logger;
+    private final Path dataDirectory;
+    private FriendsConfig config;
+    private FriendStore backendStore;
+    private final FriendGraph friendGraph = new FriendGraph();
+    private FriendSuggestions friendSuggestions;
+    private FriendCache friendCache;
+    private FriendMutationQueue mutationQueue;
+    private EdgeInvalidator edgeInvalidator;
+    private NameCache nameCache;
+    private RequestCache requestCache;
+    private SkinCache skinCache;
+    private CooldownStore notificationCooldowns;
+    private PresenceIndex presenceIndex;
+    private final OnlineNameIndex onlineNameIndex = new OnlineNameIndex();
+    private PresenceSubscriptions presenceSubscriptions;
+    private FriendListOrder friendListOrder;
+    private LastSeenTracker lastSeenTracker;
+    private PresenceSync presenceSync;
     private static FriendsVelocityPlugin instance;
 
     @Inject
-    public FriendsVelocityPlugin(ProxyServer server, Logger logger) {
+    public FriendsVelocityPlugin(ProxyServer server, Logger logger, @DataDirectory Path dataDirectory) {
         this.server = server;
         this.logger = logger;
+        this.dataDirectory = dataDirectory;
         this.logger.info("GrubnestFriends is enabled on Velocity!");
         instance = this;
     }
@@ -42,23 +98,354 @@ public class FriendsVelocityPlugin {
      */
     @Subscribe
     public void onProxyInitialization(ProxyInitializeEvent e) {
+        loadConfig();
+        FriendsMetrics.getInstance().configure(config.getLong("metrics.slow-millis", 100));
+        configureDatabaseExecutor();
+        makeFriendStore();
+        makeFriendCache();
+        nameCache = new NameCache(config.getInt("names.max-entries", 10_000));
+        makeRequestCache();
+        skinCache = new SkinCache(config.getInt("skins.max-entries", 10_000));
+        makePresenceIndex();
+        makePresenceSync();
+        makeFriendSuggestions();
+        makeEdgeInvalidator();
+        mutationQueue = new FriendMutationQueue(
+                config.getInt("mutations.batch-size", 100),
+                config.getLong("mutations.flush-millis", 50),
+                edgeInvalidator
+        );
+        makeNotificationCooldowns();
+        makeFriendRequestSweeper();
+        registerMetrics();
+        server.getEventManager().register(this, new PlayerConnectionListener());
+
         CommandManager commandManager = server.getCommandManager();
         commandManager.register("friend", FriendCommand.getInstance());
         commandManager.register("unfriend", UnfriendCommand.getInstance());
+        commandManager.register("friendsadmin", FriendsAdminCommand.getInstance());
 
         createTable();
     }
 
 
     /**
-     * Creates all needed database tables
+     * Loads the config file, falling back to the default values if it can't be read
      */
-    private void createTable() {
+    private void loadConfig() {
+        try {
+            config = FriendsConfig.load(dataDirectory);
+        } catch (IOException e) {
+            logger.error("Could not load the config file, using default values", e);
+            config = FriendsConfig.empty();
+        }
+    }
+
+    /**
+     * Sizes the executor running the database calls
+     */
+    private void configureDatabaseExecutor() {
+        DatabaseExecutor.configure(
+                config.getInt("database.pool-size", 4),
+                config.getInt("database.queue-capacity", 1000),
+                config.getLong("database.timeout-millis", 5000),
+                config.getBoolean("database.virtual-threads", true)
+        );
+    }
+
+    /**
+     * Event handler: triggered when the proxy is shutting down, tells the other proxies its players left,
+     * writes the queued friend mutations, waits for the pending database calls,
+     * writes the buffered last seen times then closes the friend store
+     *
+     * @param e ProxyShutdownEvent
+     */
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent e) {
+        if (presenceSync != null) {
+            presenceSync.shutdown();
+        }
+        mutationQueue.shutdown();
+        DatabaseExecutor.getInstance().shutdown();
+        try {
+            lastSeenTracker.flush();
+        } catch (SQLException ex) {
+            logger.error("Could not write the last seen times", ex);
+        }
+        FriendStores.get().close();
+    }
+
+    /**
+     * Creates the friend store selected by the config, falling back to MySQL if the config is invalid,
+     * and puts the store keeping the friend graph current on top of it if the graph is enabled, then the one timing every call
+     */
+    private void makeFriendStore() {
         try {
-            FriendsAPI.createTable();
-        } catch (SQLException e) {
-            e.printStackTrace();
+            backendStore = FriendStores.create(config, dataDirectory);
+        } catch (RuntimeException e) {
+            logger.error("Could not create the friend store, using MySQL", e);
+            backendStore = new JdbcFriendStore();
         }
+        FriendStore store = config.getBoolean("graph.enabled", true) ? new FriendGraphStore(backendStore, friendGraph) : backendStore;
+        FriendStores.set(new MetricsFriendStore(store, FriendsMetrics.getInstance()));
+        logger.info("Storing the friendships with " + backendStore.getClass().getSimpleName());
+    }
+
+    /**
+     * Creates the friend cache and schedules the eviction of idle and old entries
+     */
+    private void makeFriendCache() {
+        long idleMinutes = config.getLong("cache.idle-minutes", 30);
+        friendCache = new FriendCache(
+                config.getLong("cache.max-weight", 500_000),
+                TimeUnit.MINUTES.toMillis(idleMinutes),
+                TimeUnit.MINUTES.toMillis(config.getLong("cache.max-age-minutes", 10)),
+                uuid -> server.getPlayer(uuid).isPresent()
+        );
+        server.getScheduler().buildTask(this, friendCache::evictIdle)
+                .repeat(1L, TimeUnit.MINUTES)
+                .schedule();
+    }
+
+    /**
+     * Creates the request cache and schedules the refresh of the old entries
+     */
+    private void makeRequestCache() {
+        requestCache = new RequestCache(config.getInt("requests.max-cached", 100));
+        long maxAgeMillis = TimeUnit.MINUTES.toMillis(config.getLong("cache.max-age-minutes", 10));
+        server.getScheduler().buildTask(this, () -> DatabaseExecutor.getInstance().run(() -> requestCache.refreshOlderThan(maxAgeMillis))
+                        .exceptionally(error -> {
+                            logger.warn("Could not refresh the cached friend requests, retrying on the next refresh", error);
+                            return null;
+                        }))
+                .repeat(1L, TimeUnit.MINUTES)
+                .schedule();
+    }
+
+    /**
+     * Creates the edge invalidator, keeping the caches and the graph in line with the other proxies,
+     * and with several proxies schedules the reloads of the graph in case some changes were missed
+     */
+    private void makeEdgeInvalidator() {
+        boolean graphEnabled = config.getBoolean("graph.enabled", true);
+        edgeInvalidator = new EdgeInvalidator(friendCache, requestCache, graphEnabled ? friendGraph : null, presenceSync, logger);
+        if (presenceSync == null) {
+            return;
+        }
+        presenceSync.addEdgeListener(edgeInvalidator);
+
+        long reloadMinutes = config.getLong("graph.reload-minutes", 60);
+        if (graphEnabled && reloadMinutes > 0) {
+            server.getScheduler().buildTask(this, this::startGraphLoad)
+                    .delay(reloadMinutes, TimeUnit.MINUTES)
+                    .repeat(reloadMinutes, TimeUnit.MINUTES)
+                    .schedule();
+        }
+    }
+
+    /**
+     * Creates the cooldowns of the friend notifications and schedules the single task removing the expired ones
+     */
+    private void makeNotificationCooldowns() {
+        notificationCooldowns = new CooldownStore(
+                TimeUnit.MINUTES.toMillis(config.getLong("notifications.cooldown-minutes", 10)),
+                config.getInt("notifications.max-cooldowns", 100_000)
+        );
+        server.getScheduler().buildTask(this, notificationCooldowns::tick)
+                .repeat(notificationCooldowns.getTickMillis(), TimeUnit.MILLISECONDS)
+                .schedule();
+    }
+
+    /**
+     * Schedules the single task removing the expired friend requests by batches
+     */
+    private void makeFriendRequestSweeper() {
+        FriendRequestSweeper sweeper = new FriendRequestSweeper(config.getInt("requests.sweep-batch-size", 1000));
+        server.getScheduler().buildTask(this, () -> DatabaseExecutor.getInstance().run(sweeper::sweep)
+                        .exceptionally(error -> {
+                            logger.warn("Could not remove the expired friend requests, retrying on the next sweep", error);
+                            return null;
+                        }))
+                .repeat(config.getLong("requests.sweep-seconds", 60), TimeUnit.SECONDS)
+                .schedule();
+    }
+
+    /**
+     * Creates the presence index, the subscriptions of the opened GUIs to it, the order of the friends lists
+     * and the last seen times, and schedules the writing of the buffered times and the eviction of the unused orders
+     */
+    private void makePresenceIndex() {
+        presenceIndex = new PresenceIndex();
+        presenceSubscriptions = new PresenceSubscriptions(presenceIndex, FriendCommand.getInstance()::sendMessage);
+        presenceIndex.addListener(presenceSubscriptions);
+        lastSeenTracker = new LastSeenTracker(config.getInt("last-seen.batch-size", 1000));
+        presenceIndex.addLocalListener(lastSeenTracker);
+        friendListOrder = new FriendListOrder(friendCache, lastSeenTracker);
+        presenceIndex.addListener(friendListOrder);
+        long idleMillis = TimeUnit.MINUTES.toMillis(config.getLong("cache.idle-minutes", 30));
+        server.getScheduler().buildTask(this, () -> friendListOrder.evictIdle(idleMillis))
+                .repeat(1L, TimeUnit.MINUTES)
+                .schedule();
+
+        server.getScheduler().buildTask(this, () -> DatabaseExecutor.getInstance().run(lastSeenTracker::flush)
+                        .exceptionally(error -> {
+                            logger.warn("Could not write the last seen times, retrying on the next flush", error);
+                            return null;
+                        }))
+                .repeat(config.getLong("last-seen.flush-seconds", 30), TimeUnit.SECONDS)
+                .schedule();
+    }
+
+    /**
+     * Shares the presence of the players with the other proxies, if a transport is configured
+     */
+    private void makePresenceSync() {
+        Optional<PresenceTransport> transport;
+        try {
+            transport = PresenceTransports.create(config, logger);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid presence sync config, the players of the other proxies won't be shown", e);
+            return;
+        }
+        if (transport.isEmpty()) {
+            return;
+        }
+
+        String proxyId = config.getString("sync.proxy-id", "");
+        presenceSync = new PresenceSync(
+                proxyId.isBlank() ? UUID.randomUUID().toString() : proxyId,
+                presenceIndex,
+                transport.get(),
+                config.getInt("sync.batch-size", 500),
+                config.getLong("sync.delta-millis", 100),
+                TimeUnit.SECONDS.toMillis(config.getLong("sync.snapshot-seconds", 30)),
+                TimeUnit.SECONDS.toMillis(config.getLong("sync.expiry-seconds", 90)),
+                logger
+        );
+        presenceIndex.addLocalListener(presenceSync);
+        try {
+            presenceSync.start();
+        } catch (IOException e) {
+            logger.error("Could not start the presence sync, the players of the other proxies won't be shown", e);
+        }
+    }
+
+    /**
+     * Registers the gauges of the caches and queues, and schedules the dump of the metrics in the Prometheus format
+     */
+    private void registerMetrics() {
+        FriendsMetrics metrics = FriendsMetrics.getInstance();
+        metrics.registerDatabaseGauges();
+        metrics.registerGauge("mutations_pending", mutationQueue::size);
+        metrics.registerGauge("cache_entries", () -> friendCache.getStats().entries());
+        metrics.registerGauge("cache_weight", () -> friendCache.getStats().weight());
+        metrics.registerGauge("cache_hits", () -> friendCache.getStats().hits());
+        metrics.registerGauge("cache_misses", () -> friendCache.getStats().misses());
+        metrics.registerGauge("cache_evictions", () -> friendCache.getStats().evictions());
+        metrics.registerGauge("names_entries", () -> nameCache.getStats().entries());
+        metrics.registerGauge("names_hits", () -> nameCache.getStats().hits());
+        metrics.registerGauge("names_misses", () -> nameCache.getStats().misses());
+        metrics.registerGauge("notification_cooldowns", notificationCooldowns::size);
+        metrics.registerGauge("request_cache_entries", requestCache::size);
+        metrics.registerGauge("presence_online", friendListOrder::size);
+        metrics.registerGauge("friend_list_orders", friendListOrder::getOrderCount);
+        metrics.registerGauge("last_seen_pending", lastSeenTracker::size);
+        if (presenceSync != null) {
+            metrics.registerGauge("sync_peers", presenceSync::getPeerCount);
+            metrics.registerGauge("sync_pending", presenceSync::size);
+        }
+        metrics.registerGauge("graph_players", () -> friendGraph.getStats().players());
+        metrics.registerGauge("graph_friendships", () -> friendGraph.getStats().friendships());
+        metrics.registerGauge("graph_bytes", () -> friendGraph.getStats().bytes());
+
+        long dumpSeconds = config.getLong("metrics.dump-seconds", 60);
+        if (dumpSeconds > 0) {
+            Path file = dataDirectory.resolve("metrics.prom");
+            server.getScheduler().buildTask(this, () -> {
+                try {
+                    Files.createDirectories(dataDirectory);
+                    metrics.dumpPrometheus(file);
+                } catch (IOException e) {
+                    logger.warn("Could not write the metrics file", e);
+                }
+            }).repeat(dumpSeconds, TimeUnit.SECONDS).schedule();
+        }
+    }
+
+    /**
+     * Creates the friend suggestions, computed from the friend graph, and schedules the eviction of the old ones
+     */
+    private void makeFriendSuggestions() {
+        friendSuggestions = new FriendSuggestions(
+                friendGraph,
+                presenceIndex,
+                config.getInt("graph.suggestions-max-scanned", 50_000),
+                TimeUnit.SECONDS.toMillis(config.getLong("graph.suggestions-cache-seconds", 60))
+        );
+        friendGraph.addListener(friendSuggestions);
+        server.getScheduler().buildTask(this, friendSuggestions::evictExpired)
+                .repeat(1L, TimeUnit.MINUTES)
+                .schedule();
+    }
+
+    /**
+     * Creates all needed database tables, then migrates the legacy friend table if needed (SQL stores only)
+     * and loads the friend graph if it's enabled
+     */
+    private void createTable() {
+        AsyncFriendsAPI.createTable().whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("Could not create the database tables", error);
+                return;
+            }
+            if (backendStore instanceof JdbcFriendStore) {
+                startTableMigration();
+            }
+            if (config.getBoolean("graph.enabled", true)) {
+                startGraphLoad();
+            }
+        });
+    }
+
+    /**
+     * Starts the migration of the legacy friend table on its own thread, it does nothing if the migration is already done
+     */
+    private void startTableMigration() {
+        FriendTableMigration migration = new FriendTableMigration(
+                config.getInt("migration.chunk-size", 5000),
+                config.getLong("migration.pause-millis", 50),
+                logger::info
+        );
+        Thread thread = new Thread(migration, "GrubnestFriends-Migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads the friend graph on its own thread, scanning the whole friend table
+     *
+     * @return false if the graph is disabled or already loading
+     */
+    public boolean startGraphLoad() {
+        if (!config.getBoolean("graph.enabled", true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                long count = friendGraph.load(backendStore);
+                FriendGraph.Stats stats = friendGraph.getStats();
+                logger.info("Loaded the friend graph: " + count + " friendships of " + stats.players() + " players, ~"
+                        + stats.bytes() / (1024 * 1024) + " MB in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (IllegalStateException e) {
+                logger.warn(e.getMessage());
+            } catch (Exception e) {
+                logger.error("Could not load the friend graph", e);
+            }
+        }, "GrubnestFriends-Graph");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
     }
 
     /**
@@ -79,6 +466,150 @@ public class FriendsVelocityPlugin {
         return logger;
     }
 
+    /**
+     * Get the folder of the plugin's files
+     *
+     * @return Path object
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Get the plugin's config
+     *
+     * @return FriendsConfig object
+     */
+    public FriendsConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the proxy-side friend cache, which should be used instead of FriendsAPI on the proxy
+     *
+     * @return FriendCache object
+     */
+    public FriendCache getFriendCache() {
+        return friendCache;
+    }
+
+    /**
+     * Get the in-memory graph of all the friendships, empty until it's loaded and if graph.enabled is false
+     *
+     * @return FriendGraph object
+     */
+    public FriendGraph getFriendGraph() {
+        return friendGraph;
+    }
+
+    /**
+     * Get the players suggested as friends, computed from the friend graph
+     *
+     * @return FriendSuggestions object
+     */
+    public FriendSuggestions getFriendSuggestions() {
+        return friendSuggestions;
+    }
+
+    /**
+     * Get the queue friendships additions and removals should go through on the proxy
+     *
+     * @return FriendMutationQueue object
+     */
+    public FriendMutationQueue getMutationQueue() {
+        return mutationQueue;
+    }
+
+    /**
+     * Get the listener of the mutation queue, which also tells the other proxies about the friendships and requests changed here
+     *
+     * @return EdgeInvalidator object
+     */
+    public EdgeInvalidator getEdgeInvalidator() {
+        return edgeInvalidator;
+    }
+
+    /**
+     * Get the proxy-side username cache, which should be used instead of DataUtils on the proxy
+     *
+     * @return NameCache object
+     */
+    public NameCache getNameCache() {
+        return nameCache;
+    }
+
+    /**
+     * Get the pending friend requests of the players connected to the proxy, used by the completions
+     *
+     * @return RequestCache object
+     */
+    public RequestCache getRequestCache() {
+        return requestCache;
+    }
+
+    /**
+     * Get the skins of the players who joined the proxy
+     *
+     * @return SkinCache object
+     */
+    public SkinCache getSkinCache() {
+        return skinCache;
+    }
+
+    /**
+     * Get the cooldowns of the notifications sent when a player receives a friend request
+     *
+     * @return CooldownStore object
+     */
+    public CooldownStore getNotificationCooldowns() {
+        return notificationCooldowns;
+    }
+
+    /**
+     * Get the sorted usernames of the players connected to the proxy, used to complete the commands
+     *
+     * @return OnlineNameIndex object
+     */
+    public OnlineNameIndex getOnlineNameIndex() {
+        return onlineNameIndex;
+    }
+
+    /**
+     * Get the index of the servers the players are playing on
+     *
+     * @return PresenceIndex object
+     */
+    public PresenceIndex getPresenceIndex() {
+        return presenceIndex;
+    }
+
+    /**
+     * Get the subscriptions of the opened GUIs to the presence of the friends they show
+     *
+     * @return PresenceSubscriptions object
+     */
+    public PresenceSubscriptions getPresenceSubscriptions() {
+        return presenceSubscriptions;
+    }
+
+    /**
+     * Get the order of the friends lists shown in the GUI
+     *
+     * @return FriendListOrder object
+     */
+    public FriendListOrder getFriendListOrder() {
+        return friendListOrder;
+    }
+
+    /**
+     * Get the last time the players were seen, including the times not written yet
+     *
+     * @return LastSeenTracker object
+     */
+    public LastSeenTracker getLastSeenTracker() {
+        return lastSeenTracker;
+    }
+
     /**
      * Get Plugin Instance
      *
@@ -0,0 +1,153 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The CooldownStore class remembers which player notified which other player recently, so a notification
+ * isn't sent twice between the same players within the cooldown window.
+ * Expired cooldowns are removed by a hashed timer wheel: every cooldown is queued in the bucket of its deadline,
+ * and tick() (run by a single repeating task) only looks at the bucket of the current time.
+ * The store holds at most maxEntries cooldowns, no new cooldown can start while it's full
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class CooldownStore {
+
+    /**
+     * Identifies a notification from a sender to a receiver
+     *
+     * @param sender   the UUID of the player sending the notification
+     * @param receiver the UUID of the player receiving the notification
+     */
+    public record EdgeKey(UUID sender, UUID receiver) {
+    }
+
+    /**
+     * Number of buckets of the timer wheel
+     */
+    private static final int WHEEL_SIZE = 64;
+
+    /**
+     * The deadline of every running cooldown
+     */
+    private final Map<EdgeKey, Long> deadlines = new ConcurrentHashMap<>();
+    private final Queue<EdgeKey>[] wheel;
+    private final long windowMillis;
+    private final long tickMillis;
+    private final int maxEntries;
+    private final AtomicBoolean ticking = new AtomicBoolean();
+    private long lastTick;
+
+    /**
+     * @param windowMillis the duration of a cooldown
+     * @param maxEntries   the maximum number of running cooldowns
+     */
+    @SuppressWarnings("unchecked")
+    public CooldownStore(long windowMillis, int maxEntries) {
+        this.windowMillis = windowMillis;
+        this.tickMillis = Math.max(1000L, windowMillis / WHEEL_SIZE);
+        this.maxEntries = maxEntries;
+        this.wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.lastTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * Starts a cooldown from the sender to the receiver, unless one is already running or the store is full
+     *
+     * @param sender   the UUID of the player sending the notification
+     * @param receiver the UUID of the player receiving the notification
+     * @return true if the cooldown was started, which means the notification can be sent
+     */
+    public boolean tryAcquire(UUID sender, UUID receiver) {
+        EdgeKey key = new EdgeKey(sender, receiver);
+        long now = System.currentTimeMillis();
+        long deadline = now + windowMillis;
+
+        boolean[] acquired = new boolean[1];
+        deadlines.compute(key, (k, current) -> {
+            if (current != null && current > now) {
+                return current;
+            }
+            if (current == null && deadlines.size() >= maxEntries) {
+                return null;
+            }
+            acquired[0] = true;
+            return deadline;
+        });
+
+        if (acquired[0]) {
+            wheel[bucketOf(deadline)].add(key);
+        }
+        return acquired[0];
+    }
+
+    /**
+     * @return the number of running cooldowns
+     */
+    public int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Removes the expired cooldowns of the buckets whose time is over since the previous tick, should be run every tickMillis
+     */
+    public void tick() {
+        if (!ticking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            long currentTick = now / tickMillis;
+            //Never sweep more than a full rotation, even after a long pause
+            long firstTick = Math.max(lastTick, currentTick - WHEEL_SIZE);
+            for (long t = firstTick; t < currentTick; t++) {
+                sweep((int) Math.floorMod(t, (long) WHEEL_SIZE), now);
+            }
+            lastTick = Math.max(lastTick, currentTick);
+        } finally {
+            ticking.set(false);
+        }
+    }
+
+    /**
+     * @return the duration between two ticks
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private void sweep(int bucket, long now) {
+        Queue<EdgeKey> queue = wheel[bucket];
+        int size = queue.size();
+        for (int i = 0; i < size; i++) {
+            EdgeKey key = queue.poll();
+            if (key == null) {
+                return;
+            }
+            Long deadline = deadlines.get(key);
+            if (deadline == null || bucketOf(deadline) != bucket) {
+                //Already removed, or restarted and queued in another bucket
+                continue;
+            }
+            if (deadline <= now) {
+                deadlines.remove(key, deadline);
+            } else {
+                //Expires in a later rotation of the wheel
+                queue.add(key);
+            }
+        }
+    }
+
+    private int bucketOf(long deadline) {
+        return (int) Math.floorMod(deadline / tickMillis, (long) WHEEL_SIZE);
+    }
+}
@@ -0,0 +1,118 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import com.grubnest.game.friends.api.DatabaseExecutor;
+import com.grubnest.game.friends.api.FriendMutationQueue;
+import com.grubnest.game.friends.api.FriendsAPI;
+import com.grubnest.game.friends.velocity.graph.FriendGraph;
+import com.grubnest.game.friends.velocity.presence.PresenceSync;
+import org.slf4j.Logger;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * The EdgeInvalidator class keeps the in-memory friendships and requests of every proxy in line with the others.
+ * The pairs of players whose friendships or requests changed through this proxy are published with PresenceSync,
+ * the pairs received from the other proxies are read again from the database and applied to the FriendCache,
+ * the FriendGraph (the FriendSuggestions follow it) and the RequestCache.
+ * It also listens to the FriendMutationQueue, forwarding its writes to the FriendCache before publishing them.
+ * A pair missed by a proxy is caught up with when its caches expire, without presence sync nothing is published
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class EdgeInvalidator implements FriendMutationQueue.Listener, PresenceSync.EdgeListener {
+
+    private final FriendCache friendCache;
+    private final RequestCache requestCache;
+    private final FriendGraph friendGraph;
+    private final PresenceSync presenceSync;
+    private final Logger logger;
+
+    /**
+     * @param friendCache  the friend cache
+     * @param requestCache the request cache
+     * @param friendGraph  the friend graph, null if it's disabled
+     * @param presenceSync shares the pairs with the other proxies, null if there is a single proxy
+     * @param logger       logs the failures
+     */
+    public EdgeInvalidator(FriendCache friendCache, RequestCache requestCache, FriendGraph friendGraph, PresenceSync presenceSync,
+                           Logger logger) {
+        this.friendCache = friendCache;
+        this.requestCache = requestCache;
+        this.friendGraph = friendGraph;
+        this.presenceSync = presenceSync;
+        this.logger = logger;
+    }
+
+    /**
+     * Tells the other proxies the friendships or requests between two players changed, once they are written
+     *
+     * @param playerUUID the UUID of a player
+     * @param otherUUID  the UUID of the other player
+     */
+    public void publish(UUID playerUUID, UUID otherUUID) {
+        if (presenceSync != null) {
+            presenceSync.publishEdge(playerUUID, otherUUID);
+        }
+    }
+
+    @Override
+    public void onAdded(UUID playerUUID, UUID friendUUID) {
+        friendCache.onAdded(playerUUID, friendUUID);
+        publish(playerUUID, friendUUID);
+    }
+
+    @Override
+    public void onRemoved(UUID playerUUID, UUID friendUUID) {
+        friendCache.onRemoved(playerUUID, friendUUID);
+        publish(playerUUID, friendUUID);
+    }
+
+    /**
+     * Reads the pair again on the database executor, the transport's threads don't wait for it
+     */
+    @Override
+    public void onRemoteEdge(UUID playerUUID, UUID otherUUID) {
+        DatabaseExecutor.getInstance().run(() -> refresh(playerUUID, otherUUID)).exceptionally(error -> {
+            logger.warn("Could not read a friendship changed through another proxy, it will be read again when the caches expire", error);
+            return null;
+        });
+    }
+
+    /**
+     * Reads both friendships and the requests of both players again
+     *
+     * @param playerUUID the UUID of a player
+     * @param otherUUID  the UUID of the other player
+     */
+    private void refresh(UUID playerUUID, UUID otherUUID) throws SQLException {
+        refreshFriendship(playerUUID, otherUUID);
+        refreshFriendship(otherUUID, playerUUID);
+        requestCache.refresh(playerUUID);
+        requestCache.refresh(otherUUID);
+    }
+
+    /**
+     * Reads a friendship from the database and applies it to the cache and the graph
+     *
+     * @param playerUUID the UUID of the player who may have marked the other as a friend
+     * @param friendUUID the UUID of the other player
+     */
+    private void refreshFriendship(UUID playerUUID, UUID friendUUID) throws SQLException {
+        boolean friend = FriendsAPI.isFriendAlready(playerUUID, friendUUID);
+        if (friend) {
+            friendCache.onAdded(playerUUID, friendUUID);
+        } else {
+            friendCache.onRemoved(playerUUID, friendUUID);
+        }
+
+        if (friendGraph != null && friendGraph.isFriend(playerUUID, friendUUID) != friend) {
+            if (friend) {
+                friendGraph.add(playerUUID, friendUUID);
+            } else {
+                friendGraph.remove(playerUUID, friendUUID);
+            }
+        }
+    }
+}
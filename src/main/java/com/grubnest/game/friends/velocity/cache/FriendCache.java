@@ -0,0 +1,464 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import com.grubnest.game.friends.api.FriendMutationQueue;
+import com.grubnest.game.friends.api.FriendsAPI;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * The FriendCache class keeps the friends list (and the reverse list: the players who marked them as a friend)
+ * of the players currently using the proxy in memory, in front of FriendsAPI.
+ * Entries are loaded when a player logs in, updated write-through by markAsFriend, removeFromFriendDB and acceptFriendRequest
+ * or through the EdgeInvalidator, which forwards the writes of the FriendMutationQueue and the changes made through the other proxies,
+ * and evicted when the player disconnects, when they haven't been used for a while, when they are old enough to have
+ * missed a change of another proxy or when the cache is too heavy.
+ * The weight of an entry is the number of UUIDs it holds, plus one
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendCache implements FriendMutationQueue.Listener {
+
+    /**
+     * The cached friends of a single player
+     */
+    private static final class Entry {
+        private final Set<UUID> friends = ConcurrentHashMap.newKeySet();
+        private final Set<UUID> friendedBy = ConcurrentHashMap.newKeySet();
+        private volatile long lastAccess = System.currentTimeMillis();
+        private final long loadedAt = lastAccess;
+
+        private long weight() {
+            return friends.size() + friendedBy.size() + 1L;
+        }
+    }
+
+    /**
+     * A snapshot of the cache counters
+     *
+     * @param hits      lookups answered from memory
+     * @param misses    lookups that had to go to the database
+     * @param evictions entries removed because of the weight limit or idleness
+     * @param entries   number of cached players
+     * @param weight    current weight of the cache
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long weight) {
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxWeight;
+    private final long idleMillis;
+    private final long maxAgeMillis;
+
+    /**
+     * Tells whether a player should get an entry when they miss, usually: is the player online
+     */
+    private final Predicate<UUID> shouldLoad;
+
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Incremented on every write, so a load running concurrently with a write knows its data may be stale
+     */
+    private final AtomicLong writeEpoch = new AtomicLong();
+
+    /**
+     * @param maxWeight    the maximum weight of the cache
+     * @param idleMillis   the time after which an unused entry is evicted
+     * @param maxAgeMillis the time after which an entry is evicted even if it's used, so it's read again
+     * @param shouldLoad   tells whether a missed player should be loaded into the cache
+     */
+    public FriendCache(long maxWeight, long idleMillis, long maxAgeMillis, Predicate<UUID> shouldLoad) {
+        this.maxWeight = maxWeight;
+        this.idleMillis = idleMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.shouldLoad = shouldLoad;
+    }
+
+    /**
+     * Returns a boolean indicating if the player has marked another as a friend
+     *
+     * @param playerUUID the player's UUID you want to check
+     * @param friendUUID UUID of the player's optional friend
+     * @return true if friendUUID is in the player's friends list, false otherwise
+     */
+    public boolean isFriendAlready(UUID playerUUID, UUID friendUUID) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            return hit(entry).friends.contains(friendUUID);
+        }
+
+        entry = entries.get(friendUUID);
+        if (entry != null) {
+            return hit(entry).friendedBy.contains(playerUUID);
+        }
+
+        misses.incrementAndGet();
+        entry = loadIfWanted(playerUUID);
+        if (entry != null) {
+            return entry.friends.contains(friendUUID);
+        }
+        return FriendsAPI.isFriendAlready(playerUUID, friendUUID);
+    }
+
+    /**
+     * Tries to get the player's friends UUIDs
+     *
+     * @param playerUUID the player's UUID
+     * @return an unmodifiable copy of the player's friends UUIDs, empty if they have no friends
+     */
+    public Set<UUID> getFriends(UUID playerUUID) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            return Set.copyOf(hit(entry).friends);
+        }
+
+        misses.incrementAndGet();
+        entry = loadIfWanted(playerUUID);
+        if (entry != null) {
+            return Set.copyOf(entry.friends);
+        }
+        return Set.copyOf(FriendsAPI.getFriendsUUIDs(playerUUID).orElse(List.of()));
+    }
+
+    /**
+     * Counts the player's friends, from memory when the player is cached
+     *
+     * @param playerUUID the player's UUID
+     * @return the number of players in the player's friends list
+     */
+    public int countFriends(UUID playerUUID) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            return hit(entry).friends.size();
+        }
+
+        misses.incrementAndGet();
+        return FriendsAPI.countFriends(playerUUID);
+    }
+
+    /**
+     * Gets the player's friends without copying them when the player is cached
+     *
+     * @param playerUUID the player's UUID
+     * @return a read-only view of the player's friends UUIDs, following the changes made while it's used
+     */
+    public Set<UUID> viewFriends(UUID playerUUID) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            return Collections.unmodifiableSet(hit(entry).friends);
+        }
+
+        misses.incrementAndGet();
+        entry = loadIfWanted(playerUUID);
+        if (entry != null) {
+            return Collections.unmodifiableSet(entry.friends);
+        }
+        return Set.copyOf(FriendsAPI.getFriendsUUIDs(playerUUID).orElse(List.of()));
+    }
+
+    /**
+     * Tries to get the UUIDs of the players who marked the given player as a friend
+     *
+     * @param playerUUID the player's UUID
+     * @return an unmodifiable copy of the UUIDs, empty if nobody marked them as a friend
+     */
+    public Set<UUID> getFriendedBy(UUID playerUUID) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            return Set.copyOf(hit(entry).friendedBy);
+        }
+
+        misses.incrementAndGet();
+        entry = loadIfWanted(playerUUID);
+        if (entry != null) {
+            return Set.copyOf(entry.friendedBy);
+        }
+        return Set.copyOf(FriendsAPI.getFriendedByUUIDs(playerUUID).orElse(List.of()));
+    }
+
+    /**
+     * Gets the player's friends only if they are cached, never queries the database
+     *
+     * @param playerUUID the player's UUID
+     * @return an unmodifiable copy of the player's friends UUIDs, empty if the player isn't cached
+     */
+    public Optional<Set<UUID>> peekFriends(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        return entry == null ? Optional.empty() : Optional.of(Set.copyOf(hit(entry).friends));
+    }
+
+    /**
+     * Gets the players who marked the player as a friend only if they are cached, never queries the database
+     *
+     * @param playerUUID the player's UUID
+     * @return an unmodifiable copy of the UUIDs, empty if the player isn't cached
+     */
+    public Optional<Set<UUID>> peekFriendedBy(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        return entry == null ? Optional.empty() : Optional.of(Set.copyOf(hit(entry).friendedBy));
+    }
+
+    /**
+     * Checks which of the given players have marked the player as a friend.
+     * Answered from memory when the player or every given player is cached, with a single query otherwise
+     *
+     * @param playerUUID   the player's UUID
+     * @param playersUUIDs the UUIDs of the players to check
+     * @return the UUIDs, among the given ones, of the players who have the player in their friends list
+     */
+    public Set<UUID> getFriendedByAmong(UUID playerUUID, Collection<UUID> playersUUIDs) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            hit(entry);
+            Set<UUID> friendedBy = new HashSet<>();
+            for (UUID uuid : playersUUIDs) {
+                if (entry.friendedBy.contains(uuid)) {
+                    friendedBy.add(uuid);
+                }
+            }
+            return friendedBy;
+        }
+
+        Set<UUID> friendedBy = new HashSet<>();
+        for (UUID uuid : playersUUIDs) {
+            Entry other = entries.get(uuid);
+            if (other == null) {
+                misses.incrementAndGet();
+                return FriendsAPI.getFriendedByAmong(playerUUID, playersUUIDs);
+            }
+            if (other.friends.contains(playerUUID)) {
+                friendedBy.add(uuid);
+            }
+        }
+        hits.incrementAndGet();
+        return friendedBy;
+    }
+
+    /**
+     * Adds given friendUUID to the player's friends list, in the database then in the cache
+     *
+     * @param playerUUID UUID of the player you want to add the friend
+     * @param friendUUID UUID of the friend you want to add
+     */
+    public void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException {
+        FriendsAPI.markAsFriend(playerUUID, friendUUID);
+        onAdded(playerUUID, friendUUID);
+    }
+
+    /**
+     * Adds given friendUUID to the player's friends list in the cache, once it's written in the database
+     *
+     * @param playerUUID UUID of the player who added the friend
+     * @param friendUUID UUID of the added friend
+     */
+    @Override
+    public void onAdded(UUID playerUUID, UUID friendUUID) {
+        writeEpoch.incrementAndGet();
+
+        Entry player = entries.get(playerUUID);
+        if (player != null && player.friends.add(friendUUID)) {
+            weight.incrementAndGet();
+        }
+        Entry friend = entries.get(friendUUID);
+        if (friend != null && friend.friendedBy.add(playerUUID)) {
+            weight.incrementAndGet();
+        }
+        evictIfTooHeavy();
+    }
+
+    /**
+     * Accepts a pending friend request in the database, then adds both friendships in the cache
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player accepting it
+     * @return false if there was no pending request
+     */
+    public boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID) throws SQLException {
+        if (!FriendsAPI.acceptFriendRequest(senderUUID, receiverUUID, System.currentTimeMillis())) {
+            return false;
+        }
+        onAdded(senderUUID, receiverUUID);
+        onAdded(receiverUUID, senderUUID);
+        return true;
+    }
+
+    /**
+     * Removes given friendUUID from the player's friends list, in the database then in the cache
+     *
+     * @param playerUUID UUID of the player you want to remove the friend from
+     * @param friendUUID UUID of the player's friend you want to remove
+     */
+    public void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException {
+        FriendsAPI.removeFromFriendDB(playerUUID, friendUUID);
+        onRemoved(playerUUID, friendUUID);
+    }
+
+    /**
+     * Removes given friendUUID from the player's friends list in the cache, once it's removed from the database
+     *
+     * @param playerUUID UUID of the player who removed the friend
+     * @param friendUUID UUID of the removed friend
+     */
+    @Override
+    public void onRemoved(UUID playerUUID, UUID friendUUID) {
+        writeEpoch.incrementAndGet();
+
+        Entry player = entries.get(playerUUID);
+        if (player != null && player.friends.remove(friendUUID)) {
+            weight.decrementAndGet();
+        }
+        Entry friend = entries.get(friendUUID);
+        if (friend != null && friend.friendedBy.remove(playerUUID)) {
+            weight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Loads the player's friends into the cache, usually when they log in
+     *
+     * @param playerUUID the player's UUID
+     */
+    public void load(UUID playerUUID) throws SQLException {
+        if (!entries.containsKey(playerUUID)) {
+            loadEntry(playerUUID);
+        }
+    }
+
+    /**
+     * Removes the player's entry from the cache, usually when they disconnect
+     *
+     * @param playerUUID the player's UUID
+     */
+    public void invalidate(UUID playerUUID) {
+        Entry removed = entries.remove(playerUUID);
+        if (removed != null) {
+            weight.addAndGet(-removed.weight());
+        }
+    }
+
+    /**
+     * Removes every entry from the cache, after the friendships were changed without going through the cache
+     */
+    public void invalidateAll() {
+        writeEpoch.incrementAndGet();
+        for (UUID playerUUID : entries.keySet()) {
+            invalidate(playerUUID);
+        }
+    }
+
+    /**
+     * Evicts every entry that hasn't been used for longer than the idle time or was loaded longer ago than the maximum age.
+     * The players still online are loaded again on their next lookup
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        long idleLimit = now - idleMillis;
+        long ageLimit = now - maxAgeMillis;
+        entries.forEach((uuid, entry) -> {
+            if ((entry.lastAccess < idleLimit || entry.loadedAt < ageLimit) && entries.remove(uuid, entry)) {
+                weight.addAndGet(-entry.weight());
+                evictions.incrementAndGet();
+            }
+        });
+
+        //Correcting the drift caused by writes racing with removals
+        weight.set(entries.values().stream().mapToLong(Entry::weight).sum());
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), weight.get());
+    }
+
+    /**
+     * Marks the entry as used and counts a hit
+     *
+     * @param entry the entry
+     * @return the same entry
+     */
+    private Entry hit(Entry entry) {
+        hits.incrementAndGet();
+        entry.lastAccess = System.currentTimeMillis();
+        return entry;
+    }
+
+    /**
+     * Loads the player into the cache if they should be cached
+     *
+     * @param playerUUID the player's UUID
+     * @return the loaded entry, null if the player shouldn't be cached
+     */
+    private Entry loadIfWanted(UUID playerUUID) throws SQLException {
+        if (!shouldLoad.test(playerUUID)) {
+            return null;
+        }
+        return loadEntry(playerUUID);
+    }
+
+    /**
+     * Reads the player's friends and reverse friends from the database and stores them.
+     * If a write happened while reading, the entry is not kept since it could be missing that write
+     *
+     * @param playerUUID the player's UUID
+     * @return the loaded entry
+     */
+    private Entry loadEntry(UUID playerUUID) throws SQLException {
+        long epoch = writeEpoch.get();
+
+        Entry entry = new Entry();
+        FriendsAPI.getFriendsUUIDs(playerUUID).ifPresent(entry.friends::addAll);
+        FriendsAPI.getFriendedByUUIDs(playerUUID).ifPresent(entry.friendedBy::addAll);
+
+        Entry existing = entries.putIfAbsent(playerUUID, entry);
+        if (existing != null) {
+            return existing;
+        }
+        weight.addAndGet(entry.weight());
+
+        if (writeEpoch.get() != epoch) {
+            invalidate(playerUUID);
+        } else {
+            evictIfTooHeavy();
+        }
+        return entry;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is back under 90% of its maximum weight
+     */
+    private void evictIfTooHeavy() {
+        if (weight.get() <= maxWeight) {
+            return;
+        }
+
+        synchronized (this) {
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+
+            List<Map.Entry<UUID, Entry>> byAccess = new ArrayList<>(entries.entrySet());
+            byAccess.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+            long target = maxWeight * 9 / 10;
+            for (Map.Entry<UUID, Entry> e : byAccess) {
+                if (weight.get() <= target) {
+                    break;
+                }
+                if (entries.remove(e.getKey(), e.getValue())) {
+                    weight.addAndGet(-e.getValue().weight());
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import com.grubnest.game.core.databasehandler.utils.DataUtils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The NameCache class keeps the usernames of the players and their UUIDs in memory, in both directions, in front of DataUtils.
+ * It holds at most maxEntries players, the least recently used ones are evicted first.
+ * Names are refreshed when a player logs in, so renamed players are picked up.
+ * Lookups that miss go to the database and must not be called from the proxy's event threads
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class NameCache {
+
+    /**
+     * A snapshot of the cache counters
+     *
+     * @param hits    lookups answered from memory
+     * @param misses  lookups that had to go to the database
+     * @param entries number of cached players
+     */
+    public record Stats(long hits, long misses, int entries) {
+    }
+
+    /**
+     * Usernames by UUID, in access order
+     */
+    private final LinkedHashMap<UUID, String> names;
+
+    /**
+     * UUIDs by lower case username
+     */
+    private final Map<String, UUID> ids = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached players
+     */
+    public NameCache(int maxEntries) {
+        this.names = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                ids.remove(key(eldest.getValue()), eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Stores the current username of a player, replacing their previous one
+     *
+     * @param playerUUID the player's UUID
+     * @param username   the player's username
+     */
+    public synchronized void update(UUID playerUUID, String username) {
+        String previousName = names.put(playerUUID, username);
+        if (previousName != null) {
+            ids.remove(key(previousName), playerUUID);
+        }
+
+        //Another player may have used this name before, their entry is stale now
+        UUID previousOwner = ids.put(key(username), playerUUID);
+        if (previousOwner != null && !previousOwner.equals(playerUUID)) {
+            names.remove(previousOwner);
+        }
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the player's username, empty if the player never joined
+     */
+    public Optional<String> getName(UUID playerUUID) {
+        synchronized (this) {
+            String name = names.get(playerUUID);
+            if (name != null) {
+                hits.incrementAndGet();
+                return Optional.of(name);
+            }
+        }
+
+        misses.incrementAndGet();
+        Optional<String> name = DataUtils.getUsernameFromID(playerUUID);
+        name.ifPresent(username -> update(playerUUID, username));
+        return name;
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the player's username if it's cached, never queries the database
+     */
+    public synchronized Optional<String> peekName(UUID playerUUID) {
+        return Optional.ofNullable(names.get(playerUUID));
+    }
+
+    /**
+     * @param username the player's username, case-insensitive
+     * @return the player's UUID, empty if no player ever joined with this name
+     */
+    public Optional<UUID> getUUID(String username) {
+        synchronized (this) {
+            UUID playerUUID = ids.get(key(username));
+            if (playerUUID != null) {
+                names.get(playerUUID);
+                hits.incrementAndGet();
+                return Optional.of(playerUUID);
+            }
+        }
+
+        misses.incrementAndGet();
+        Optional<UUID> playerUUID = DataUtils.getIDFromUsername(username);
+        playerUUID.flatMap(DataUtils::getUsernameFromID).ifPresent(name -> update(playerUUID.get(), name));
+        return playerUUID;
+    }
+
+    /**
+     * Gets the usernames of a whole list of players, the cached ones are read in a single pass
+     *
+     * @param playersUUIDs the players' UUIDs
+     * @return the usernames, in the same order as the UUIDs, "NotFound" for players who never joined
+     */
+    public List<String> getNames(List<UUID> playersUUIDs) {
+        String[] result = new String[playersUUIDs.size()];
+        List<Integer> missing = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = names.get(playersUUIDs.get(i));
+                if (result[i] == null) {
+                    missing.add(i);
+                }
+            }
+        }
+        hits.addAndGet(result.length - missing.size());
+
+        for (int i : missing) {
+            misses.incrementAndGet();
+            UUID playerUUID = playersUUIDs.get(i);
+            Optional<String> name = DataUtils.getUsernameFromID(playerUUID);
+            name.ifPresent(username -> update(playerUUID, username));
+            result[i] = name.orElse("NotFound");
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), names.size());
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,193 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import com.grubnest.game.friends.api.FriendStore;
+import com.grubnest.game.friends.api.FriendsAPI;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RequestCache class keeps the pending friend requests of the players connected to the proxy in memory,
+ * so the completions of the commands can suggest the players they're waiting on without querying the database.
+ * Entries are loaded when a player logs in, updated by the commands of this proxy and removed when the player disconnects.
+ * A request sent or answered through another proxy is read again when that proxy tells about it (see EdgeInvalidator),
+ * or at the latest when the entry gets too old
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class RequestCache {
+
+    /**
+     * The cached requests of a single player: the UUIDs of the other players with the time each request expires at
+     */
+    private static final class Entry {
+        private final Map<UUID, Long> incoming = new ConcurrentHashMap<>();
+        private final Map<UUID, Long> outgoing = new ConcurrentHashMap<>();
+        private final long loadedAt = System.currentTimeMillis();
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxPerPlayer;
+
+    /**
+     * Incremented on every write, so a refresh running concurrently with a write knows its data may be stale
+     */
+    private final AtomicLong writeEpoch = new AtomicLong();
+
+    /**
+     * @param maxPerPlayer the maximum number of requests loaded per player, for each direction
+     */
+    public RequestCache(int maxPerPlayer) {
+        this.maxPerPlayer = Math.max(1, maxPerPlayer);
+    }
+
+    /**
+     * Loads the player's pending requests into the cache, usually when they log in.
+     * The entry is published before the read, so a request sent meanwhile isn't lost
+     *
+     * @param playerUUID the player's UUID
+     * @return the UUIDs of the players the loaded requests were sent by or to
+     */
+    public Set<UUID> load(UUID playerUUID) throws SQLException {
+        return read(playerUUID, entries.computeIfAbsent(playerUUID, uuid -> new Entry()));
+    }
+
+    /**
+     * Reads the player's pending requests again if they are cached, after they changed through another proxy.
+     * If a write happened while reading, the entry is kept as it was since the read could be missing that write
+     *
+     * @param playerUUID the player's UUID
+     */
+    public void refresh(UUID playerUUID) throws SQLException {
+        Entry entry = entries.get(playerUUID);
+        if (entry == null) {
+            return;
+        }
+
+        long epoch = writeEpoch.get();
+        Entry fresh = new Entry();
+        read(playerUUID, fresh);
+        if (writeEpoch.get() == epoch) {
+            entries.replace(playerUUID, entry, fresh);
+        }
+    }
+
+    /**
+     * Reads again the entries loaded longer ago than the given age, catching up with the changes missed from the other proxies
+     *
+     * @param maxAgeMillis the maximum age of an entry
+     */
+    public void refreshOlderThan(long maxAgeMillis) throws SQLException {
+        long limit = System.currentTimeMillis() - maxAgeMillis;
+        for (Map.Entry<UUID, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().loadedAt < limit) {
+                refresh(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Removes the player's entry from the cache, usually when they disconnect
+     *
+     * @param playerUUID the player's UUID
+     */
+    public void invalidate(UUID playerUUID) {
+        entries.remove(playerUUID);
+    }
+
+    /**
+     * Adds a request sent through this proxy to the entries of both players, if they're cached
+     *
+     * @param request the request, once written
+     */
+    public void onSent(FriendStore.FriendRequest request) {
+        writeEpoch.incrementAndGet();
+        Entry sender = entries.get(request.senderUUID());
+        if (sender != null) {
+            sender.outgoing.put(request.receiverUUID(), request.expiresAt());
+        }
+        Entry receiver = entries.get(request.receiverUUID());
+        if (receiver != null) {
+            receiver.incoming.put(request.senderUUID(), request.expiresAt());
+        }
+    }
+
+    /**
+     * Removes an accepted, denied or cancelled request from the entries of both players
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player the request was sent to
+     */
+    public void onRemoved(UUID senderUUID, UUID receiverUUID) {
+        writeEpoch.incrementAndGet();
+        Entry sender = entries.get(senderUUID);
+        if (sender != null) {
+            sender.outgoing.remove(receiverUUID);
+        }
+        Entry receiver = entries.get(receiverUUID);
+        if (receiver != null) {
+            receiver.incoming.remove(senderUUID);
+        }
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the UUIDs of the players whose pending request the player received, empty if the player isn't cached
+     */
+    public Set<UUID> peekIncoming(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        return entry == null ? Set.of() : pending(entry.incoming);
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the UUIDs of the players the player sent a pending request to, empty if the player isn't cached
+     */
+    public Set<UUID> peekOutgoing(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        return entry == null ? Set.of() : pending(entry.outgoing);
+    }
+
+    /**
+     * @return the number of cached players
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Reads the player's pending requests into the entry
+     *
+     * @param playerUUID the player's UUID
+     * @param entry      the player's entry
+     * @return the UUIDs of the players the read requests were sent by or to
+     */
+    private Set<UUID> read(UUID playerUUID, Entry entry) throws SQLException {
+        long now = System.currentTimeMillis();
+        Set<UUID> others = new HashSet<>();
+        for (FriendStore.FriendRequest request : FriendsAPI.getIncomingRequests(playerUUID, now, maxPerPlayer)) {
+            entry.incoming.merge(request.senderUUID(), request.expiresAt(), Math::max);
+            others.add(request.senderUUID());
+        }
+        for (FriendStore.FriendRequest request : FriendsAPI.getOutgoingRequests(playerUUID, now, maxPerPlayer)) {
+            entry.outgoing.merge(request.receiverUUID(), request.expiresAt(), Math::max);
+            others.add(request.receiverUUID());
+        }
+        return others;
+    }
+
+    /**
+     * Drops the expired requests of a direction, the sweeper already removed them from the database or soon will
+     *
+     * @param requests the requests of a direction, by other player's UUID
+     * @return the UUIDs of the other players of the requests still pending
+     */
+    private static Set<UUID> pending(Map<UUID, Long> requests) {
+        long now = System.currentTimeMillis();
+        requests.values().removeIf(expiresAt -> expiresAt <= now);
+        return Set.copyOf(requests.keySet());
+    }
+}
@@ -0,0 +1,97 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.velocitypowered.api.util.GameProfile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The SkinCache class keeps in memory the skin of the players who joined the proxy, read from their GameProfile.
+ * Skins are stored as the texture hash of their textures.minecraft.net URL, the bukkit-side builds the heads from it
+ * so it never has to look profiles up. It holds at most maxEntries players, the least recently used ones are evicted first
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class SkinCache {
+
+    private static final String TEXTURE_URL_PREFIX = "http://textures.minecraft.net/texture/";
+
+    /**
+     * Texture hashes by UUID, in access order
+     */
+    private final LinkedHashMap<UUID, String> skins;
+
+    /**
+     * @param maxEntries the maximum number of cached players
+     */
+    public SkinCache(int maxEntries) {
+        this.skins = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Stores the skin of the player, read from the textures property of their profile
+     *
+     * @param profile the player's profile
+     */
+    public void update(GameProfile profile) {
+        for (GameProfile.Property property : profile.getProperties()) {
+            if (property.getName().equals("textures")) {
+                Optional<String> skin = readTextureHash(property.getValue());
+                synchronized (this) {
+                    if (skin.isPresent()) {
+                        skins.put(profile.getId(), skin.get());
+                    } else {
+                        skins.remove(profile.getId());
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param playersUUIDs the players' UUIDs
+     * @return the texture hashes of the players' skins, in the same order as the UUIDs, empty strings for unknown skins
+     */
+    public synchronized List<String> getSkins(List<UUID> playersUUIDs) {
+        List<String> result = new ArrayList<>(playersUUIDs.size());
+        for (UUID playerUUID : playersUUIDs) {
+            result.add(skins.getOrDefault(playerUUID, ""));
+        }
+        return result;
+    }
+
+    /**
+     * @param value the value of a textures property: base64 encoded JSON
+     * @return the hash of the skin texture, empty if the player has no custom skin or the value is malformed
+     */
+    private static Optional<String> readTextureHash(String value) {
+        try {
+            String json = new String(Base64.getDecoder().decode(value), StandardCharsets.UTF_8);
+            JsonObject textures = JsonParser.parseString(json).getAsJsonObject().getAsJsonObject("textures");
+            JsonObject skin = textures == null ? null : textures.getAsJsonObject("SKIN");
+            JsonElement url = skin == null ? null : skin.get("url");
+            if (url == null) {
+                return Optional.empty();
+            }
+
+            String skinUrl = url.getAsString().replace("https://", "http://");
+            if (!skinUrl.startsWith(TEXTURE_URL_PREFIX)) {
+                return Optional.empty();
+            }
+            return Optional.of(skinUrl.substring(TEXTURE_URL_PREFIX.length()));
+        } catch (IllegalArgumentException | IllegalStateException | JsonParseException e) {
+            return Optional.empty();
+        }
+    }
+}
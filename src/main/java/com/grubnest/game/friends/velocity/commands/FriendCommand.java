@@ -1,11 +1,18 @@
 package com.grubnest.game.friends.velocity.commands;
 
-import com.google.common.io.ByteArrayDataInput;
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
-import com.grubnest.game.core.databasehandler.utils.DataUtils;
+import com.grubnest.game.friends.api.DatabaseExecutor;
+import com.grubnest.game.friends.api.FriendStore;
 import com.grubnest.game.friends.api.FriendsAPI;
+import com.grubnest.game.friends.messaging.FriendMessage;
+import com.grubnest.game.friends.messaging.FriendMessageCodec;
+import com.grubnest.game.friends.metrics.FriendsMetrics;
 import com.grubnest.game.friends.velocity.FriendsVelocityPlugin;
+import com.grubnest.game.friends.velocity.cache.FriendCache;
+import com.grubnest.game.friends.velocity.cache.NameCache;
+import com.grubnest.game.friends.velocity.cache.RequestCache;
+import com.grubnest.game.friends.velocity.graph.FriendSuggestions;
+import com.grubnest.game.friends.velocity.presence.FriendListOrder;
+import com.grubnest.game.friends.velocity.presence.PresenceIndex;
 import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.event.Subscribe;
@@ -14,6 +21,7 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ServerConnection;
 import com.velocitypowered.api.proxy.messages.ChannelIdentifier;
 import com.velocitypowered.api.proxy.messages.MinecraftChannelIdentifier;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextColor;
 
@@ -22,24 +30,80 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 /**
- * The FriendCommand class allows the player to add another player to their friends list or to display their friends status
+ * The FriendCommand class allows the player to send friend requests to other players or to display their friends status
  * The command /friend is registered on the proxy-side of the GrubnestFriends plugin,
  * and sends a request to the bukkit-side class called FriendsMessageListener (by using PluginMessaging)
- * to open a GUI to the player showing their friends' status if no argument is typed
+ * to open a GUI to the player showing their friends' status if no argument is typed.
+ * /friend add <player> (or /friend <player>, unless the player is named like a subcommand) sends a friend request,
+ * /friend accept|deny <player> answers one, /friend cancel <player> takes one back
+ * and /friend requests lists the pending ones. Accepting a request makes both players friends of each other.
+ * /friend suggest lists the players the player may know, /friend mutual <player> the friends they have in common with another player
  *
  * @author NevaZyo
  * @version 1.0 at 06/01/2022
  */
 public class FriendCommand implements SimpleCommand {
     private static FriendCommand INSTANCE = null;
-    private final HashMap<String, Date> cooldowns = new HashMap<>();
+
+    /**
+     * The outcome of /friend <player>
+     */
+    private enum RequestOutcome {
+        SENT,
+        ALREADY_SENT,
+        ALREADY_FRIENDS,
+        ACCEPTED
+    }
+
+    /**
+     * The maximum number of usernames listed by /friend mutual
+     */
+    private static final int MAX_MUTUAL_FRIENDS_LISTED = 50;
+
+    /**
+     * The maximum number of usernames listed by /friend requests, for each direction
+     */
+    private static final int MAX_REQUESTS_LISTED = 20;
+
+    /**
+     * The subcommands answering or cancelling a friend request, followed by a player's name
+     */
+    private static final Set<String> REQUEST_ACTIONS = Set.of("accept", "deny", "cancel");
+
+    /**
+     * The subcommands completed in place of a player's name
+     */
+    private static final List<String> SUBCOMMANDS = List.of("accept", "add", "cancel", "deny", "mutual", "requests", "suggest");
+
+    /**
+     * The maximum number of friends sent in a page of the GUI, bigger pages requested by a server are cut
+     */
+    private static final int MAX_FRIENDS_PAGE_SIZE = 45;
     private final ChannelIdentifier identifier;
 
+    /**
+     * The maximum number of usernames suggested
+     */
+    private final int suggestionsLimit;
+
+    /**
+     * The number of players listed by /friend suggest
+     */
+    private final int friendSuggestionsCount;
+
+    /**
+     * The time after which a friend request expires
+     */
+    private final long requestExpiryMillis;
+
     /**
      * Private constructor (singleton)
      */
     private FriendCommand() {
-        this.identifier = MinecraftChannelIdentifier.from("core:friendcommand");
+        this.identifier = MinecraftChannelIdentifier.from(FriendMessageCodec.CHANNEL);
+        this.suggestionsLimit = FriendsVelocityPlugin.getInstance().getConfig().getInt("suggestions.max-results", 50);
+        this.friendSuggestionsCount = FriendsVelocityPlugin.getInstance().getConfig().getInt("graph.suggestions-count", 10);
+        this.requestExpiryMillis = TimeUnit.HOURS.toMillis(FriendsVelocityPlugin.getInstance().getConfig().getLong("requests.expiry-hours", 168));
         FriendsVelocityPlugin.getInstance().getServer().getChannelRegistrar().register(this.identifier);
         FriendsVelocityPlugin.getInstance().getServer().getEventManager().register(FriendsVelocityPlugin.getInstance(), this);
     }
@@ -60,6 +124,33 @@ public class FriendCommand implements SimpleCommand {
         Player sender = (Player) source;
 
         String[] args = invocation.arguments();
+        if (args.length == 2) {
+            switch (args[0].toLowerCase(Locale.ROOT)) {
+                case "mutual" -> {
+                    showMutualFriends(sender, args[1]);
+                    return;
+                }
+                case "add" -> {
+                    requestFriend(sender, args[1]);
+                    return;
+                }
+                case "accept" -> {
+                    acceptRequest(sender, args[1]);
+                    return;
+                }
+                case "deny" -> {
+                    removeRequest(sender, args[1], true);
+                    return;
+                }
+                case "cancel" -> {
+                    removeRequest(sender, args[1], false);
+                    return;
+                }
+                default -> {
+                }
+            }
+        }
+
         if (args.length > 1) {
             sender.sendMessage(Component.text("Too many arguments"));
             return;
@@ -70,123 +161,454 @@ public class FriendCommand implements SimpleCommand {
             return;
         }
 
-        if (args[0].equalsIgnoreCase(sender.getUsername())) {
-            sender.sendMessage(Component.text("Feeling lonely? Join our discord server!"));
+        if (args[0].equalsIgnoreCase("suggest")) {
+            suggestFriends(sender);
             return;
         }
 
-        Optional<UUID> friendUUIDOpt;
-        friendUUIDOpt = DataUtils.getIDFromUsername(args[0]);
-        if (friendUUIDOpt.isEmpty()) {
-            sender.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+        if (args[0].equalsIgnoreCase("requests")) {
+            showRequests(sender);
             return;
         }
 
-        UUID friendUUID = friendUUIDOpt.get();
+        requestFriend(sender, args[0]);
+    }
 
-        String[] key = new String[2];
-        key[0] = sender.getUniqueId().toString();
-        key[1] = friendUUID.toString();
+    /**
+     * Sends a friend request, unless the player typed their own name
+     *
+     * @param sender     the player that typed the command
+     * @param friendName the name of the player the request is sent to
+     */
+    private void requestFriend(Player sender, String friendName) {
+        if (friendName.equalsIgnoreCase(sender.getUsername())) {
+            sender.sendMessage(Component.text("Feeling lonely? Join our discord server!"));
+            return;
+        }
+        sendRequest(sender, friendName);
+    }
 
-        try {
-            if (FriendsAPI.isFriendAlready(key[0], key[1])) {
-                sender.sendMessage(Component.text("You've already marked this player as a friend.", TextColor.color(255, 85, 85)));
-                return;
+    /**
+     * Sends a friend request to another player. If they already sent one to the player, or marked the player
+     * as a friend before requests existed, they become friends right away. If only the player marked them,
+     * the request asks them to complete the friendship
+     *
+     * @param sender     the player that typed the command
+     * @param friendName the name of the player the request is sent to
+     */
+    private void sendRequest(Player sender, String friendName) {
+        UUID senderUUID = sender.getUniqueId();
+        DatabaseExecutor.getInstance().supply(() -> {
+            Optional<UUID> friendUUIDOpt = FriendsVelocityPlugin.getInstance().getNameCache().getUUID(friendName);
+            if (friendUUIDOpt.isEmpty()) {
+                return Optional.<RequestOutcome>empty();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
 
-        try {
-            FriendsAPI.markAsFriend(key[0], key[1]);
-        } catch (SQLException e) {
-            e.printStackTrace();
+            //Decided and written after the mutations queued between the players, e.g. an unfriending that would delete the new friendship
+            UUID friendUUID = friendUUIDOpt.get();
+            return Optional.of(FriendsVelocityPlugin.getInstance().getMutationQueue()
+                    .writeAfterPending(senderUUID, friendUUID, () -> requestOrAccept(sender, friendUUID)));
+        }).whenComplete((outcome, error) -> {
+            if (error != null) {
+                FriendsVelocityPlugin.getInstance().getLogger().error("Could not send a friend request", error);
+                sender.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+            } else if (outcome.isEmpty()) {
+                sender.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+            } else {
+                switch (outcome.get()) {
+                    case ALREADY_FRIENDS -> sender.sendMessage(Component.text("This player is already in your friends list.", TextColor.color(255, 85, 85)));
+                    case ALREADY_SENT -> sender.sendMessage(Component.text("You've already sent a friend request to this player.", TextColor.color(255, 85, 85)));
+                    case ACCEPTED -> sender.sendMessage(Component.text("You're now friends with " + friendName + "!", TextColor.color(85, 255, 85)));
+                    case SENT -> sender.sendMessage(Component.text("Friend request sent!", TextColor.color(85, 255, 85)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the friend request or completes the friendship, see sendRequest()
+     *
+     * @param sender     the player that typed the command
+     * @param friendUUID the UUID of the player the request is sent to
+     * @return the outcome of the command
+     */
+    private RequestOutcome requestOrAccept(Player sender, UUID friendUUID) throws SQLException {
+        UUID senderUUID = sender.getUniqueId();
+        FriendCache friendCache = FriendsVelocityPlugin.getInstance().getFriendCache();
+        boolean markedBack = friendCache.isFriendAlready(friendUUID, senderUUID);
+        if (markedBack && friendCache.isFriendAlready(senderUUID, friendUUID)) {
+            return RequestOutcome.ALREADY_FRIENDS;
+        }
+        if (friendCache.acceptFriendRequest(friendUUID, senderUUID)) {
+            onAccepted(friendUUID, senderUUID);
+            sendAcceptNotification(sender, friendUUID);
+            return RequestOutcome.ACCEPTED;
+        }
+        if (markedBack) {
+            //Marked the sender as a friend before the requests existed, the friendship only lacks its other half
+            friendCache.markAsFriend(senderUUID, friendUUID);
+            FriendsVelocityPlugin.getInstance().getEdgeInvalidator().publish(senderUUID, friendUUID);
+            return RequestOutcome.ACCEPTED;
         }
-        sender.sendMessage(Component.text("Added to your friends list!", TextColor.color(85, 255, 85)));
 
-        if (!cooldowns.containsKey(Arrays.toString(key))) {
-            sendFriendNotification(sender, FriendsVelocityPlugin.getInstance().getServer().getPlayer(friendUUID));
-        } else if (getDateDiff(cooldowns.get(Arrays.toString(key)), new Date()) >= 10) {
-            sendFriendNotification(sender, FriendsVelocityPlugin.getInstance().getServer().getPlayer(friendUUID));
+        //A friendship only marked by the sender is hidden from both until the other player confirms it
+        long now = System.currentTimeMillis();
+        FriendStore.FriendRequest request = new FriendStore.FriendRequest(senderUUID, friendUUID, now, now + requestExpiryMillis);
+        if (!FriendsAPI.addFriendRequest(request)) {
+            return RequestOutcome.ALREADY_SENT;
         }
+        FriendsVelocityPlugin.getInstance().getRequestCache().onSent(request);
+        FriendsVelocityPlugin.getInstance().getEdgeInvalidator().publish(senderUUID, friendUUID);
+        sendRequestNotificationIfNeeded(sender, friendUUID);
+        return RequestOutcome.SENT;
     }
 
     /**
-     * Get a diff between two dates
+     * Accepts the pending friend request another player sent to the player, both become friends of each other
      *
-     * @param date1 the oldest date
-     * @param date2 the newest date
-     * @return the diff value, in the provided unit
+     * @param player     the player that typed the command
+     * @param senderName the name of the player who sent the request
      */
-    private long getDateDiff(Date date1, Date date2) {
-        long diffInMillies = date2.getTime() - date1.getTime();
-        return TimeUnit.MINUTES.convert(diffInMillies, TimeUnit.MILLISECONDS);
+    private void acceptRequest(Player player, String senderName) {
+        DatabaseExecutor.getInstance().supply(() -> {
+            Optional<UUID> senderUUID = FriendsVelocityPlugin.getInstance().getNameCache().getUUID(senderName);
+            if (senderUUID.isEmpty()) {
+                return Optional.<Boolean>empty();
+            }
+            //Applied after the unfriending queued between the players, so it can't delete the new friendship
+            boolean accepted = FriendsVelocityPlugin.getInstance().getMutationQueue().writeAfterPending(senderUUID.get(), player.getUniqueId(),
+                    () -> FriendsVelocityPlugin.getInstance().getFriendCache().acceptFriendRequest(senderUUID.get(), player.getUniqueId()));
+            if (accepted) {
+                onAccepted(senderUUID.get(), player.getUniqueId());
+                sendAcceptNotification(player, senderUUID.get());
+            }
+            return Optional.of(accepted);
+        }).whenComplete((accepted, error) -> {
+            if (error != null) {
+                FriendsVelocityPlugin.getInstance().getLogger().error("Could not accept a friend request", error);
+                player.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+            } else if (accepted.isEmpty()) {
+                player.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+            } else if (!accepted.get()) {
+                player.sendMessage(Component.text("You don't have a pending friend request from this player.", TextColor.color(255, 85, 85)));
+            } else {
+                player.sendMessage(Component.text("You're now friends with " + senderName + "!", TextColor.color(85, 255, 85)));
+            }
+        });
     }
 
     /**
-     * Sends a notification to the player added to the sender's friends list
+     * Removes a pending friend request without telling the other player
      *
-     * @param sender   the player that typed the command
-     * @param receiver the player added as a friend by the sender
-     */
-    private void sendFriendNotification(Player sender, Optional<Player> receiver) {
-        if (receiver.isPresent()) {
-            String[] key = new String[2];
-            key[0] = sender.getUniqueId().toString();
-            key[1] = receiver.get().getUniqueId().toString();
+     * @param player    the player that typed the command
+     * @param otherName the name of the other player
+     * @param incoming  true to deny the request the other player sent, false to cancel the one the player sent
+     */
+    private void removeRequest(Player player, String otherName, boolean incoming) {
+        DatabaseExecutor.getInstance().supply(() -> {
+            Optional<UUID> otherUUID = FriendsVelocityPlugin.getInstance().getNameCache().getUUID(otherName);
+            if (otherUUID.isEmpty()) {
+                return Optional.<Boolean>empty();
+            }
+            UUID senderUUID = incoming ? otherUUID.get() : player.getUniqueId();
+            UUID receiverUUID = incoming ? player.getUniqueId() : otherUUID.get();
+            boolean removed = FriendsAPI.removeFriendRequest(senderUUID, receiverUUID, System.currentTimeMillis());
+            FriendsVelocityPlugin.getInstance().getRequestCache().onRemoved(senderUUID, receiverUUID);
+            if (removed) {
+                FriendsVelocityPlugin.getInstance().getEdgeInvalidator().publish(senderUUID, receiverUUID);
+            }
+            return Optional.of(removed);
+        }).whenComplete((removed, error) -> {
+            if (error != null) {
+                FriendsVelocityPlugin.getInstance().getLogger().error("Could not remove a friend request", error);
+                player.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+            } else if (removed.isEmpty()) {
+                player.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+            } else if (!removed.get()) {
+                player.sendMessage(Component.text(incoming ? "You don't have a pending friend request from this player."
+                        : "You don't have a pending friend request to this player.", TextColor.color(255, 85, 85)));
+            } else {
+                player.sendMessage(Component.text(incoming ? "Friend request denied." : "Friend request cancelled.", TextColor.color(85, 255, 85)));
+            }
+        });
+    }
+
+    /**
+     * Lists the pending friend requests the player received and sent, the most recent first
+     *
+     * @param player the player
+     */
+    private void showRequests(Player player) {
+        UUID playerUUID = player.getUniqueId();
+        DatabaseExecutor.getInstance().supply(() -> {
+            long now = System.currentTimeMillis();
+            List<FriendStore.FriendRequest> incoming = FriendsAPI.getIncomingRequests(playerUUID, now, MAX_REQUESTS_LISTED + 1);
+            List<FriendStore.FriendRequest> outgoing = FriendsAPI.getOutgoingRequests(playerUUID, now, MAX_REQUESTS_LISTED + 1);
+            List<String> incomingNames = FriendsVelocityPlugin.getInstance().getNameCache()
+                    .getNames(incoming.stream().limit(MAX_REQUESTS_LISTED).map(FriendStore.FriendRequest::senderUUID).toList());
+            List<String> outgoingNames = FriendsVelocityPlugin.getInstance().getNameCache()
+                    .getNames(outgoing.stream().limit(MAX_REQUESTS_LISTED).map(FriendStore.FriendRequest::receiverUUID).toList());
+
+            Component message = Component.empty();
+            if (!incoming.isEmpty()) {
+                message = message.append(listRequests("Friend requests received: ", incomingNames, incoming.size() > MAX_REQUESTS_LISTED))
+                        .append(Component.newline())
+                        .append(Component.text("Do /friend accept <player> or /friend deny <player> to answer them.", TextColor.color(170, 170, 170)));
+            }
+            if (!outgoing.isEmpty()) {
+                if (!incoming.isEmpty()) {
+                    message = message.append(Component.newline());
+                }
+                message = message.append(listRequests("Friend requests sent: ", outgoingNames, outgoing.size() > MAX_REQUESTS_LISTED));
+            }
+            return incoming.isEmpty() && outgoing.isEmpty() ? Optional.<Component>empty() : Optional.of(message);
+        }).whenComplete((message, error) -> {
+            if (error != null) {
+                FriendsVelocityPlugin.getInstance().getLogger().error("Could not get the friend requests of a player", error);
+                player.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+            } else if (message.isEmpty()) {
+                player.sendMessage(Component.text("You don't have any pending friend request.", TextColor.color(255, 85, 85)));
+            } else {
+                player.sendMessage(message.get());
+            }
+        });
+    }
+
+    /**
+     * @param title the title of the list
+     * @param names the usernames of the other players
+     * @param more  true if some requests aren't listed
+     * @return a line listing the requests
+     */
+    private static Component listRequests(String title, List<String> names, boolean more) {
+        return Component.text(title, TextColor.color(0, 170, 170))
+                .append(Component.text(String.join(", ", names) + (more ? " and more" : ""), TextColor.color(85, 255, 255)));
+    }
+
+    /**
+     * Removes an accepted request from the request cache, with the one crossing it which was removed along,
+     * and tells the other proxies about the new friendship
+     *
+     * @param senderUUID   UUID of the player who sent the request
+     * @param receiverUUID UUID of the player who accepted it
+     */
+    private static void onAccepted(UUID senderUUID, UUID receiverUUID) {
+        RequestCache requestCache = FriendsVelocityPlugin.getInstance().getRequestCache();
+        requestCache.onRemoved(senderUUID, receiverUUID);
+        requestCache.onRemoved(receiverUUID, senderUUID);
+        FriendsVelocityPlugin.getInstance().getEdgeInvalidator().publish(senderUUID, receiverUUID);
+    }
+
+    /**
+     * Tells the player a friend request was sent to them, unless the same sender notified them recently
+     *
+     * @param sender     the player that sent the request
+     * @param friendUUID the UUID of the player the request was sent to
+     */
+    private void sendRequestNotificationIfNeeded(Player sender, UUID friendUUID) {
+        Optional<Player> receiver = FriendsVelocityPlugin.getInstance().getServer().getPlayer(friendUUID);
+        if (receiver.isPresent() && FriendsVelocityPlugin.getInstance().getNotificationCooldowns().tryAcquire(sender.getUniqueId(), friendUUID)) {
             receiver.get().sendMessage(
                     Component.text(sender.getUsername(), TextColor.color(85, 255, 255))
-                            .append(Component.text(" added you as a friend!", TextColor.color(0, 170, 170)))
+                            .append(Component.text(" sent you a friend request! Do /friend accept " + sender.getUsername()
+                                    + " or /friend deny " + sender.getUsername() + ".", TextColor.color(0, 170, 170)))
             );
-            cooldowns.put(Arrays.toString(key), new Date());
-            FriendsVelocityPlugin.getInstance().getServer().getScheduler()
-                    .buildTask(FriendsVelocityPlugin.getInstance(), () -> {
-                        cooldowns.remove(Arrays.toString(key));
-                    })
-                    .delay(10L, TimeUnit.MINUTES)
-                    .schedule();
         }
     }
 
     /**
-     * Tells the server the player is on to open a GUI for the player, containing the player's friends heads with the server they are playing on
+     * Tells the player who sent a friend request that it was accepted
      *
-     * @param player the player
+     * @param receiver   the player who accepted the request
+     * @param senderUUID the UUID of the player who sent it
      */
-    private void makeFriendGUI(Player player) {
-        String playerUUID = player.getUniqueId().toString();
-        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+    private void sendAcceptNotification(Player receiver, UUID senderUUID) {
+        FriendsVelocityPlugin.getInstance().getServer().getPlayer(senderUUID).ifPresent(sender -> sender.sendMessage(
+                Component.text(receiver.getUsername(), TextColor.color(85, 255, 255))
+                        .append(Component.text(" accepted your friend request!", TextColor.color(0, 170, 170)))
+        ));
+    }
 
-        out.writeUTF("MakeGUI");
-        out.writeUTF(playerUUID);
+    /**
+     * Lists the players the player may know, with the number of friends they have in common
+     *
+     * @param player the player
+     */
+    private void suggestFriends(Player player) {
+        if (!FriendsVelocityPlugin.getInstance().getFriendGraph().isLoaded()) {
+            player.sendMessage(Component.text("Suggestions aren't available yet, please try again later.", TextColor.color(255, 85, 85)));
+            return;
+        }
 
-        Optional<Player> pOpt = FriendsVelocityPlugin.getInstance().getServer().getPlayer(UUID.fromString(playerUUID));
-        if (pOpt.isEmpty()) {
+        List<FriendSuggestions.Suggestion> suggestions = FriendsVelocityPlugin.getInstance().getFriendSuggestions()
+                .suggest(player.getUniqueId(), friendSuggestionsCount);
+        if (suggestions.isEmpty()) {
+            player.sendMessage(Component.text("No suggestion for now.", TextColor.color(255, 85, 85)));
             return;
         }
 
-        Player p = pOpt.get();
-        //Handled in com.grubnest.game.friends.paper.commands.friend.FriendMessageListener:onPluginMessageReceived()
-        Optional<ServerConnection> server = p.getCurrentServer();
-        server.ifPresent(serverConnection -> serverConnection.sendPluginMessage(this.identifier, out.toByteArray()));
+        List<UUID> suggestedUUIDs = suggestions.stream().map(FriendSuggestions.Suggestion::playerUUID).toList();
+        DatabaseExecutor.getInstance().supply(() -> FriendsVelocityPlugin.getInstance().getNameCache().getNames(suggestedUUIDs))
+                .whenComplete((names, error) -> {
+                    if (error != null) {
+                        FriendsVelocityPlugin.getInstance().getLogger().error("Could not get the names of the suggested friends", error);
+                        player.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+                        return;
+                    }
+
+                    Component message = Component.text("People you may know:", TextColor.color(0, 170, 170));
+                    for (int i = 0; i < suggestions.size(); i++) {
+                        FriendSuggestions.Suggestion suggestion = suggestions.get(i);
+                        int common = suggestion.commonFriends();
+                        message = message.append(Component.newline())
+                                .append(Component.text(names.get(i), TextColor.color(85, 255, 255)))
+                                .append(Component.text(" - " + common + (common == 1 ? " friend" : " friends") + " in common"
+                                        + (suggestion.sameServer() ? ", on your server" : ""), TextColor.color(170, 170, 170)));
+                    }
+                    player.sendMessage(message);
+                });
+    }
+
+    /**
+     * Lists the friends the player has in common with another player
+     *
+     * @param player    the player
+     * @param otherName the other player's name
+     */
+    private void showMutualFriends(Player player, String otherName) {
+        DatabaseExecutor.getInstance().supply(() -> {
+            Optional<UUID> otherUUID = FriendsVelocityPlugin.getInstance().getNameCache().getUUID(otherName);
+            if (otherUUID.isEmpty()) {
+                return Optional.<List<String>>empty();
+            }
+            List<UUID> mutualFriends = FriendsAPI.getMutualFriends(player.getUniqueId(), otherUUID.get());
+            return Optional.of(FriendsVelocityPlugin.getInstance().getNameCache().getNames(mutualFriends));
+        }).whenComplete((names, error) -> {
+            if (error != null) {
+                FriendsVelocityPlugin.getInstance().getLogger().error("Could not get the mutual friends of two players", error);
+                player.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+            } else if (names.isEmpty()) {
+                player.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+            } else if (names.get().isEmpty()) {
+                player.sendMessage(Component.text("You don't have any friend in common with " + otherName + ".", TextColor.color(255, 85, 85)));
+            } else {
+                List<String> mutualNames = names.get();
+                String listed = String.join(", ", mutualNames.stream().sorted(String.CASE_INSENSITIVE_ORDER).limit(MAX_MUTUAL_FRIENDS_LISTED).toList());
+                if (mutualNames.size() > MAX_MUTUAL_FRIENDS_LISTED) {
+                    listed += " and " + (mutualNames.size() - MAX_MUTUAL_FRIENDS_LISTED) + " more";
+                }
+                player.sendMessage(Component.text("Friends in common with " + otherName + " (" + mutualNames.size() + "): ", TextColor.color(0, 170, 170))
+                        .append(Component.text(listed, TextColor.color(85, 255, 255))));
+            }
+        });
+    }
+
+    /**
+     * Tells the server the player is on to open a GUI for the player, containing the player's friends heads with the server they are playing on.
+     * Only the friends are counted here, the GUI then requests its pages one by one so the servers never need to reach the friend store
+     *
+     * @param player the player
+     */
+    private void makeFriendGUI(Player player) {
+        UUID playerUUID = player.getUniqueId();
+        DatabaseExecutor.getInstance().supply(() -> FriendsVelocityPlugin.getInstance().getFriendCache().countFriends(playerUUID))
+                .whenComplete((friendCount, error) -> {
+                    if (error != null) {
+                        FriendsVelocityPlugin.getInstance().getLogger().error("Could not get the friends list of a player", error);
+                        player.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+                        return;
+                    }
+                    if (friendCount == 0) {
+                        player.sendMessage(Component.text("You don't have any friends, do /friend add <player> to send someone a friend request.", TextColor.color(255, 85, 85)));
+                        return;
+                    }
+
+                    //Handled in com.grubnest.game.friends.paper.commands.friend.FriendMessageListener:onPluginMessageReceived()
+                    byte[] message = FriendMessageCodec.encode(new FriendMessage.MakeGUI(playerUUID, friendCount));
+                    Optional<ServerConnection> server = player.getCurrentServer();
+                    server.ifPresent(serverConnection -> serverConnection.sendPluginMessage(this.identifier, message));
+                });
     }
 
     /**
      * @param invocation the invocation context
-     * @return list of suggestions, here: all the players connected on the proxy
+     * @return list of suggestions, here: the subcommands and the players connected on the proxy whose name starts
+     * with the typed argument, the players who sent the player a request or marked them as a friend alone first,
+     * the player's friends excluded, the same players after add. After accept and deny, the players who sent
+     * the player a request, after cancel, the players the player sent one to. Never queries the database
      */
     @Override
     public List<String> suggest(Invocation invocation) {
 
-        if (invocation.arguments().length == 1) {
-            List<String> players = new ArrayList<>();
-            for (Player p : FriendsVelocityPlugin.getInstance().getServer().getAllPlayers())
-                players.add(p.getUsername());
-            return players;
+        String[] args = invocation.arguments();
+        if (!(invocation.source() instanceof Player player)) {
+            return SimpleCommand.super.suggest(invocation);
+        }
+        UUID playerUUID = player.getUniqueId();
+        RequestCache requestCache = FriendsVelocityPlugin.getInstance().getRequestCache();
+
+        if (args.length == 2 && REQUEST_ACTIONS.contains(args[0].toLowerCase(Locale.ROOT))) {
+            Set<UUID> others = args[0].equalsIgnoreCase("cancel") ? requestCache.peekOutgoing(playerUUID) : requestCache.peekIncoming(playerUUID);
+            return completeNames(args[1], others);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("add")) {
+            return completeRequestable(playerUUID, args[1], suggestionsLimit);
+        }
+        if (args.length <= 1) {
+            String prefix = args.length == 0 ? "" : args[0].toLowerCase(Locale.ROOT);
+            List<String> suggestions = new ArrayList<>();
+            for (String subcommand : SUBCOMMANDS) {
+                if (subcommand.startsWith(prefix) && suggestions.size() < suggestionsLimit) {
+                    suggestions.add(subcommand);
+                }
+            }
+            suggestions.addAll(completeRequestable(playerUUID, prefix, suggestionsLimit - suggestions.size()));
+            return suggestions;
         }
         return SimpleCommand.super.suggest(invocation);
     }
 
+    /**
+     * Completes a username prefix with the online players the player can send a request to,
+     * the players who sent the player a request or marked them as a friend alone first
+     *
+     * @param playerUUID the player's UUID
+     * @param prefix     the beginning of the username, case-insensitive
+     * @param limit      the maximum number of usernames returned
+     * @return the matching usernames
+     */
+    private List<String> completeRequestable(UUID playerUUID, String prefix, int limit) {
+        FriendCache friendCache = FriendsVelocityPlugin.getInstance().getFriendCache();
+        Set<UUID> friends = friendCache.peekFriends(playerUUID).orElse(Set.of());
+        Set<UUID> ranked = new HashSet<>(FriendsVelocityPlugin.getInstance().getRequestCache().peekIncoming(playerUUID));
+        Set<UUID> excluded = new HashSet<>();
+        excluded.add(playerUUID);
+        for (UUID friendedBy : friendCache.peekFriendedBy(playerUUID).orElse(Set.of())) {
+            //Marked the player as a friend alone: a request completes the friendship
+            (friends.contains(friendedBy) ? excluded : ranked).add(friendedBy);
+        }
+        return FriendsVelocityPlugin.getInstance().getOnlineNameIndex().complete(prefix, limit, ranked, excluded);
+    }
+
+    /**
+     * Completes a username prefix with the cached names of some players, online or not
+     *
+     * @param prefix       the beginning of the username, case-insensitive
+     * @param playersUUIDs the players' UUIDs
+     * @return the matching usernames, in alphabetical order
+     */
+    private List<String> completeNames(String prefix, Set<UUID> playersUUIDs) {
+        String start = prefix.toLowerCase(Locale.ROOT);
+        NameCache nameCache = FriendsVelocityPlugin.getInstance().getNameCache();
+        return playersUUIDs.stream()
+                .map(nameCache::peekName)
+                .flatMap(Optional::stream)
+                .filter(name -> name.toLowerCase(Locale.ROOT).startsWith(start))
+                .sorted(String.CASE_INSENSITIVE_ORDER)
+                .limit(suggestionsLimit)
+                .toList();
+    }
+
     /**
      * Event handler: triggered when data are received on the channel "core:friendcommand" using Plugin Messaging
      *
@@ -214,87 +636,171 @@ public class FriendCommand implements SimpleCommand {
             return;
         }
 
-        ByteArrayDataInput in = event.dataAsDataStream();
-        String subChannel = in.readUTF();
-
-        switch (subChannel) {
-            case "Join" -> {
-                UUID playerUUID = UUID.fromString(in.readUTF());
-                Optional<Player> optPlayer = FriendsVelocityPlugin.getInstance().getServer().getPlayer(playerUUID);
-                if (optPlayer.isEmpty()) {
-                    return;
-                }
-                Player p = optPlayer.get();
-
-                UUID friendUUID = UUID.fromString(in.readUTF());
-                Optional<Player> optFriend = FriendsVelocityPlugin.getInstance().getServer().getPlayer(friendUUID);
+        Optional<FriendMessage> messageOpt = FriendMessageCodec.decode(event.getData());
+        if (messageOpt.isEmpty()) {
+            FriendsVelocityPlugin.getInstance().getLogger().info("Received an unknown or malformed message in core:friendcommand");
+            return;
+        }
+        FriendMessage message = messageOpt.get();
 
-                if (optFriend.isEmpty()) {
-                    p.sendMessage(Component.text("Error: your friend is offline.", TextColor.color(255, 85, 85)));
-                    return;
-                }
+        if (message instanceof FriendMessage.Join join) {
+            Optional<Player> optPlayer = FriendsVelocityPlugin.getInstance().getServer().getPlayer(join.playerUUID());
+            if (optPlayer.isEmpty()) {
+                return;
+            }
+            Player p = optPlayer.get();
 
-                Player friend = optFriend.get();
-                Optional<ServerConnection> optServer = friend.getCurrentServer();
+            //The friend can be on another proxy, the servers have the same names on every proxy
+            PresenceIndex presenceIndex = FriendsVelocityPlugin.getInstance().getPresenceIndex();
+            if (!presenceIndex.isOnline(join.friendUUID())) {
+                p.sendMessage(Component.text("Error: your friend is offline.", TextColor.color(255, 85, 85)));
+                return;
+            }
 
-                if (optServer.isEmpty()) {
-                    FriendsVelocityPlugin.getInstance().getLogger().info("Error: could not find server. (FriendCommand)");
-                    return;
-                }
+            Optional<RegisteredServer> optServer = presenceIndex.getServer(join.friendUUID())
+                    .flatMap(FriendsVelocityPlugin.getInstance().getServer()::getServer);
 
-                ServerConnection friendServer = optServer.get();
-                p.createConnectionRequest(friendServer.getServer()).connect();
+            if (optServer.isEmpty()) {
+                FriendsVelocityPlugin.getInstance().getLogger().info("Error: could not find server. (FriendCommand)");
+                return;
             }
-            case "GetServersNames" -> {
-                UUID playerUUID = UUID.fromString(in.readUTF());
-
-                ByteArrayDataOutput out = ByteStreams.newDataOutput();
-                out.writeUTF("UpdateServersNames");
-                out.writeUTF(playerUUID.toString());
-
-                boolean valid = true;
-                while (valid) {
-                    try {
-                        UUID friendUUID = UUID.fromString(in.readUTF());
-                        Optional<Player> friend = FriendsVelocityPlugin.getInstance().getServer().getPlayer(friendUUID);
-                        boolean mutual = FriendsAPI.isFriendAlready(friendUUID.toString(), playerUUID.toString());
-
-                        String server;
-
-                        if (!mutual) {
-                            server = "Hidden";
-                        } else if (friend.isEmpty()) {
-                            server = "Offline";
-                        } else {
-                            Optional<ServerConnection> friendServerOpt = friend.get().getCurrentServer();
-                            server = friendServerOpt.isEmpty() ? "Unknown server" : friendServerOpt.get().getServerInfo().getName();
+
+            p.createConnectionRequest(optServer.get()).connect();
+        } else if (message instanceof FriendMessage.GetFriendsPage request) {
+            UUID playerUUID = request.playerUUID();
+            long receivedAt = System.nanoTime();
+            DatabaseExecutor.getInstance().supply(() -> getFriendsPage(request))
+                    .whenComplete((reply, error) -> {
+                        FriendsMetrics.getInstance().record("proxy.getFriendsPage", System.nanoTime() - receivedAt, error != null);
+                        if (error != null) {
+                            FriendsVelocityPlugin.getInstance().getLogger().error("Could not get a page of a player's friends", error);
+                            return;
+                        }
+                        sendMessage(playerUUID, reply);
+                    });
+        } else if (message instanceof FriendMessage.WatchPresence watch) {
+            UUID playerUUID = watch.playerUUID();
+            DatabaseExecutor.getInstance().supply(() -> FriendsVelocityPlugin.getInstance().getFriendCache().getFriendedByAmong(playerUUID, watch.friendsUUIDs()))
+                    .whenComplete((mutuals, error) -> {
+                        if (error != null) {
+                            FriendsVelocityPlugin.getInstance().getLogger().error("Could not watch the presence of a player's friends", error);
+                            return;
                         }
+                        //Only the mutual friends are watched, the others stay hidden
+                        FriendsVelocityPlugin.getInstance().getPresenceSubscriptions().watch(playerUUID, mutuals);
+                    });
+        } else if (message instanceof FriendMessage.UnwatchPresence unwatch) {
+            FriendsVelocityPlugin.getInstance().getPresenceSubscriptions().unwatch(unwatch.playerUUID());
+        } else {
+            FriendsVelocityPlugin.getInstance().getLogger().info("Received an unexpected message type in core:friendcommand: " + message.type());
+        }
+    }
 
-                        out.writeUTF(server);
-                    } catch (Exception e) {
-                        valid = false;
-                    }
-                }
+    /**
+     * Reads a page of the player's friends list, online friends first, with everything the GUI shows about them
+     *
+     * @param request the request of the GUI
+     * @return the reply to the request
+     */
+    private FriendMessage.FriendsPage getFriendsPage(FriendMessage.GetFriendsPage request) throws SQLException {
+        UUID playerUUID = request.playerUUID();
+        int friendCount = FriendsVelocityPlugin.getInstance().getFriendCache().countFriends(playerUUID);
+        FriendListOrder.Page page = FriendsVelocityPlugin.getInstance().getFriendListOrder()
+                .getPage(playerUUID, request.after(), Math.min(request.limit(), MAX_FRIENDS_PAGE_SIZE));
+        List<UUID> friendsUUIDs = page.friendsUUIDs();
+        if (friendsUUIDs.isEmpty()) {
+            return new FriendMessage.FriendsPage(request.requestId(), playerUUID, friendCount, friendsUUIDs, List.of(), List.of(), List.of(), List.of(), List.of(), null);
+        }
 
-                Optional<Player> pOpt = FriendsVelocityPlugin.getInstance().getServer().getPlayer(playerUUID);
-                if (pOpt.isEmpty()) {
-                    return;
-                }
+        Set<UUID> mutuals = FriendsVelocityPlugin.getInstance().getFriendCache().getFriendedByAmong(playerUUID, friendsUUIDs);
+        List<String> serversNames = getServersNames(friendsUUIDs, mutuals);
+        return new FriendMessage.FriendsPage(request.requestId(), playerUUID, friendCount, friendsUUIDs,
+                FriendsVelocityPlugin.getInstance().getNameCache().getNames(friendsUUIDs),
+                FriendsVelocityPlugin.getInstance().getSkinCache().getSkins(friendsUUIDs),
+                serversNames,
+                countMutualFriends(playerUUID, friendsUUIDs, mutuals),
+                getSecondsSinceSeen(serversNames, page.lastSeen()),
+                page.next());
+    }
 
-                Player p = pOpt.get();
+    /**
+     * Gets the time elapsed since the offline friends were last seen, hidden like their servers
+     *
+     * @param serversNames the servers names of the friends
+     * @param lastSeen     the last time each friend was seen at, 0 if unknown
+     * @return the seconds elapsed, -1 for the friends who aren't shown as offline or were never seen
+     */
+    private List<Integer> getSecondsSinceSeen(List<String> serversNames, List<Long> lastSeen) {
+        long now = System.currentTimeMillis();
+        List<Integer> seconds = new ArrayList<>(lastSeen.size());
+        for (int i = 0; i < lastSeen.size(); i++) {
+            boolean shown = serversNames.get(i).equals(PresenceIndex.OFFLINE) && lastSeen.get(i) > 0;
+            seconds.add(shown ? (int) Math.min(Integer.MAX_VALUE, Math.max(0, (now - lastSeen.get(i)) / 1000)) : -1);
+        }
+        return seconds;
+    }
 
-                Optional<ServerConnection> serverOpt = p.getCurrentServer();
-                if (serverOpt.isEmpty()) {
-                    return;
-                }
+    /**
+     * Gets the names of the servers the player's friends are playing on.
+     * A friend who hasn't marked the player as a friend too is shown as "Hidden": accepted requests add both directions,
+     * so only the one-way friendships written before the requests existed are hidden
+     *
+     * @param friendsUUIDs the UUIDs of the friends
+     * @param mutuals      the friends who marked the player as a friend too
+     * @return the servers names, in the same order as the friends UUIDs
+     */
+    private List<String> getServersNames(List<UUID> friendsUUIDs, Set<UUID> mutuals) {
+        PresenceIndex presenceIndex = FriendsVelocityPlugin.getInstance().getPresenceIndex();
 
-                //Handled in com.grubnest.game.friends.paper.commands.friend.FriendMessageListener:onPluginMessageReceived()
-                serverOpt.get().sendPluginMessage(identifier, out.toByteArray());
-            }
-            default ->
-                    FriendsVelocityPlugin.getInstance().getLogger().info("Received an unknown subchannel in core:friendcommand");
+        List<String> serversNames = new ArrayList<>();
+        for (UUID friendUUID : friendsUUIDs) {
+            serversNames.add(mutuals.contains(friendUUID) ? presenceIndex.getLabel(friendUUID) : "Hidden");
         }
+        return serversNames;
+    }
 
+    /**
+     * Counts the mutual friends of the player with each friend, hidden like their servers:
+     * only the friends who marked the player as a friend too are counted, the others get 0
+     *
+     * @param playerUUID   the player's UUID
+     * @param friendsUUIDs the UUIDs of the friends
+     * @param mutuals      the friends who marked the player as a friend too
+     * @return the numbers of mutual friends, in the same order as the friends UUIDs
+     */
+    private List<Integer> countMutualFriends(UUID playerUUID, List<UUID> friendsUUIDs, Set<UUID> mutuals) throws SQLException {
+        List<UUID> shown = friendsUUIDs.stream().filter(mutuals::contains).toList();
+        int[] shownCounts = shown.isEmpty() ? new int[0] : FriendsAPI.countMutualFriends(playerUUID, shown);
+
+        List<Integer> counts = new ArrayList<>(friendsUUIDs.size());
+        int next = 0;
+        for (UUID friendUUID : friendsUUIDs) {
+            counts.add(mutuals.contains(friendUUID) ? shownCounts[next++] : 0);
+        }
+        return counts;
+    }
+
+    /**
+     * Sends a message to the server the player is on, nothing is sent if the player isn't on a server
+     *
+     * @param playerUUID the player's UUID
+     * @param message    the message
+     */
+    public void sendMessage(UUID playerUUID, FriendMessage message) {
+        Optional<Player> pOpt = FriendsVelocityPlugin.getInstance().getServer().getPlayer(playerUUID);
+        if (pOpt.isEmpty()) {
+            return;
+        }
+
+        Player p = pOpt.get();
+
+        Optional<ServerConnection> serverOpt = p.getCurrentServer();
+        if (serverOpt.isEmpty()) {
+            return;
+        }
+
+        //Handled in com.grubnest.game.friends.paper.commands.friend.FriendMessageListener:onPluginMessageReceived()
+        serverOpt.get().sendPluginMessage(identifier, FriendMessageCodec.encode(message));
     }
 
     /**
@@ -0,0 +1,246 @@
+package com.grubnest.game.friends.velocity.commands;
+
+import com.grubnest.game.friends.api.FriendGraphTransfer;
+import com.grubnest.game.friends.metrics.FriendsMetrics;
+import com.grubnest.game.friends.metrics.LatencyTimer;
+import com.grubnest.game.friends.velocity.graph.FriendGraph;
+import com.grubnest.game.friends.velocity.FriendsVelocityPlugin;
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.command.SimpleCommand;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.TextColor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The FriendsAdminCommand class gives the administrators tools to manage the friends data.
+ * /friendsadmin export <file> [player] writes the friendships (of a single player if given) to a file,
+ * /friendsadmin import <file> adds the friendships of a file to the database,
+ * /friendsadmin graph [reload] shows the size of the in-memory friend graph, or loads it again,
+ * /friendsadmin stats shows the proxy's metrics (the servers write theirs to their metrics.prom file).
+ * Files are read and written in the "transfers" folder of the plugin, ".bin" files use the binary format, the others CSV
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendsAdminCommand implements SimpleCommand {
+
+    private static FriendsAdminCommand INSTANCE = null;
+
+    /**
+     * The permission required to use the command
+     */
+    public static final String PERMISSION = "grubnestfriends.admin";
+
+    /**
+     * Minimum delay between two progress messages
+     */
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Only one transfer can run at a time
+     */
+    private final AtomicBoolean transferRunning = new AtomicBoolean();
+
+    /**
+     * Singleton constructor
+     */
+    private FriendsAdminCommand() {
+    }
+
+    /**
+     * What should be executed
+     *
+     * @param invocation the invocation context
+     */
+    @Override
+    public void execute(Invocation invocation) {
+        CommandSource source = invocation.source();
+        String[] args = invocation.arguments();
+
+        if (args.length >= 2 && args[0].equalsIgnoreCase("export") && args.length <= 3) {
+            startTransfer(source, args[1], args.length == 3 ? args[2] : null, true);
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            startTransfer(source, args[1], null, false);
+        } else if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            stats(source);
+        } else if (args.length >= 1 && args[0].equalsIgnoreCase("graph") && args.length <= 2) {
+            graph(source, args.length == 2 && args[1].equalsIgnoreCase("reload"));
+        } else {
+            source.sendMessage(Component.text("Usage: /friendsadmin export <file> [player] | import <file> | graph [reload] | stats", TextColor.color(255, 85, 85)));
+        }
+    }
+
+    /**
+     * Runs an export or an import on its own thread, it can take a while on big tables
+     *
+     * @param source     the command source, receiving the progress messages
+     * @param fileName   the name of the file in the transfers folder
+     * @param playerName the player whose friendships are exported, null for everyone
+     * @param export     true to export, false to import
+     */
+    private void startTransfer(CommandSource source, String fileName, String playerName, boolean export) {
+        Path folder = FriendsVelocityPlugin.getInstance().getDataDirectory().resolve("transfers").toAbsolutePath().normalize();
+        Path file = folder.resolve(fileName).normalize();
+        if (!file.getParent().equals(folder)) {
+            source.sendMessage(Component.text("The file must be directly in the transfers folder.", TextColor.color(255, 85, 85)));
+            return;
+        }
+        if (!transferRunning.compareAndSet(false, true)) {
+            source.sendMessage(Component.text("A transfer is already running.", TextColor.color(255, 85, 85)));
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                runTransfer(source, folder, file, playerName, export);
+            } finally {
+                transferRunning.set(false);
+            }
+        }, "GrubnestFriends-Transfer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void runTransfer(CommandSource source, Path folder, Path file, String playerName, boolean export) {
+        FriendsVelocityPlugin plugin = FriendsVelocityPlugin.getInstance();
+        FriendGraphTransfer transfer = new FriendGraphTransfer(plugin.getConfig().getInt("transfer.batch-size", 1000));
+        FriendGraphTransfer.Format format = FriendGraphTransfer.Format.fromFileName(file);
+        String action = export ? "Exported " : "Imported ";
+        long[] lastReport = {System.currentTimeMillis()};
+
+        try {
+            long count;
+            if (export) {
+                UUID playerUUID = null;
+                if (playerName != null) {
+                    Optional<UUID> playerUUIDOpt = plugin.getNameCache().getUUID(playerName);
+                    if (playerUUIDOpt.isEmpty()) {
+                        source.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+                        return;
+                    }
+                    playerUUID = playerUUIDOpt.get();
+                }
+                Files.createDirectories(folder);
+                count = transfer.exportTo(file, format, playerUUID, rows -> reportProgress(source, action, rows, lastReport));
+            } else {
+                if (!Files.isRegularFile(file)) {
+                    source.sendMessage(Component.text("This file doesn't exist.", TextColor.color(255, 85, 85)));
+                    return;
+                }
+                //The cache is told about the added friendships, the friend graph (and the suggestions) sees them through the store
+                count = transfer.importFrom(file, format, plugin.getFriendCache(), rows -> reportProgress(source, action, rows, lastReport));
+            }
+
+            plugin.getLogger().info(action + count + " friendships (" + file.getFileName() + ")");
+            source.sendMessage(Component.text(action + count + " friendships.", TextColor.color(85, 255, 85)));
+        } catch (Exception e) {
+            plugin.getLogger().error("The friends transfer failed", e);
+            source.sendMessage(Component.text("The transfer failed: " + e.getMessage(), TextColor.color(255, 85, 85)));
+        }
+    }
+
+    /**
+     * Shows the size of the friend graph, or starts loading it again
+     *
+     * @param source the command source
+     * @param reload true to load the graph again, from the friend table
+     */
+    private void graph(CommandSource source, boolean reload) {
+        FriendsVelocityPlugin plugin = FriendsVelocityPlugin.getInstance();
+        if (reload) {
+            if (plugin.startGraphLoad()) {
+                source.sendMessage(Component.text("Loading the friend graph, see the console.", TextColor.color(85, 255, 85)));
+            } else {
+                source.sendMessage(Component.text("The friend graph is disabled.", TextColor.color(255, 85, 85)));
+            }
+            return;
+        }
+
+        FriendGraph.Stats stats = plugin.getFriendGraph().getStats();
+        if (!stats.loaded()) {
+            source.sendMessage(Component.text("The friend graph isn't loaded.", TextColor.color(255, 85, 85)));
+            return;
+        }
+        source.sendMessage(Component.text("Friend graph: " + stats.friendships() + " friendships of " + stats.players()
+                + " players, ~" + stats.bytes() / (1024 * 1024) + " MB.", TextColor.color(85, 255, 85)));
+    }
+
+    /**
+     * Shows the timers (calls, errors and durations) and the gauges of the proxy
+     *
+     * @param source the command source
+     */
+    private void stats(CommandSource source) {
+        FriendsMetrics metrics = FriendsMetrics.getInstance();
+        Component message = Component.text("Operations (calls, errors, average / p50 / p99 / max in ms):", TextColor.color(0, 170, 170));
+        for (LatencyTimer.Snapshot timer : metrics.timerSnapshots()) {
+            long average = timer.count() == 0 ? 0 : timer.totalNanos() / timer.count();
+            message = message.append(Component.newline())
+                    .append(Component.text(timer.name() + ": ", TextColor.color(85, 255, 255)))
+                    .append(Component.text(timer.count() + ", " + timer.errors() + ", " + millis(average) + " / "
+                            + millis(timer.percentileNanos(0.5)) + " / " + millis(timer.percentileNanos(0.99)) + " / "
+                            + millis(timer.maxNanos()), TextColor.color(170, 170, 170)));
+        }
+        message = message.append(Component.newline()).append(Component.text("Gauges:", TextColor.color(0, 170, 170)));
+        for (Map.Entry<String, Long> gauge : metrics.gaugeValues().entrySet()) {
+            message = message.append(Component.newline())
+                    .append(Component.text(gauge.getKey() + ": ", TextColor.color(85, 255, 255)))
+                    .append(Component.text(String.valueOf(gauge.getValue()), TextColor.color(170, 170, 170)));
+        }
+        source.sendMessage(message);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+
+    private void reportProgress(CommandSource source, String action, long rows, long[] lastReport) {
+        long now = System.currentTimeMillis();
+        if (now - lastReport[0] >= PROGRESS_INTERVAL_MILLIS) {
+            lastReport[0] = now;
+            source.sendMessage(Component.text(action + rows + " friendships so far...", TextColor.color(170, 170, 170)));
+        }
+    }
+
+    /**
+     * @param invocation the invocation context
+     * @return list of suggestions, here: the subcommands
+     */
+    @Override
+    public List<String> suggest(Invocation invocation) {
+        String[] args = invocation.arguments();
+        if (args.length <= 1) {
+            String prefix = args.length == 0 ? "" : args[0].toLowerCase();
+            return List.of("export", "import", "graph", "stats").stream().filter(sub -> sub.startsWith(prefix)).toList();
+        }
+        return SimpleCommand.super.suggest(invocation);
+    }
+
+    /**
+     * @param invocation the invocation context
+     * @return true if the source can use the command
+     */
+    @Override
+    public boolean hasPermission(Invocation invocation) {
+        return invocation.source().hasPermission(PERMISSION);
+    }
+
+    /**
+     * @return the class instance (singleton)
+     */
+    public static FriendsAdminCommand getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new FriendsAdminCommand();
+        }
+        return INSTANCE;
+    }
+}
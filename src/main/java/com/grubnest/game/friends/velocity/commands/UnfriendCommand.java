@@ -1,19 +1,21 @@
 package com.grubnest.game.friends.velocity.commands;
 
-import com.grubnest.game.core.databasehandler.utils.DataUtils;
-import com.grubnest.game.friends.api.FriendsAPI;
+import com.grubnest.game.friends.api.DatabaseExecutor;
+import com.grubnest.game.friends.api.FriendMutationQueue;
+import com.grubnest.game.friends.velocity.FriendsVelocityPlugin;
+import com.grubnest.game.friends.velocity.cache.NameCache;
 import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextColor;
 
-import java.sql.SQLException;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * The UnfriendCommand class allows the player to remove another player from their friends list
+ * The UnfriendCommand class allows the player to remove another player from their friends list.
+ * Friendships are made of both directions since friend requests exist, so the player is also removed from the other player's list
  *
  * @author NevaZyo
  * @version 1.0 at 06/01/2022
@@ -22,10 +24,16 @@ public class UnfriendCommand implements SimpleCommand {
 
     private static UnfriendCommand INSTANCE = null;
 
+    /**
+     * The maximum number of usernames suggested
+     */
+    private final int suggestionsLimit;
+
     /**
      * Singleton constructor
      */
     private UnfriendCommand() {
+        this.suggestionsLimit = FriendsVelocityPlugin.getInstance().getConfig().getInt("suggestions.max-results", 50);
     }
 
     /**
@@ -52,32 +60,61 @@ public class UnfriendCommand implements SimpleCommand {
             return;
         }
 
-        Optional<UUID> toRemoveUUIDOpt;
-        toRemoveUUIDOpt = DataUtils.getIDFromUsername(args[0]);
-        if (toRemoveUUIDOpt.isEmpty()) {
-            sender.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
-            return;
-        }
+        String toRemoveName = args[0];
+        DatabaseExecutor.getInstance().supply(() -> FriendsVelocityPlugin.getInstance().getNameCache().getUUID(toRemoveName))
+                .thenCompose(toRemoveUUIDOpt -> toRemoveUUIDOpt.isEmpty()
+                        ? CompletableFuture.completedFuture(Optional.<FriendMutationQueue.Outcome>empty())
+                        : removeBothWays(sender.getUniqueId(), toRemoveUUIDOpt.get()).thenApply(Optional::of)
+                ).whenComplete((outcome, error) -> {
+                    if (error != null) {
+                        FriendsVelocityPlugin.getInstance().getLogger().error("Could not remove a friend", error);
+                        sender.sendMessage(Component.text("Something went wrong, please try again later.", TextColor.color(255, 85, 85)));
+                    } else if (outcome.isEmpty()) {
+                        sender.sendMessage(Component.text("Couldn't find this player.", TextColor.color(255, 85, 85)));
+                    } else if (outcome.get() == FriendMutationQueue.Outcome.NOT_PRESENT) {
+                        sender.sendMessage(Component.text("This player isn't in your friends list.", TextColor.color(255, 85, 85)));
+                    } else {
+                        sender.sendMessage(Component.text("Removed from your friends list!", TextColor.color(85, 255, 85)));
+                    }
+                });
+    }
 
-        String[] key = new String[2];
-        key[0] = sender.getUniqueId().toString();
-        key[1] = toRemoveUUIDOpt.get().toString();
-
-        try {
-            if (!FriendsAPI.isFriendAlready(key[0], key[1])) {
-                sender.sendMessage(Component.text("This player isn't in your friends list.", TextColor.color(255, 85, 85)));
-                return;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * Queues the removal of the friendship in both directions
+     *
+     * @param playerUUID   the UUID of the player removing the friend
+     * @param toRemoveUUID the UUID of the friend removed
+     * @return REMOVED if the friend was in the player's friends list or the player in theirs, NOT_PRESENT otherwise
+     */
+    private CompletableFuture<FriendMutationQueue.Outcome> removeBothWays(UUID playerUUID, UUID toRemoveUUID) {
+        FriendMutationQueue mutationQueue = FriendsVelocityPlugin.getInstance().getMutationQueue();
+        return mutationQueue.remove(playerUUID, toRemoveUUID).thenCombine(mutationQueue.remove(toRemoveUUID, playerUUID),
+                (first, second) -> first == FriendMutationQueue.Outcome.REMOVED ? first : second);
+    }
+
+    /**
+     * @param invocation the invocation context
+     * @return list of suggestions, here: the player's friends whose name starts with the typed argument.
+     * Never queries the database, friends whose name isn't cached yet aren't suggested
+     */
+    @Override
+    public List<String> suggest(Invocation invocation) {
+
+        String[] args = invocation.arguments();
+        if (args.length > 1 || !(invocation.source() instanceof Player player)) {
+            return SimpleCommand.super.suggest(invocation);
         }
 
-        try {
-            FriendsAPI.removeFromFriendDB(key[0], key[1]);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        String prefix = args.length == 0 ? "" : args[0].toLowerCase(Locale.ROOT);
+        NameCache nameCache = FriendsVelocityPlugin.getInstance().getNameCache();
+        List<String> friends = new ArrayList<>();
+        for (UUID friendUUID : FriendsVelocityPlugin.getInstance().getFriendCache().peekFriends(player.getUniqueId()).orElse(Set.of())) {
+            nameCache.peekName(friendUUID)
+                    .filter(name -> name.toLowerCase(Locale.ROOT).startsWith(prefix))
+                    .ifPresent(friends::add);
         }
-        sender.sendMessage(Component.text("Removed from your friends list!", TextColor.color(85, 255, 85)));
+        friends.sort(String.CASE_INSENSITIVE_ORDER);
+        return friends.size() > suggestionsLimit ? friends.subList(0, suggestionsLimit) : friends;
     }
 
     /**
@@ -0,0 +1,621 @@
+package com.grubnest.game.friends.velocity.graph;
+
+import com.grubnest.game.friends.api.FriendMutationQueue;
+import com.grubnest.game.friends.api.FriendStore;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * The FriendGraph class keeps every friendship of the store in memory, in a compact form:
+ * each player gets a dense int id, and each id has a sorted int[] of the ids of its friends and another one
+ * of the players who marked it as a friend. A friendship costs about 8 bytes, against ~80 for a List of UUIDs.
+ * The graph is built by a streaming scan of the store (see load()) and kept current by FriendGraphStore.
+ * Ids are never reused, a player keeps theirs even after losing all their friends
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendGraph {
+
+    private static final int[] NO_IDS = new int[0];
+
+    /**
+     * A snapshot of the graph's size
+     *
+     * @param players     number of players with an id
+     * @param friendships number of friendships
+     * @param bytes       estimated memory used by the graph
+     * @param loaded      false until the first load is done, the graph is empty until then
+     */
+    public record Stats(int players, long friendships, long bytes, boolean loaded) {
+    }
+
+    /**
+     * A friend of a friend of a player
+     *
+     * @param playerUUID    the UUID of the friend of a friend
+     * @param commonFriends the number of the player's friends who have them in their friends list
+     */
+    public record Candidate(UUID playerUUID, int commonFriends) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The graph answering the queries
+     */
+    private Graph current = new Graph();
+
+    /**
+     * The mutations made while a load is running, replayed on the loaded graph. Null when no load is running
+     */
+    private List<FriendStore.Mutation> pending = null;
+    private volatile boolean loaded = false;
+    private final List<FriendMutationQueue.Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param listener told about every friendship added or removed through add() and remove(), not about loads
+     */
+    public void addListener(FriendMutationQueue.Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Builds the graph from every friendship of the store then replaces the current one, which keeps answering meanwhile.
+     * The mutations made during the scan are replayed once it's done, so none of them is lost
+     *
+     * @param store the store to scan
+     * @return the number of friendships scanned
+     * @throws IllegalStateException if a load is already running
+     */
+    public long load(FriendStore store) throws SQLException, IOException {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                throw new IllegalStateException("The friend graph is already loading");
+            }
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Graph graph = new Graph();
+        long count;
+        try {
+            //The rows come in the table's order, they are sorted once all appended
+            count = store.forEachFriendship(null, (playerUUID, friendUUID) -> {
+                int player = graph.idOf(playerUUID, true);
+                int friend = graph.idOf(friendUUID, true);
+                graph.friends.append(player, friend);
+                graph.friendedBy.append(friend, player);
+            });
+            graph.friends.sortAll();
+            graph.friendedBy.sortAll();
+        } catch (SQLException | IOException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (FriendStore.Mutation mutation : pending) {
+                graph.mutate(mutation.playerUUID(), mutation.friendUUID(), mutation.add());
+            }
+            pending = null;
+            current = graph;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    /**
+     * Adds a friendship, once it's written in the store
+     *
+     * @param playerUUID UUID of the player who added the friend
+     * @param friendUUID UUID of the added friend
+     */
+    public void add(UUID playerUUID, UUID friendUUID) {
+        mutate(playerUUID, friendUUID, true);
+    }
+
+    /**
+     * Removes a friendship, once it's removed from the store
+     *
+     * @param playerUUID UUID of the player who removed the friend
+     * @param friendUUID UUID of the removed friend
+     */
+    public void remove(UUID playerUUID, UUID friendUUID) {
+        mutate(playerUUID, friendUUID, false);
+    }
+
+    private void mutate(UUID playerUUID, UUID friendUUID, boolean add) {
+        lock.writeLock().lock();
+        try {
+            current.mutate(playerUUID, friendUUID, add);
+            if (pending != null) {
+                pending.add(new FriendStore.Mutation(playerUUID, friendUUID, add));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (FriendMutationQueue.Listener listener : listeners) {
+            if (add) {
+                listener.onAdded(playerUUID, friendUUID);
+            } else {
+                listener.onRemoved(playerUUID, friendUUID);
+            }
+        }
+    }
+
+    /**
+     * @return true once the first load is done, the graph is empty until then
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @param friendUUID UUID of the player's optional friend
+     * @return true if friendUUID is in the player's friends list
+     */
+    public boolean isFriend(UUID playerUUID, UUID friendUUID) {
+        lock.readLock().lock();
+        try {
+            int player = current.idOf(playerUUID, false);
+            int friend = current.idOf(friendUUID, false);
+            return player >= 0 && friend >= 0 && current.friends.contains(player, friend);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the player's friends UUIDs
+     */
+    public List<UUID> getFriends(UUID playerUUID) {
+        lock.readLock().lock();
+        try {
+            return current.uuidsOf(current.friends, playerUUID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the UUIDs of the players who have the player in their friends list
+     */
+    public List<UUID> getFriendedBy(UUID playerUUID) {
+        lock.readLock().lock();
+        try {
+            return current.uuidsOf(current.friendedBy, playerUUID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the number of friends of the player
+     */
+    public int countFriends(UUID playerUUID) {
+        lock.readLock().lock();
+        try {
+            int player = current.idOf(playerUUID, false);
+            return player < 0 ? 0 : current.friends.size(player);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param firstUUID  a player's UUID
+     * @param secondUUID another player's UUID
+     * @return the friends both players have in their friends list, intersecting their sorted friends ids
+     */
+    public List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) {
+        lock.readLock().lock();
+        try {
+            int first = current.idOf(firstUUID, false);
+            int second = current.idOf(secondUUID, false);
+            if (first < 0 || second < 0) {
+                return new ArrayList<>();
+            }
+            List<UUID> mutualFriends = new ArrayList<>();
+            current.friends.intersect(first, second, id -> mutualFriends.add(current.uuidOf(id)));
+            return mutualFriends;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param playerUUID  the player's UUID
+     * @param othersUUIDs the UUIDs of the other players
+     * @return for each other player, in the same order, the number of friends they have in common with the player
+     */
+    public int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) {
+        int[] counts = new int[othersUUIDs.size()];
+        lock.readLock().lock();
+        try {
+            int player = current.idOf(playerUUID, false);
+            if (player < 0) {
+                return counts;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                int other = current.idOf(othersUUIDs.get(i), false);
+                if (other >= 0) {
+                    int[] count = {0};
+                    current.friends.intersect(player, other, id -> count[0]++);
+                    counts[i] = count[0];
+                }
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives the players in the friends lists of the player's friends, who aren't the player's friends yet.
+     * The friends lists are read in the order of the friends ids until maxScanned entries were read,
+     * so the cost of a call is bounded whatever the number of friends
+     *
+     * @param playerUUID the player's UUID
+     * @param maxScanned the maximum number of friends of friends read
+     * @return the friends of friends, with the number of friends they have in common with the player
+     */
+    public List<Candidate> getFriendsOfFriends(UUID playerUUID, int maxScanned) {
+        lock.readLock().lock();
+        try {
+            int player = current.idOf(playerUUID, false);
+            if (player < 0) {
+                return new ArrayList<>();
+            }
+
+            Adjacency friends = current.friends;
+            int[] playerFriends = friends.listOf(player);
+            int friendCount = friends.size(player);
+            int[] scanned = new int[Math.min(maxScanned, 1024)];
+            int count = 0;
+            for (int i = 0; i < friendCount && count < maxScanned; i++) {
+                int friend = playerFriends[i];
+                int[] friendFriends = friends.listOf(friend);
+                int size = friends.size(friend);
+                for (int j = 0; j < size && count < maxScanned; j++) {
+                    int candidate = friendFriends[j];
+                    if (candidate == player || Arrays.binarySearch(playerFriends, 0, friendCount, candidate) >= 0) {
+                        continue;
+                    }
+                    if (count == scanned.length) {
+                        scanned = Arrays.copyOf(scanned, Math.min(maxScanned, count * 2));
+                    }
+                    scanned[count++] = candidate;
+                }
+            }
+
+            //Each candidate appears once per common friend
+            Arrays.sort(scanned, 0, count);
+            List<Candidate> candidates = new ArrayList<>();
+            int start = 0;
+            for (int i = 1; i <= count; i++) {
+                if (i == count || scanned[i] != scanned[start]) {
+                    candidates.add(new Candidate(current.uuidOf(scanned[start]), i - start));
+                    start = i;
+                }
+            }
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the size of the graph
+     */
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            return new Stats(current.playerCount, current.friends.edgeCount, current.bytes(), loaded);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Players ids and adjacency lists, not thread-safe: guarded by the lock of FriendGraph once it's the current graph
+     */
+    private static final class Graph {
+        /**
+         * The UUID of each id, split in two halves
+         */
+        private long[] mostBits = new long[16];
+        private long[] leastBits = new long[16];
+        private int playerCount = 0;
+
+        /**
+         * Open addressing table from the UUIDs to their id plus one, 0 for an empty slot
+         */
+        private int[] table = new int[32];
+
+        private final Adjacency friends = new Adjacency();
+        private final Adjacency friendedBy = new Adjacency();
+
+        /**
+         * @param create true to give an id to an unknown player
+         * @return the player's id, -1 if they are unknown and create is false
+         */
+        private int idOf(UUID uuid, boolean create) {
+            long most = uuid.getMostSignificantBits();
+            long least = uuid.getLeastSignificantBits();
+            int mask = table.length - 1;
+            int slot = slotOf(most, least, mask);
+            while (table[slot] != 0) {
+                int id = table[slot] - 1;
+                if (mostBits[id] == most && leastBits[id] == least) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!create) {
+                return -1;
+            }
+
+            int id = playerCount++;
+            if (id == mostBits.length) {
+                int capacity = id + (id >> 1);
+                mostBits = Arrays.copyOf(mostBits, capacity);
+                leastBits = Arrays.copyOf(leastBits, capacity);
+            }
+            mostBits[id] = most;
+            leastBits[id] = least;
+            table[slot] = id + 1;
+            friends.ensureCapacity(playerCount);
+            friendedBy.ensureCapacity(playerCount);
+            if (playerCount * 2 > table.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            int[] rehashed = new int[table.length * 2];
+            int mask = rehashed.length - 1;
+            for (int id = 0; id < playerCount; id++) {
+                int slot = slotOf(mostBits[id], leastBits[id], mask);
+                while (rehashed[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                rehashed[slot] = id + 1;
+            }
+            table = rehashed;
+        }
+
+        private static int slotOf(long most, long least, int mask) {
+            long hash = (most ^ least) * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & mask;
+        }
+
+        private UUID uuidOf(int id) {
+            return new UUID(mostBits[id], leastBits[id]);
+        }
+
+        private List<UUID> uuidsOf(Adjacency adjacency, UUID playerUUID) {
+            int player = idOf(playerUUID, false);
+            if (player < 0) {
+                return new ArrayList<>();
+            }
+            int size = adjacency.size(player);
+            int[] ids = adjacency.listOf(player);
+            List<UUID> uuids = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                uuids.add(uuidOf(ids[i]));
+            }
+            return uuids;
+        }
+
+        private void mutate(UUID playerUUID, UUID friendUUID, boolean add) {
+            if (add) {
+                int player = idOf(playerUUID, true);
+                int friend = idOf(friendUUID, true);
+                if (friends.add(player, friend)) {
+                    friendedBy.add(friend, player);
+                }
+                return;
+            }
+
+            int player = idOf(playerUUID, false);
+            int friend = idOf(friendUUID, false);
+            if (player >= 0 && friend >= 0 && friends.remove(player, friend)) {
+                friendedBy.remove(friend, player);
+            }
+        }
+
+        private long bytes() {
+            return 16L * mostBits.length + 4L * table.length + friends.bytes() + friendedBy.bytes();
+        }
+    }
+
+    /**
+     * One sorted int[] per id, which can have a few free slots at its end
+     */
+    private static final class Adjacency {
+        private int[][] lists = new int[16][];
+        private int[] sizes = new int[16];
+        private long edgeCount = 0;
+
+        /**
+         * The memory used by the int[] lists, kept up to date so the stats are cheap
+         */
+        private long listBytes = 0;
+
+        private void ensureCapacity(int ids) {
+            if (ids > lists.length) {
+                int capacity = Math.max(ids, lists.length + (lists.length >> 1));
+                lists = Arrays.copyOf(lists, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+            }
+        }
+
+        private int size(int id) {
+            return sizes[id];
+        }
+
+        private int[] listOf(int id) {
+            int[] list = lists[id];
+            return list == null ? NO_IDS : list;
+        }
+
+        private boolean contains(int id, int value) {
+            return Arrays.binarySearch(listOf(id), 0, sizes[id], value) >= 0;
+        }
+
+        /**
+         * Appends a value without keeping the list sorted nor checking duplicates, see sortAll()
+         */
+        private void append(int id, int value) {
+            int[] list = listOf(id);
+            int size = sizes[id];
+            if (size == list.length) {
+                list = Arrays.copyOf(list, grow(size));
+                replace(id, list);
+            }
+            list[size] = value;
+            sizes[id] = size + 1;
+            edgeCount++;
+        }
+
+        /**
+         * Sorts every list after append() calls, removes the duplicates and the free slots
+         */
+        private void sortAll() {
+            edgeCount = 0;
+            for (int id = 0; id < lists.length; id++) {
+                int[] list = lists[id];
+                if (list == null) {
+                    continue;
+                }
+                int size = sizes[id];
+                Arrays.sort(list, 0, size);
+                int unique = size == 0 ? 0 : 1;
+                for (int i = 1; i < size; i++) {
+                    if (list[i] != list[unique - 1]) {
+                        list[unique++] = list[i];
+                    }
+                }
+                replace(id, unique == list.length ? list : Arrays.copyOf(list, unique));
+                sizes[id] = unique;
+                edgeCount += unique;
+            }
+        }
+
+        /**
+         * @return false if the value was already in the list
+         */
+        private boolean add(int id, int value) {
+            int[] list = listOf(id);
+            int size = sizes[id];
+            int index = Arrays.binarySearch(list, 0, size, value);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+
+            if (size == list.length) {
+                int[] grown = new int[grow(size)];
+                System.arraycopy(list, 0, grown, 0, index);
+                System.arraycopy(list, index, grown, index + 1, size - index);
+                list = grown;
+                replace(id, list);
+            } else {
+                System.arraycopy(list, index, list, index + 1, size - index);
+            }
+            list[index] = value;
+            sizes[id] = size + 1;
+            edgeCount++;
+            return true;
+        }
+
+        /**
+         * @return false if the value wasn't in the list
+         */
+        private boolean remove(int id, int value) {
+            int[] list = listOf(id);
+            int size = sizes[id];
+            int index = Arrays.binarySearch(list, 0, size, value);
+            if (index < 0) {
+                return false;
+            }
+
+            System.arraycopy(list, index + 1, list, index, size - index - 1);
+            size--;
+            sizes[id] = size;
+            edgeCount--;
+            //Gives the memory back when most of the list was removed
+            if (list.length > 8 && size < list.length / 4) {
+                replace(id, size == 0 ? null : Arrays.copyOf(list, grow(size)));
+            }
+            return true;
+        }
+
+        /**
+         * Gives the values in both lists, in increasing order
+         */
+        private void intersect(int first, int second, IntConsumer consumer) {
+            int[] firstList = listOf(first);
+            int[] secondList = listOf(second);
+            int firstSize = sizes[first];
+            int secondSize = sizes[second];
+            int i = 0;
+            int j = 0;
+            while (i < firstSize && j < secondSize) {
+                int a = firstList[i];
+                int b = secondList[j];
+                if (a == b) {
+                    consumer.accept(a);
+                    i++;
+                    j++;
+                } else if (a < b) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+
+        /**
+         * Lists grow by an eighth of their size, so the free slots stay few: most players' lists barely change
+         */
+        private static int grow(int size) {
+            return size + Math.max(2, size >> 3);
+        }
+
+        private void replace(int id, int[] list) {
+            listBytes += bytesOf(list) - bytesOf(lists[id]);
+            lists[id] = list;
+        }
+
+        private static long bytesOf(int[] list) {
+            return list == null ? 0 : 16 + 4L * list.length;
+        }
+
+        private long bytes() {
+            return 12L * lists.length + listBytes;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.grubnest.game.friends.velocity.graph;
+
+import com.grubnest.game.friends.api.ForwardingFriendStore;
+import com.grubnest.game.friends.api.FriendStore;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The FriendGraphStore class keeps a FriendGraph current: every friendship written through it is copied to the graph
+ * once the store accepted it, the friendships of accepted requests included.
+ * Once the graph is loaded, it answers the mutual friends queries and the friends counts,
+ * the other reads still go to the store.
+ * With several proxies, the friendships written through the others are applied by the EdgeInvalidator
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendGraphStore extends ForwardingFriendStore {
+
+    private final FriendGraph graph;
+
+    /**
+     * @param delegate the store receiving the calls
+     * @param graph    the graph to keep current
+     */
+    public FriendGraphStore(FriendStore delegate, FriendGraph graph) {
+        super(delegate);
+        this.graph = graph;
+    }
+
+    @Override
+    public void markAsFriend(UUID playerUUID, UUID friendUUID) throws SQLException {
+        super.markAsFriend(playerUUID, friendUUID);
+        graph.add(playerUUID, friendUUID);
+    }
+
+    @Override
+    public void removeFromFriendDB(UUID playerUUID, UUID friendUUID) throws SQLException {
+        super.removeFromFriendDB(playerUUID, friendUUID);
+        graph.remove(playerUUID, friendUUID);
+    }
+
+    @Override
+    public boolean acceptFriendRequest(UUID senderUUID, UUID receiverUUID, long now) throws SQLException {
+        if (!super.acceptFriendRequest(senderUUID, receiverUUID, now)) {
+            return false;
+        }
+        graph.add(senderUUID, receiverUUID);
+        graph.add(receiverUUID, senderUUID);
+        return true;
+    }
+
+    @Override
+    public int countFriends(UUID playerUUID) throws SQLException {
+        if (!graph.isLoaded()) {
+            return super.countFriends(playerUUID);
+        }
+        return graph.countFriends(playerUUID);
+    }
+
+    @Override
+    public List<UUID> getMutualFriends(UUID firstUUID, UUID secondUUID) throws SQLException {
+        if (!graph.isLoaded()) {
+            return super.getMutualFriends(firstUUID, secondUUID);
+        }
+        return graph.getMutualFriends(firstUUID, secondUUID);
+    }
+
+    @Override
+    public int[] countMutualFriends(UUID playerUUID, List<UUID> othersUUIDs) throws SQLException {
+        if (!graph.isLoaded()) {
+            return super.countMutualFriends(playerUUID, othersUUIDs);
+        }
+        return graph.countMutualFriends(playerUUID, othersUUIDs);
+    }
+
+    @Override
+    public boolean[] apply(List<Mutation> mutations) throws SQLException {
+        boolean[] changed = super.apply(mutations);
+        for (Mutation mutation : mutations) {
+            if (mutation.add()) {
+                graph.add(mutation.playerUUID(), mutation.friendUUID());
+            } else {
+                graph.remove(mutation.playerUUID(), mutation.friendUUID());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the graph kept current by this store
+     */
+    public FriendGraph getGraph() {
+        return graph;
+    }
+}
@@ -0,0 +1,117 @@
+package com.grubnest.game.friends.velocity.graph;
+
+import com.grubnest.game.friends.api.FriendMutationQueue;
+import com.grubnest.game.friends.velocity.presence.PresenceIndex;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The FriendSuggestions class finds the players someone may know: the friends of their friends, ranked by
+ * the number of friends they have in common, then by whether they are playing on the same server.
+ * Suggestions are computed from the FriendGraph, reading a bounded number of friends of friends and keeping
+ * the best ones in a bounded heap. They are cached per player until the player's friends list changes
+ * or they are too old, the friends lists of the player's friends changing only show after that
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendSuggestions implements FriendMutationQueue.Listener {
+
+    /**
+     * A suggested player
+     *
+     * @param playerUUID    the UUID of the suggested player
+     * @param commonFriends the number of friends of the player who have them in their friends list
+     * @param sameServer    true if they are playing on the same server as the player
+     */
+    public record Suggestion(UUID playerUUID, int commonFriends, boolean sameServer) {
+    }
+
+    /**
+     * Best suggestions first
+     */
+    private static final Comparator<Suggestion> RANKING = Comparator.comparingInt(Suggestion::commonFriends)
+            .thenComparing(Suggestion::sameServer)
+            .reversed()
+            .thenComparing(Suggestion::playerUUID);
+
+    private record Entry(List<Suggestion> suggestions, int limit, long computedAt) {
+    }
+
+    private final FriendGraph graph;
+    private final PresenceIndex presenceIndex;
+    private final int maxScanned;
+    private final long maxAgeMillis;
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param graph         the graph the suggestions are computed from
+     * @param presenceIndex the servers of the players
+     * @param maxScanned    the maximum number of friends of friends read per computation
+     * @param maxAgeMillis  the time after which cached suggestions are computed again
+     */
+    public FriendSuggestions(FriendGraph graph, PresenceIndex presenceIndex, int maxScanned, long maxAgeMillis) {
+        this.graph = graph;
+        this.presenceIndex = presenceIndex;
+        this.maxScanned = maxScanned;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @param limit      the maximum number of suggestions
+     * @return the best suggestions first, empty until the graph is loaded
+     */
+    public List<Suggestion> suggest(UUID playerUUID, int limit) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(playerUUID);
+        if (entry != null && entry.limit() >= limit && now - entry.computedAt() < maxAgeMillis) {
+            return entry.suggestions().subList(0, Math.min(limit, entry.suggestions().size()));
+        }
+        if (!graph.isLoaded()) {
+            return List.of();
+        }
+
+        String server = presenceIndex.getServer(playerUUID).orElse(null);
+        //The worst kept suggestion is at the head, replaced as soon as a better one is found
+        PriorityQueue<Suggestion> best = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        for (FriendGraph.Candidate candidate : graph.getFriendsOfFriends(playerUUID, maxScanned)) {
+            boolean sameServer = server != null && server.equals(presenceIndex.getServer(candidate.playerUUID()).orElse(null));
+            best.add(new Suggestion(candidate.playerUUID(), candidate.commonFriends(), sameServer));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        List<Suggestion> suggestions = new ArrayList<>(best);
+        suggestions.sort(RANKING);
+        suggestions = Collections.unmodifiableList(suggestions);
+        entries.put(playerUUID, new Entry(suggestions, limit, now));
+        return suggestions;
+    }
+
+    /**
+     * Removes the suggestions of the player, their friends list changed
+     */
+    @Override
+    public void onAdded(UUID playerUUID, UUID friendUUID) {
+        entries.remove(playerUUID);
+    }
+
+    /**
+     * Removes the suggestions of the player, their friends list changed
+     */
+    @Override
+    public void onRemoved(UUID playerUUID, UUID friendUUID) {
+        entries.remove(playerUUID);
+    }
+
+    /**
+     * Removes the suggestions which are too old, called periodically
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> now - entry.computedAt() >= maxAgeMillis);
+    }
+}
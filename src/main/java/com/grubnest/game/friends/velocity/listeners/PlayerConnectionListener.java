@@ -0,0 +1,72 @@
+package com.grubnest.game.friends.velocity.listeners;
+
+import com.grubnest.game.friends.api.DatabaseExecutor;
+import com.grubnest.game.friends.velocity.FriendsVelocityPlugin;
+import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
+import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.player.ServerConnectedEvent;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The PlayerConnectionListener class keeps the proxy-side data of the plugin up to date when players log in and out
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class PlayerConnectionListener {
+
+    /**
+     * Event handler: marks the player as online, indexes and refreshes their username and skin, and loads their friends
+     * and their pending friend requests (with the names of the other players) into the caches, on the database executor
+     *
+     * @param e PostLoginEvent
+     */
+    @Subscribe
+    public void onPostLogin(PostLoginEvent e) {
+        UUID playerUUID = e.getPlayer().getUniqueId();
+        FriendsVelocityPlugin plugin = FriendsVelocityPlugin.getInstance();
+        plugin.getPresenceIndex().onLogin(playerUUID);
+        plugin.getNameCache().update(playerUUID, e.getPlayer().getUsername());
+        plugin.getOnlineNameIndex().add(playerUUID, e.getPlayer().getUsername());
+        plugin.getSkinCache().update(e.getPlayer().getGameProfile());
+        DatabaseExecutor.getInstance().run(() -> {
+                    plugin.getFriendCache().load(playerUUID);
+                    plugin.getNameCache().getNames(List.copyOf(plugin.getRequestCache().load(playerUUID)));
+                })
+                .exceptionally(error -> {
+                    plugin.getLogger().error("Could not load the friends and friend requests of a player", error);
+                    return null;
+                });
+    }
+
+    /**
+     * Event handler: updates the server the player is playing on
+     *
+     * @param e ServerConnectedEvent
+     */
+    @Subscribe
+    public void onServerConnected(ServerConnectedEvent e) {
+        FriendsVelocityPlugin.getInstance().getPresenceIndex()
+                .onServerConnected(e.getPlayer().getUniqueId(), e.getServer().getServerInfo().getName());
+    }
+
+    /**
+     * Event handler: marks the player as offline, removes them from the completions, stops their GUI subscription
+     * and removes their friends and friend requests from the caches
+     *
+     * @param e DisconnectEvent
+     */
+    @Subscribe
+    public void onDisconnect(DisconnectEvent e) {
+        UUID playerUUID = e.getPlayer().getUniqueId();
+        FriendsVelocityPlugin plugin = FriendsVelocityPlugin.getInstance();
+        plugin.getPresenceIndex().onDisconnect(playerUUID);
+        plugin.getOnlineNameIndex().remove(playerUUID);
+        plugin.getPresenceSubscriptions().unwatch(playerUUID);
+        plugin.getFriendCache().invalidate(playerUUID);
+        plugin.getRequestCache().invalidate(playerUUID);
+    }
+}
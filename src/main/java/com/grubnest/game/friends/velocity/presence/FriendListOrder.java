@@ -0,0 +1,370 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import com.grubnest.game.friends.api.FriendStore;
+import com.grubnest.game.friends.messaging.FriendMessage;
+import com.grubnest.game.friends.velocity.cache.FriendCache;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The FriendListOrder class sorts the friends lists shown in the GUI: online friends first, grouped by server,
+ * then the others, the most recently seen first.
+ * The players connected to the proxy are kept sorted by server as their presence changes, so the online friends
+ * of a player are found without going through their offline friends.
+ * The friends of a player browsing the GUI are kept sorted by last seen time: their times are read once, by primary key,
+ * then every presence change of a friend moves them to the head, and each page brings the order in line with the cached
+ * friends list. Pages are read from memory, the store is never asked to sort a friends list.
+ * Only the friends who marked the player as a friend too are listed as online, the others are listed with the offline ones.
+ * Pages are read with a cursor, a friend whose presence changes between two pages can be listed twice or missed
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class FriendListOrder implements PresenceIndex.Listener {
+
+    /**
+     * A page of a friends list
+     *
+     * @param friendsUUIDs the friends of the page
+     * @param lastSeen     the last time each friend was seen at, 0 for the online friends and the friends never seen
+     * @param next         the cursor of the next page, null if the page is empty
+     */
+    public record Page(List<UUID> friendsUUIDs, List<Long> lastSeen, FriendMessage.PageCursor next) {
+    }
+
+    /**
+     * The place of an online player in the list
+     *
+     * @param server     the label of the server the player is playing on
+     * @param playerUUID the player's UUID
+     */
+    private record Position(String server, UUID playerUUID) {
+    }
+
+    /**
+     * The friends of a player sorted by last seen time, guarded by the FriendListOrder
+     */
+    private static final class SeenOrder {
+        private final NavigableSet<FriendStore.SeenFriend> sorted = new TreeSet<>(FriendStore.LAST_SEEN_ORDER);
+        private final Map<UUID, Long> times = new HashMap<>();
+
+        /**
+         * The friends whose stored time hasn't been read yet, placed at time 0 until it is
+         */
+        private final Set<UUID> unloaded = new HashSet<>();
+        private long lastAccess = System.currentTimeMillis();
+    }
+
+    private static final Comparator<Position> ONLINE_ORDER = Comparator.comparing(Position::server)
+            .thenComparing(Position::playerUUID, FriendStore.PAGE_ORDER);
+
+    private final FriendCache friendCache;
+    private final LastSeenTracker lastSeenTracker;
+
+    /**
+     * The players connected to the proxy, sorted by server
+     */
+    private final NavigableSet<Position> online = new ConcurrentSkipListSet<>(ONLINE_ORDER);
+
+    /**
+     * The current position of every player connected to the proxy
+     */
+    private final Map<UUID, Position> positions = new ConcurrentHashMap<>();
+
+    /**
+     * The last seen order of the friends of the players browsing the GUI, guarded by this
+     */
+    private final Map<UUID, SeenOrder> seenOrders = new HashMap<>();
+
+    /**
+     * The players whose SeenOrder holds a friend, by friend UUID, guarded by this
+     */
+    private final Map<UUID, Set<UUID>> viewersByFriend = new HashMap<>();
+
+    /**
+     * @param friendCache     the friends lists and reverse friends lists of the players
+     * @param lastSeenTracker the last seen times, the ones not written yet included
+     */
+    public FriendListOrder(FriendCache friendCache, LastSeenTracker lastSeenTracker) {
+        this.friendCache = friendCache;
+        this.lastSeenTracker = lastSeenTracker;
+    }
+
+    /**
+     * Moves the player to the position of their new server, or removes them when they leave,
+     * and moves them to the head of the last seen orders holding them
+     */
+    @Override
+    public synchronized void onPresenceChange(UUID playerUUID, String label) {
+        Position position = label.equals(PresenceIndex.OFFLINE) ? null : new Position(label, playerUUID);
+        Position previous = position == null ? positions.remove(playerUUID) : positions.put(playerUUID, position);
+        if (previous != null) {
+            online.remove(previous);
+        }
+        if (position != null) {
+            online.add(position);
+        }
+
+        long now = System.currentTimeMillis();
+        for (UUID viewerUUID : viewersByFriend.getOrDefault(playerUUID, Set.of())) {
+            raise(seenOrders.get(viewerUUID), playerUUID, now);
+        }
+        if (position == null) {
+            drop(playerUUID);
+        }
+    }
+
+    /**
+     * Reads a page of the player's friends list, the online friends first
+     *
+     * @param playerUUID the player's UUID
+     * @param after      the cursor of the previous page, null for the first page
+     * @param limit      the maximum number of friends of the page
+     * @return the page
+     */
+    public Page getPage(UUID playerUUID, FriendMessage.PageCursor after, int limit) throws SQLException {
+        List<UUID> page = new ArrayList<>(limit);
+        List<Long> lastSeen = new ArrayList<>(limit);
+        FriendMessage.PageCursor next = null;
+        Set<UUID> friends = friendCache.viewFriends(playerUUID);
+
+        if (after == null || after.server() != null) {
+            Position from = after == null ? null : new Position(after.server(), after.friendUUID());
+            while (page.size() < limit) {
+                List<Position> candidates = onlineFriendsAfter(friends, from, limit - page.size());
+                if (candidates.isEmpty()) {
+                    break;
+                }
+                Set<UUID> mutuals = friendCache.getFriendedByAmong(playerUUID, candidates.stream().map(Position::playerUUID).toList());
+                for (Position candidate : candidates) {
+                    if (mutuals.contains(candidate.playerUUID())) {
+                        page.add(candidate.playerUUID());
+                        lastSeen.add(0L);
+                        next = new FriendMessage.PageCursor(candidate.server(), 0, candidate.playerUUID());
+                    }
+                }
+                from = candidates.get(candidates.size() - 1);
+            }
+            if (page.size() == limit) {
+                return new Page(page, lastSeen, next);
+            }
+            //The online friends are all listed, the offline ones follow from the start
+            after = null;
+        }
+
+        SeenOrder order = seenOrder(playerUUID, friends);
+        FriendStore.SeenFriend from = after == null ? null : new FriendStore.SeenFriend(after.friendUUID(), after.lastSeen());
+        while (page.size() < limit) {
+            int wanted = limit - page.size();
+            List<FriendStore.SeenFriend> candidates = new ArrayList<>(wanted);
+            synchronized (this) {
+                for (FriendStore.SeenFriend friend : from == null ? order.sorted : order.sorted.tailSet(from, false)) {
+                    candidates.add(friend);
+                    if (candidates.size() == wanted) {
+                        break;
+                    }
+                }
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+
+            Set<UUID> listedOnline = listedOnline(playerUUID, candidates);
+            for (FriendStore.SeenFriend candidate : candidates) {
+                if (!listedOnline.contains(candidate.friendUUID())) {
+                    page.add(candidate.friendUUID());
+                    lastSeen.add(candidate.lastSeen());
+                    next = new FriendMessage.PageCursor(null, candidate.lastSeen(), candidate.friendUUID());
+                }
+            }
+            if (candidates.size() < wanted) {
+                break;
+            }
+            from = candidates.get(wanted - 1);
+        }
+        return new Page(page, lastSeen, next);
+    }
+
+    /**
+     * @return the number of players connected to the proxy
+     */
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * @return the number of players whose friends are kept sorted by last seen time
+     */
+    public synchronized int getOrderCount() {
+        return seenOrders.size();
+    }
+
+    /**
+     * Forgets the last seen orders which haven't been read for longer than idleMillis
+     *
+     * @param idleMillis the time after which an unused order is forgotten
+     */
+    public synchronized void evictIdle(long idleMillis) {
+        long limit = System.currentTimeMillis() - idleMillis;
+        List<UUID> idle = new ArrayList<>();
+        seenOrders.forEach((viewerUUID, order) -> {
+            if (order.lastAccess < limit) {
+                idle.add(viewerUUID);
+            }
+        });
+        idle.forEach(this::drop);
+    }
+
+    /**
+     * Gets the last seen order of the player's friends, building it on the first page read and adding or removing
+     * the friends added or removed since. The times not read yet are read through LastSeenTracker, by primary key,
+     * outside of the lock: a friend seen meanwhile keeps the most recent time
+     *
+     * @param playerUUID the player's UUID
+     * @param friends    the player's friends
+     * @return the order, up to date
+     */
+    private SeenOrder seenOrder(UUID playerUUID, Set<UUID> friends) throws SQLException {
+        SeenOrder order;
+        Set<UUID> toLoad;
+        synchronized (this) {
+            order = seenOrders.get(playerUUID);
+            if (order == null) {
+                order = new SeenOrder();
+                seenOrders.put(playerUUID, order);
+            }
+            if (order.times.size() != friends.size() || !friends.containsAll(order.times.keySet())) {
+                for (UUID friendUUID : List.copyOf(order.times.keySet())) {
+                    if (!friends.contains(friendUUID)) {
+                        untrack(playerUUID, order, friendUUID);
+                    }
+                }
+                for (UUID friendUUID : friends) {
+                    if (!order.times.containsKey(friendUUID)) {
+                        track(playerUUID, order, friendUUID, 0);
+                        order.unloaded.add(friendUUID);
+                    }
+                }
+            }
+            order.lastAccess = System.currentTimeMillis();
+            toLoad = order.unloaded.isEmpty() ? Set.of() : Set.copyOf(order.unloaded);
+        }
+        if (toLoad.isEmpty()) {
+            return order;
+        }
+
+        Map<UUID, Long> times = lastSeenTracker.getLastSeen(toLoad);
+        synchronized (this) {
+            for (UUID friendUUID : toLoad) {
+                if (order.unloaded.remove(friendUUID)) {
+                    raise(order, friendUUID, times.getOrDefault(friendUUID, 0L));
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Adds a friend to an order, called with the lock held
+     */
+    private void track(UUID viewerUUID, SeenOrder order, UUID friendUUID, long time) {
+        order.times.put(friendUUID, time);
+        order.sorted.add(new FriendStore.SeenFriend(friendUUID, time));
+        viewersByFriend.computeIfAbsent(friendUUID, uuid -> new HashSet<>()).add(viewerUUID);
+    }
+
+    /**
+     * Removes a friend from an order, called with the lock held
+     */
+    private void untrack(UUID viewerUUID, SeenOrder order, UUID friendUUID) {
+        Long time = order.times.remove(friendUUID);
+        if (time == null) {
+            return;
+        }
+        order.sorted.remove(new FriendStore.SeenFriend(friendUUID, time));
+        order.unloaded.remove(friendUUID);
+        Set<UUID> viewers = viewersByFriend.get(friendUUID);
+        if (viewers != null && viewers.remove(viewerUUID) && viewers.isEmpty()) {
+            viewersByFriend.remove(friendUUID);
+        }
+    }
+
+    /**
+     * Moves a friend of an order to a more recent time, called with the lock held
+     */
+    private static void raise(SeenOrder order, UUID friendUUID, long time) {
+        Long current = order.times.get(friendUUID);
+        if (current == null || current >= time) {
+            return;
+        }
+        order.sorted.remove(new FriendStore.SeenFriend(friendUUID, current));
+        order.sorted.add(new FriendStore.SeenFriend(friendUUID, time));
+        order.times.put(friendUUID, time);
+    }
+
+    /**
+     * Forgets the last seen order of a player, called with the lock held
+     */
+    private void drop(UUID viewerUUID) {
+        SeenOrder order = seenOrders.remove(viewerUUID);
+        if (order == null) {
+            return;
+        }
+        for (UUID friendUUID : order.times.keySet()) {
+            Set<UUID> viewers = viewersByFriend.get(friendUUID);
+            if (viewers != null && viewers.remove(viewerUUID) && viewers.isEmpty()) {
+                viewersByFriend.remove(friendUUID);
+            }
+        }
+    }
+
+    /**
+     * Finds the next online friends, going through the friends or through the online players, whichever are fewer
+     *
+     * @param friends the player's friends
+     * @param from    the position the friends must follow, null to start from the first one
+     * @param limit   the maximum number of friends found
+     * @return the positions of the online friends following from, in order
+     */
+    private List<Position> onlineFriendsAfter(Set<UUID> friends, Position from, int limit) {
+        if (friends.size() <= positions.size()) {
+            List<Position> onlineFriends = new ArrayList<>();
+            for (UUID friendUUID : friends) {
+                Position position = positions.get(friendUUID);
+                if (position != null) {
+                    onlineFriends.add(position);
+                }
+            }
+            return FriendStore.firstAfter(onlineFriends, from, limit, ONLINE_ORDER);
+        }
+
+        List<Position> onlineFriends = new ArrayList<>(limit);
+        for (Position position : from == null ? online : online.tailSet(from, false)) {
+            if (friends.contains(position.playerUUID())) {
+                onlineFriends.add(position);
+                if (onlineFriends.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return onlineFriends;
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @param friends    some of the player's friends
+     * @return the UUIDs of the given friends who are listed as online, they are skipped with the offline friends
+     */
+    private Set<UUID> listedOnline(UUID playerUUID, List<FriendStore.SeenFriend> friends) throws SQLException {
+        List<UUID> onlineFriends = new ArrayList<>();
+        for (FriendStore.SeenFriend friend : friends) {
+            if (positions.containsKey(friend.friendUUID())) {
+                onlineFriends.add(friend.friendUUID());
+            }
+        }
+        return onlineFriends.isEmpty() ? Set.of() : friendCache.getFriendedByAmong(playerUUID, onlineFriends);
+    }
+}
@@ -0,0 +1,118 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import com.grubnest.game.friends.api.FriendsAPI;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The LastSeenTracker class keeps the last time every player was seen on the proxy: when they log in, switch server
+ * or leave. The times are buffered in memory and written by batches on every flush, a player seen several times
+ * between two flushes is written once: the number of writes doesn't follow the rate of the connections,
+ * e.g. during the logins following a restart. The reads look at the buffer before the store
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class LastSeenTracker implements PresenceIndex.Listener {
+
+    private final int batchSize;
+
+    /**
+     * The times not written yet, by player UUID. A time is removed once written, unless it was replaced meanwhile
+     */
+    private final Map<UUID, Long> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    /**
+     * @param batchSize the maximum number of times written per batch
+     */
+    public LastSeenTracker(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Records the time of every presence change, leaving the proxy included
+     */
+    @Override
+    public void onPresenceChange(UUID playerUUID, String label) {
+        record(playerUUID, System.currentTimeMillis());
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @param time       a time the player was seen at, ignored if an older time than the buffered one
+     */
+    public void record(UUID playerUUID, long time) {
+        pending.merge(playerUUID, time, Math::max);
+    }
+
+    /**
+     * @param playersUUIDs the players' UUIDs
+     * @return the last time each player was seen at, the players who were never seen are missing
+     */
+    public Map<UUID, Long> getLastSeen(Collection<UUID> playersUUIDs) throws SQLException {
+        Map<UUID, Long> lastSeen = new HashMap<>();
+        List<UUID> stored = new ArrayList<>();
+        for (UUID playerUUID : playersUUIDs) {
+            Long time = pending.get(playerUUID);
+            if (time != null) {
+                lastSeen.put(playerUUID, time);
+            } else {
+                stored.add(playerUUID);
+            }
+        }
+        if (!stored.isEmpty()) {
+            lastSeen.putAll(FriendsAPI.getLastSeen(stored));
+        }
+        return lastSeen;
+    }
+
+    /**
+     * Writes the buffered times by batches, on the calling thread. A time stays buffered until its batch is written,
+     * so a failed batch is written again by the next flush. Does nothing if another flush is running
+     *
+     * @return the number of times written
+     */
+    public int flush() throws SQLException {
+        if (!flushing.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            int written = 0;
+            Map<UUID, Long> batch = new HashMap<>();
+            for (Map.Entry<UUID, Long> entry : pending.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() == batchSize) {
+                    written += write(batch);
+                }
+            }
+            return written + write(batch);
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * @return the number of times waiting for the next flush
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes a batch, then removes its times from the buffer and clears it
+     */
+    private int write(Map<UUID, Long> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        FriendsAPI.setLastSeen(batch);
+        batch.forEach(pending::remove);
+        int written = batch.size();
+        batch.clear();
+        return written;
+    }
+}
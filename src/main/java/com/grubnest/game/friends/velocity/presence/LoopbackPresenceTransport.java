@@ -0,0 +1,60 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The LoopbackPresenceTransport class connects the proxies running in the same process, for tests:
+ * a message published by a proxy is given to the other proxies of its bus on the publishing thread
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class LoopbackPresenceTransport implements PresenceTransport {
+
+    /**
+     * The transports connected together
+     */
+    public static final class Bus {
+        private final List<LoopbackPresenceTransport> members = new CopyOnWriteArrayList<>();
+    }
+
+    private final Bus bus;
+    private volatile Receiver receiver;
+
+    /**
+     * @param bus the bus of the proxies this one is connected to
+     */
+    public LoopbackPresenceTransport(Bus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Joins the bus, the proxies already on it are told a new proxy is reachable
+     */
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        bus.members.add(this);
+        for (LoopbackPresenceTransport member : bus.members) {
+            if (member != this) {
+                member.receiver.onPeerConnected();
+                receiver.onPeerConnected();
+            }
+        }
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        for (LoopbackPresenceTransport member : bus.members) {
+            if (member != this) {
+                member.receiver.onMessage(message);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        bus.members.remove(this);
+    }
+}
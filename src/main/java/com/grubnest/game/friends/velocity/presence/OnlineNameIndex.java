@@ -0,0 +1,108 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The OnlineNameIndex class keeps the usernames of the players connected to the proxy sorted,
+ * so the commands can complete a name prefix without going through every player
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class OnlineNameIndex {
+
+    /**
+     * An online player
+     *
+     * @param name the player's username
+     * @param uuid the player's UUID
+     */
+    private record OnlinePlayer(String name, UUID uuid) {
+    }
+
+    /**
+     * Online players by lower case username
+     */
+    private final NavigableMap<String, OnlinePlayer> byName = new ConcurrentSkipListMap<>();
+
+    /**
+     * Usernames by UUID
+     */
+    private final Map<UUID, String> byUUID = new ConcurrentHashMap<>();
+
+    /**
+     * Called when a player logs in to the proxy
+     *
+     * @param playerUUID the player's UUID
+     * @param username   the player's username
+     */
+    public void add(UUID playerUUID, String username) {
+        byName.put(key(username), new OnlinePlayer(username, playerUUID));
+        byUUID.put(playerUUID, username);
+    }
+
+    /**
+     * Called when a player leaves the proxy
+     *
+     * @param playerUUID the player's UUID
+     */
+    public void remove(UUID playerUUID) {
+        String username = byUUID.remove(playerUUID);
+        if (username != null) {
+            byName.remove(key(username), new OnlinePlayer(username, playerUUID));
+        }
+    }
+
+    /**
+     * Completes a username prefix with the online players. The ranked players come first,
+     * then the others in alphabetical order
+     *
+     * @param prefix   the beginning of the username, case-insensitive
+     * @param limit    the maximum number of usernames returned
+     * @param ranked   the players to suggest first
+     * @param excluded the players never suggested
+     * @return the matching usernames
+     */
+    public List<String> complete(String prefix, int limit, Set<UUID> ranked, Set<UUID> excluded) {
+        String start = key(prefix);
+        List<String> result = new ArrayList<>();
+
+        List<String> first = new ArrayList<>();
+        for (UUID uuid : ranked) {
+            String username = byUUID.get(uuid);
+            if (username != null && !excluded.contains(uuid) && key(username).startsWith(start)) {
+                first.add(username);
+            }
+        }
+        first.sort(String.CASE_INSENSITIVE_ORDER);
+        for (String username : first) {
+            if (result.size() >= limit) {
+                return result;
+            }
+            result.add(username);
+        }
+
+        for (OnlinePlayer player : byName.tailMap(start, true).values()) {
+            if (result.size() >= limit || !key(player.name()).startsWith(start)) {
+                break;
+            }
+            if (!ranked.contains(player.uuid()) && !excluded.contains(player.uuid())) {
+                result.add(player.name());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of online players
+     */
+    public int size() {
+        return byUUID.size();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
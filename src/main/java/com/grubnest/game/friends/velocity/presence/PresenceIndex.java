@@ -0,0 +1,246 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The PresenceIndex class knows which server every player connected to the network is playing on.
+ * It's kept up to date by the connection events for the players of this proxy, and by PresenceSync for the players
+ * of the other proxies, and tells its listeners about every change.
+ * The players of this proxy always win: a player can't be connected to another proxy as long as they are connected here.
+ * The claim of another proxy on a player still connected here is kept until the player leaves, as the proxy's
+ * messages may arrive before the disconnection, and applied then
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class PresenceIndex {
+
+    /**
+     * Label shown for players who aren't connected
+     */
+    public static final String OFFLINE = "Offline";
+
+    /**
+     * Label shown for players connected to the proxy but not to a server yet
+     */
+    public static final String UNKNOWN_SERVER = "Unknown server";
+
+    /**
+     * Receives the presence changes
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param playerUUID the UUID of the player whose presence changed
+         * @param label      the new label of the player: a server name, OFFLINE or UNKNOWN_SERVER
+         */
+        void onPresenceChange(UUID playerUUID, String label);
+    }
+
+    /**
+     * Server name by player UUID, an empty name means the player isn't connected to a server yet.
+     * Holds the players of every proxy
+     */
+    private final Map<UUID, String> servers = new ConcurrentHashMap<>();
+
+    /**
+     * The id of the proxy each player of another proxy is connected to, the players of this proxy aren't in it
+     */
+    private final Map<UUID, String> remoteProxies = new ConcurrentHashMap<>();
+
+    /**
+     * The last claim of another proxy on each player still connected to this proxy, guarded by the index
+     */
+    private final Map<UUID, Claim> shadowedClaims = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Listener> localListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param listener receives every change from now on
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener receives the changes of the players of this proxy only, from now on
+     */
+    public void addLocalListener(Listener listener) {
+        localListeners.add(listener);
+    }
+
+    /**
+     * Called when a player logs in to the proxy
+     *
+     * @param playerUUID the player's UUID
+     */
+    public synchronized void onLogin(UUID playerUUID) {
+        shadowedClaims.remove(playerUUID);
+        boolean wasRemote = remoteProxies.remove(playerUUID) != null;
+        if (servers.putIfAbsent(playerUUID, "") == null || wasRemote) {
+            servers.put(playerUUID, "");
+            notifyListeners(playerUUID, UNKNOWN_SERVER, true);
+        }
+    }
+
+    /**
+     * Called when a player is connected to a server
+     *
+     * @param playerUUID the player's UUID
+     * @param server     the server's name
+     */
+    public synchronized void onServerConnected(UUID playerUUID, String server) {
+        boolean wasRemote = remoteProxies.remove(playerUUID) != null;
+        if (!server.equals(servers.put(playerUUID, server)) || wasRemote) {
+            notifyListeners(playerUUID, server, true);
+        }
+    }
+
+    /**
+     * Called when a player leaves the proxy. Ignored if another proxy already told the player joined it.
+     * If another proxy claimed the player while they were still here, the player moves to that proxy instead of going offline
+     *
+     * @param playerUUID the player's UUID
+     */
+    public synchronized void onDisconnect(UUID playerUUID) {
+        if (remoteProxies.containsKey(playerUUID) || !servers.containsKey(playerUUID)) {
+            return;
+        }
+
+        Claim claim = shadowedClaims.remove(playerUUID);
+        if (claim == null) {
+            servers.remove(playerUUID);
+            notifyListeners(playerUUID, OFFLINE, true);
+            return;
+        }
+        remoteProxies.put(playerUUID, claim.proxyId());
+        servers.put(playerUUID, claim.label().equals(UNKNOWN_SERVER) ? "" : claim.label());
+        notifyListeners(playerUUID, claim.label(), false);
+        for (Listener listener : localListeners) {
+            listener.onPresenceChange(playerUUID, OFFLINE);
+        }
+    }
+
+    /**
+     * Applies a presence change of a player of another proxy. Kept for later if the player is connected to this proxy,
+     * ignored if they left a proxy they had already left for another one
+     *
+     * @param proxyId    the id of the other proxy
+     * @param playerUUID the player's UUID
+     * @param label      the new label of the player: a server name, OFFLINE or UNKNOWN_SERVER
+     */
+    public synchronized void applyRemote(String proxyId, UUID playerUUID, String label) {
+        if (label.equals(OFFLINE)) {
+            Claim claim = shadowedClaims.get(playerUUID);
+            if (claim != null && claim.proxyId().equals(proxyId)) {
+                shadowedClaims.remove(playerUUID);
+            }
+            if (remoteProxies.remove(playerUUID, proxyId)) {
+                servers.remove(playerUUID);
+                notifyListeners(playerUUID, OFFLINE, false);
+            }
+            return;
+        }
+        if (servers.containsKey(playerUUID) && !remoteProxies.containsKey(playerUUID)) {
+            shadowedClaims.put(playerUUID, new Claim(proxyId, label));
+            return;
+        }
+
+        remoteProxies.put(playerUUID, proxyId);
+        String server = label.equals(UNKNOWN_SERVER) ? "" : label;
+        if (!server.equals(servers.put(playerUUID, server))) {
+            notifyListeners(playerUUID, label, false);
+        }
+    }
+
+    /**
+     * Replaces the players of another proxy with a full list of them, the players missing from it left the proxy
+     *
+     * @param proxyId the id of the other proxy
+     * @param labels  the label of every player connected to the other proxy, by UUID
+     */
+    public synchronized void replaceRemote(String proxyId, Map<UUID, String> labels) {
+        List<UUID> left = new ArrayList<>();
+        remoteProxies.forEach((playerUUID, id) -> {
+            if (id.equals(proxyId) && !labels.containsKey(playerUUID)) {
+                left.add(playerUUID);
+            }
+        });
+        shadowedClaims.forEach((playerUUID, claim) -> {
+            if (claim.proxyId().equals(proxyId) && !labels.containsKey(playerUUID)) {
+                left.add(playerUUID);
+            }
+        });
+        for (UUID playerUUID : left) {
+            applyRemote(proxyId, playerUUID, OFFLINE);
+        }
+        labels.forEach((playerUUID, label) -> applyRemote(proxyId, playerUUID, label));
+    }
+
+    /**
+     * @return the label of every player connected to this proxy, by UUID
+     */
+    public synchronized Map<UUID, String> getLocalLabels() {
+        Map<UUID, String> labels = new HashMap<>();
+        servers.forEach((playerUUID, server) -> {
+            if (!remoteProxies.containsKey(playerUUID)) {
+                labels.put(playerUUID, server.isEmpty() ? UNKNOWN_SERVER : server);
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the name of the server the player is playing on, empty if they are offline or not on a server yet
+     */
+    public Optional<String> getServer(UUID playerUUID) {
+        String server = servers.get(playerUUID);
+        return server == null || server.isEmpty() ? Optional.empty() : Optional.of(server);
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return true if the player is connected to the network
+     */
+    public boolean isOnline(UUID playerUUID) {
+        return servers.containsKey(playerUUID);
+    }
+
+    /**
+     * @param playerUUID the player's UUID
+     * @return the label shown in the GUI: the server name, OFFLINE or UNKNOWN_SERVER
+     */
+    public String getLabel(UUID playerUUID) {
+        String server = servers.get(playerUUID);
+        if (server == null) {
+            return OFFLINE;
+        }
+        return server.isEmpty() ? UNKNOWN_SERVER : server;
+    }
+
+    /**
+     * A presence change of a player of another proxy
+     *
+     * @param proxyId the id of the other proxy
+     * @param label   the label of the player on the other proxy: a server name or UNKNOWN_SERVER
+     */
+    private record Claim(String proxyId, String label) {
+    }
+
+    /**
+     * Tells the listeners about a change, under the lock of the index so they receive the changes of a player in order
+     */
+    private void notifyListeners(UUID playerUUID, String label, boolean local) {
+        for (Listener listener : listeners) {
+            listener.onPresenceChange(playerUUID, label);
+        }
+        if (local) {
+            for (Listener listener : localListeners) {
+                listener.onPresenceChange(playerUUID, label);
+            }
+        }
+    }
+}
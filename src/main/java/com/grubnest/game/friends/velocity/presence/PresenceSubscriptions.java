@@ -0,0 +1,110 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import com.grubnest.game.friends.messaging.FriendMessage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The PresenceSubscriptions class remembers which friends each opened GUI is currently showing,
+ * and sends the GUI an update when one of these friends joins, leaves or switches server.
+ * Only friends who marked the viewer as a friend too can be watched, the others are shown as "Hidden"
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class PresenceSubscriptions implements PresenceIndex.Listener {
+
+    private final PresenceIndex presenceIndex;
+
+    /**
+     * Sends a message to the server a player is playing on
+     */
+    private final BiConsumer<UUID, FriendMessage> sender;
+
+    /**
+     * The watched friends, by viewer
+     */
+    private final Map<UUID, Set<UUID>> watchedByViewer = new ConcurrentHashMap<>();
+
+    /**
+     * The viewers watching a friend, by friend
+     */
+    private final Map<UUID, Set<UUID>> viewersByFriend = new ConcurrentHashMap<>();
+
+    /**
+     * @param presenceIndex the presence index
+     * @param sender        sends a message to the server a player is playing on
+     */
+    public PresenceSubscriptions(PresenceIndex presenceIndex, BiConsumer<UUID, FriendMessage> sender) {
+        this.presenceIndex = presenceIndex;
+        this.sender = sender;
+    }
+
+    /**
+     * Replaces the friends watched by the viewer, then sends the viewer the current presence of these friends
+     *
+     * @param viewerUUID   the UUID of the player viewing the GUI
+     * @param friendsUUIDs the friends to watch
+     */
+    public void watch(UUID viewerUUID, Collection<UUID> friendsUUIDs) {
+        unwatch(viewerUUID);
+
+        Set<UUID> watched = ConcurrentHashMap.newKeySet();
+        watched.addAll(friendsUUIDs);
+        watchedByViewer.put(viewerUUID, watched);
+        for (UUID friendUUID : watched) {
+            viewersByFriend.computeIfAbsent(friendUUID, uuid -> ConcurrentHashMap.newKeySet()).add(viewerUUID);
+        }
+
+        List<UUID> friends = new ArrayList<>(watched);
+        List<String> labels = new ArrayList<>(friends.size());
+        for (UUID friendUUID : friends) {
+            labels.add(presenceIndex.getLabel(friendUUID));
+        }
+        sender.accept(viewerUUID, new FriendMessage.PresenceUpdate(viewerUUID, friends, labels));
+    }
+
+    /**
+     * Stops sending updates to the viewer, when their GUI is closed or when they leave
+     *
+     * @param viewerUUID the UUID of the player viewing the GUI
+     */
+    public void unwatch(UUID viewerUUID) {
+        Set<UUID> watched = watchedByViewer.remove(viewerUUID);
+        if (watched == null) {
+            return;
+        }
+        for (UUID friendUUID : watched) {
+            viewersByFriend.computeIfPresent(friendUUID, (uuid, viewers) -> {
+                viewers.remove(viewerUUID);
+                return viewers.isEmpty() ? null : viewers;
+            });
+        }
+    }
+
+    /**
+     * @return the number of GUIs currently watching friends
+     */
+    public int getViewerCount() {
+        return watchedByViewer.size();
+    }
+
+    /**
+     * Sends the new presence of the player to every viewer watching them
+     *
+     * @param playerUUID the UUID of the player whose presence changed
+     * @param label      the new label of the player
+     */
+    @Override
+    public void onPresenceChange(UUID playerUUID, String label) {
+        Set<UUID> viewers = viewersByFriend.get(playerUUID);
+        if (viewers == null) {
+            return;
+        }
+        for (UUID viewerUUID : viewers) {
+            sender.accept(viewerUUID, new FriendMessage.PresenceUpdate(viewerUUID, List.of(playerUUID), List.of(label)));
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import com.grubnest.game.friends.messaging.PresenceSyncCodec;
+import com.grubnest.game.friends.messaging.PresenceSyncMessage;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The PresenceSync class shares the presence of the players of this proxy with the other proxies of the network,
+ * and applies theirs to the PresenceIndex, so every proxy knows where every player is without asking the others.
+ * The changes of the local players are coalesced by player and published by batches every deltaMillis (or as soon as
+ * batchSize players changed), and the full list of the local players is published every snapshotMillis and to every
+ * newly reachable proxy: a proxy which missed some batches is consistent again after the next snapshot.
+ * The players of a proxy which hasn't published anything for expiryMillis are considered offline.
+ * The pairs of players whose friendships or requests changed through this proxy are published along the batches,
+ * so the other proxies can read them again. They aren't part of the snapshots: an edge missed by a proxy
+ * is only caught up with when its caches expire
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class PresenceSync implements PresenceIndex.Listener {
+
+    /**
+     * Receives the pairs of players whose friendships or requests changed through another proxy
+     */
+    @FunctionalInterface
+    public interface EdgeListener {
+        /**
+         * Called from the transport's threads, the listener shouldn't query the database on them
+         *
+         * @param playerUUID the UUID of a player
+         * @param otherUUID  the UUID of the other player of the pair
+         */
+        void onRemoteEdge(UUID playerUUID, UUID otherUUID);
+    }
+
+    /**
+     * A pair of players whose friendships or requests changed
+     */
+    private record Edge(UUID playerUUID, UUID otherUUID) {
+    }
+
+    /**
+     * What this proxy knows about another proxy
+     *
+     * @param epoch    the time the other proxy started at
+     * @param sequence the number of the last message applied
+     * @param heardAt  the time the last message was received at
+     */
+    private record Peer(long epoch, long sequence, long heardAt) {
+    }
+
+    private final String proxyId;
+    private final long epoch = System.currentTimeMillis();
+    private final PresenceIndex presenceIndex;
+    private final PresenceTransport transport;
+    private final int batchSize;
+    private final long deltaMillis;
+    private final long snapshotMillis;
+    private final long expiryMillis;
+    private final Logger logger;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final List<EdgeListener> edgeListeners = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+
+    /**
+     * The last label of every local player who changed since the previous batch, guarded by lock
+     */
+    private Map<UUID, String> pending = new LinkedHashMap<>();
+
+    /**
+     * The pairs of players changed since the previous batch, guarded by lock
+     */
+    private Set<Edge> pendingEdges = new LinkedHashSet<>();
+    private long sequence = 0;
+    private boolean flushRequested = false;
+
+    /**
+     * @param proxyId        the id of this proxy, unique in the network
+     * @param presenceIndex  the presence index, the changes of the other proxies are applied to it
+     * @param transport      carries the messages between the proxies
+     * @param batchSize      the number of changes published per batch, a batch is published as soon as this many players changed
+     * @param deltaMillis    the maximum time a change waits before being published
+     * @param snapshotMillis the time between two snapshots
+     * @param expiryMillis   the time after which the players of a silent proxy are considered offline
+     * @param logger         logs the failures
+     */
+    public PresenceSync(String proxyId, PresenceIndex presenceIndex, PresenceTransport transport, int batchSize, long deltaMillis,
+                        long snapshotMillis, long expiryMillis, Logger logger) {
+        this.proxyId = proxyId;
+        this.presenceIndex = presenceIndex;
+        this.transport = transport;
+        this.batchSize = Math.max(1, batchSize);
+        this.deltaMillis = deltaMillis;
+        this.snapshotMillis = snapshotMillis;
+        this.expiryMillis = Math.max(expiryMillis, snapshotMillis * 2);
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "GrubnestFriends-PresenceSync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the transport and schedules the batches, the snapshots and the expiry of the silent proxies.
+     * Everything is published from a single thread, in the order of the sequence numbers
+     */
+    public void start() throws IOException {
+        transport.start(new PresenceTransport.Receiver() {
+            @Override
+            public void onMessage(byte[] message) {
+                receive(message);
+            }
+
+            @Override
+            public void onPeerConnected() {
+                try {
+                    scheduler.execute(PresenceSync.this::publishSnapshot);
+                } catch (RejectedExecutionException e) {
+                    //Shutting down
+                }
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::publishDeltas, deltaMillis, deltaMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::publishSnapshot, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::expirePeers, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the change of a local player for the next batch, replacing their previous change
+     */
+    @Override
+    public void onPresenceChange(UUID playerUUID, String label) {
+        synchronized (lock) {
+            pending.put(playerUUID, label);
+            requestFlushIfFull();
+        }
+    }
+
+    /**
+     * @param listener receives the pairs of players changed through the other proxies, from now on
+     */
+    public void addEdgeListener(EdgeListener listener) {
+        edgeListeners.add(listener);
+    }
+
+    /**
+     * Queues a pair of players whose friendships or requests changed through this proxy for the next batch
+     *
+     * @param playerUUID the UUID of a player
+     * @param otherUUID  the UUID of the other player of the pair
+     */
+    public void publishEdge(UUID playerUUID, UUID otherUUID) {
+        synchronized (lock) {
+            pendingEdges.add(new Edge(playerUUID, otherUUID));
+            requestFlushIfFull();
+        }
+    }
+
+    /**
+     * Publishes the next batch right away once it's full, called with the lock held
+     */
+    private void requestFlushIfFull() {
+        if (pending.size() + pendingEdges.size() >= batchSize && !flushRequested) {
+            flushRequested = true;
+            try {
+                scheduler.execute(this::publishDeltas);
+            } catch (RejectedExecutionException e) {
+                //Shutting down, the last batch is published by shutdown()
+            }
+        }
+    }
+
+    /**
+     * Publishes the last batch and an empty snapshot, so the other proxies don't wait for the expiry
+     * to consider the players of this proxy offline, then closes the transport
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publishDeltas();
+        byte[] message;
+        synchronized (lock) {
+            message = PresenceSyncCodec.encode(message(PresenceSyncMessage.Kind.SNAPSHOT, Map.of()));
+        }
+        transport.publish(message);
+        transport.close();
+    }
+
+    /**
+     * @return the number of other proxies heard from recently
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    /**
+     * @return the number of local players and pairs of players whose change is waiting for the next batch
+     */
+    public int size() {
+        synchronized (lock) {
+            return pending.size() + pendingEdges.size();
+        }
+    }
+
+    private void publishDeltas() {
+        List<byte[]> messages = new ArrayList<>(2);
+        synchronized (lock) {
+            flushRequested = false;
+            if (!pending.isEmpty()) {
+                messages.add(PresenceSyncCodec.encode(message(PresenceSyncMessage.Kind.DELTA, pending)));
+                pending = new LinkedHashMap<>();
+            }
+            if (!pendingEdges.isEmpty()) {
+                messages.add(PresenceSyncCodec.encode(edgesMessage(pendingEdges)));
+                pendingEdges = new LinkedHashSet<>();
+            }
+        }
+        for (byte[] message : messages) {
+            transport.publish(message);
+        }
+    }
+
+    /**
+     * Publishes the labels of every local player. The changes made meanwhile are also in the next batch,
+     * which is applied after the snapshot
+     */
+    private void publishSnapshot() {
+        //Read before taking the lock: the index calls onPresenceChange() while holding its own
+        Map<UUID, String> labels = presenceIndex.getLocalLabels();
+        byte[] message;
+        synchronized (lock) {
+            message = PresenceSyncCodec.encode(message(PresenceSyncMessage.Kind.SNAPSHOT, labels));
+        }
+        transport.publish(message);
+    }
+
+    /**
+     * Builds the next message of this proxy, called with the lock held
+     */
+    private PresenceSyncMessage message(PresenceSyncMessage.Kind kind, Map<UUID, String> labels) {
+        return new PresenceSyncMessage(kind, proxyId, epoch, ++sequence, new ArrayList<>(labels.keySet()), new ArrayList<>(labels.values()),
+                List.of());
+    }
+
+    /**
+     * Builds the next edges message of this proxy, called with the lock held
+     */
+    private PresenceSyncMessage edgesMessage(Collection<Edge> edges) {
+        List<UUID> playersUUIDs = new ArrayList<>(edges.size());
+        List<UUID> othersUUIDs = new ArrayList<>(edges.size());
+        for (Edge edge : edges) {
+            playersUUIDs.add(edge.playerUUID());
+            othersUUIDs.add(edge.otherUUID());
+        }
+        return new PresenceSyncMessage(PresenceSyncMessage.Kind.EDGES, proxyId, epoch, ++sequence, playersUUIDs, List.of(), othersUUIDs);
+    }
+
+    /**
+     * Applies a message of another proxy, unless it was already applied or comes from a previous run of the proxy.
+     * A proxy which restarted lost all its players
+     */
+    private synchronized void receive(byte[] data) {
+        Optional<PresenceSyncMessage> decoded = PresenceSyncCodec.decode(data);
+        if (decoded.isEmpty()) {
+            logger.warn("Received an unknown or malformed presence message");
+            return;
+        }
+        PresenceSyncMessage message = decoded.get();
+        if (message.proxyId().equals(proxyId)) {
+            return;
+        }
+
+        Peer peer = peers.get(message.proxyId());
+        if (peer != null && (message.epoch() < peer.epoch() || (message.epoch() == peer.epoch() && message.sequence() <= peer.sequence()))) {
+            return;
+        }
+        if (peer != null && message.epoch() > peer.epoch()) {
+            presenceIndex.replaceRemote(message.proxyId(), Map.of());
+        }
+
+        if (message.kind() == PresenceSyncMessage.Kind.SNAPSHOT) {
+            Map<UUID, String> labels = new HashMap<>();
+            for (int i = 0; i < message.playersUUIDs().size(); i++) {
+                labels.put(message.playersUUIDs().get(i), message.labels().get(i));
+            }
+            presenceIndex.replaceRemote(message.proxyId(), labels);
+        } else if (message.kind() == PresenceSyncMessage.Kind.EDGES) {
+            for (int i = 0; i < message.playersUUIDs().size(); i++) {
+                for (EdgeListener listener : edgeListeners) {
+                    listener.onRemoteEdge(message.playersUUIDs().get(i), message.othersUUIDs().get(i));
+                }
+            }
+        } else {
+            for (int i = 0; i < message.playersUUIDs().size(); i++) {
+                presenceIndex.applyRemote(message.proxyId(), message.playersUUIDs().get(i), message.labels().get(i));
+            }
+        }
+        peers.put(message.proxyId(), new Peer(message.epoch(), message.sequence(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Forgets the proxies which haven't published anything for expiryMillis, their players are now offline
+     */
+    private synchronized void expirePeers() {
+        long now = System.currentTimeMillis();
+        peers.entrySet().removeIf(entry -> {
+            if (now - entry.getValue().heardAt() < expiryMillis) {
+                return false;
+            }
+            logger.warn("The proxy " + entry.getKey() + " hasn't shared the presence of its players for " + expiryMillis
+                    + " ms, they are now considered offline");
+            presenceIndex.replaceRemote(entry.getKey(), Map.of());
+            return true;
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import java.io.IOException;
+
+/**
+ * The PresenceTransport interface carries the presence messages of PresenceSync between the proxies of the network.
+ * A message is delivered at most once to every other proxy, the messages of a proxy are received in the order
+ * they were published. Messages can be lost while a proxy is unreachable, the snapshots make up for them
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public interface PresenceTransport {
+
+    /**
+     * Receives what the transport gets from the other proxies, called from the transport's threads
+     */
+    interface Receiver {
+        /**
+         * @param message a message published by another proxy
+         */
+        void onMessage(byte[] message);
+
+        /**
+         * Called when another proxy becomes reachable: it may have missed the previous messages
+         */
+        void onPeerConnected();
+    }
+
+    /**
+     * Starts receiving the messages of the other proxies
+     *
+     * @param receiver receives the messages
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Sends a message to every other proxy, without waiting for it to be delivered
+     *
+     * @param message the message
+     */
+    void publish(byte[] message);
+
+    /**
+     * Sends what is still waiting to be sent if it can be done quickly, then stops
+     */
+    void close();
+}
@@ -0,0 +1,80 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import com.grubnest.game.friends.config.FriendsConfig;
+import org.slf4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The PresenceTransports class creates the transport of PresenceSync selected by the config
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public final class PresenceTransports {
+
+    /**
+     * The bus of the proxies started in this process with "sync.transport=loopback"
+     */
+    private static final LoopbackPresenceTransport.Bus LOOPBACK_BUS = new LoopbackPresenceTransport.Bus();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private PresenceTransports() {
+    }
+
+    /**
+     * Creates the transport selected by "sync.transport": "none" (a single proxy), "tcp" (every proxy connects to the others)
+     * or "loopback" (the proxies running in the same process, for tests)
+     *
+     * @param config the plugin's config
+     * @param logger logs the connections and the failures
+     * @return the new transport, not started yet, empty if the presence isn't shared
+     * @throws IllegalArgumentException if the type is unknown or a peer address is invalid
+     */
+    public static Optional<PresenceTransport> create(FriendsConfig config, Logger logger) {
+        String type = config.getString("sync.transport", "none").toLowerCase(Locale.ROOT);
+        return switch (type) {
+            case "none" -> Optional.empty();
+            case "loopback" -> Optional.of(new LoopbackPresenceTransport(LOOPBACK_BUS));
+            case "tcp" -> Optional.of(new TcpPresenceTransport(
+                    new InetSocketAddress(config.getString("sync.tcp.bind", "0.0.0.0"), config.getInt("sync.tcp.port", 25590)),
+                    parseAddresses(config.getString("sync.tcp.peers", "")),
+                    config.getString("sync.tcp.secret", ""),
+                    config.getInt("sync.tcp.queue-capacity", 1000),
+                    config.getLong("sync.tcp.reconnect-millis", 5000),
+                    logger
+            ));
+            default -> throw new IllegalArgumentException("Unknown presence transport: " + type);
+        };
+    }
+
+    /**
+     * @param addresses addresses as host:port, separated by commas
+     * @return the addresses, unresolved until used
+     */
+    private static List<InetSocketAddress> parseAddresses(String addresses) {
+        List<InetSocketAddress> parsed = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            address = address.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid peer address, expected host:port: " + address);
+            }
+            try {
+                parsed.add(InetSocketAddress.createUnresolved(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid peer address, expected host:port: " + address, e);
+            }
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,257 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * The TcpPresenceTransport class connects every proxy to the other ones with plain TCP connections.
+ * Each proxy listens for the connections of the others and connects to each of them: it publishes on the connections
+ * it opened and receives on the connections it accepted. A connection starts with the shared secret, the connections
+ * presenting another one are closed. Messages are sent as frames prefixed by their length, the messages published
+ * while a proxy is unreachable are dropped beyond queueCapacity and the broken connections are opened again every reconnectMillis
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+public class TcpPresenceTransport implements PresenceTransport {
+
+    /**
+     * Upper bound of a frame, protects against corrupted streams
+     */
+    private static final int MAX_FRAME_LENGTH = 32 << 20;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Time given to an accepted connection to present the secret
+     */
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+    private final InetSocketAddress bindAddress;
+    private final List<Peer> peers;
+    private final byte[] secret;
+    private final long reconnectMillis;
+    private final Logger logger;
+    private final Set<Socket> acceptedSockets = ConcurrentHashMap.newKeySet();
+    private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "GrubnestFriends-PresenceTransport");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ServerSocket serverSocket;
+    private volatile Receiver receiver;
+    private volatile boolean closed = false;
+
+    /**
+     * @param bindAddress     the address the connections of the other proxies are accepted on
+     * @param peersAddresses  the addresses the other proxies listen on
+     * @param secret          the secret shared by the proxies of the network
+     * @param queueCapacity   the maximum number of messages waiting to be sent to a proxy
+     * @param reconnectMillis the time between two attempts to connect to an unreachable proxy
+     * @param logger          logs the connections and the failures
+     */
+    public TcpPresenceTransport(InetSocketAddress bindAddress, List<InetSocketAddress> peersAddresses, String secret,
+                                int queueCapacity, long reconnectMillis, Logger logger) {
+        this.bindAddress = bindAddress;
+        this.peers = peersAddresses.stream().map(address -> new Peer(address, queueCapacity)).toList();
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.reconnectMillis = reconnectMillis;
+        this.logger = logger;
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        this.receiver = receiver;
+        if (secret.length == 0) {
+            logger.warn("No sync.tcp.secret is set, anything reaching port " + bindAddress.getPort() + " can change the presence of the players");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        threads.execute(this::acceptConnections);
+        for (Peer peer : peers) {
+            threads.execute(peer::sendMessages);
+        }
+    }
+
+    /**
+     * Queues the message for every other proxy, dropping the oldest queued message of a proxy whose queue is full
+     */
+    @Override
+    public void publish(byte[] message) {
+        for (Peer peer : peers) {
+            while (!peer.queue.offer(message)) {
+                peer.queue.poll();
+            }
+        }
+    }
+
+    /**
+     * Gives a second to the queued messages, then closes every connection
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        acceptedSockets.forEach(TcpPresenceTransport::closeQuietly);
+        threads.shutdown();
+        try {
+            if (!threads.awaitTermination(1, TimeUnit.SECONDS)) {
+                peers.forEach(peer -> closeQuietly(peer.socket));
+                threads.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accepts the connections of the other proxies until the transport is closed
+     */
+    private void acceptConnections() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                acceptedSockets.add(socket);
+                threads.execute(() -> receiveMessages(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Could not accept a connection of another proxy", e);
+                }
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks the secret presented by an accepted connection, then reads its messages until it's closed
+     */
+    private void receiveMessages(Socket socket) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            if (!MessageDigest.isEqual(readFrame(in), secret)) {
+                logger.warn("Closed a presence connection from " + socket.getRemoteSocketAddress() + " presenting a wrong secret");
+                return;
+            }
+            socket.setSoTimeout(0);
+            while (!closed) {
+                receiver.onMessage(readFrame(in));
+            }
+        } catch (EOFException | SocketException e) {
+            //The other proxy closed the connection
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Lost the presence connection from " + socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            acceptedSockets.remove(socket);
+        }
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            //Already closed
+        }
+    }
+
+    /**
+     * The connection to another proxy, and the messages waiting to be sent to it
+     */
+    private final class Peer {
+        private final InetSocketAddress address;
+        private final String name;
+        private final BlockingQueue<byte[]> queue;
+        private volatile Socket socket;
+
+        private Peer(InetSocketAddress address, int queueCapacity) {
+            this.address = address;
+            this.name = address.getHostString() + ":" + address.getPort();
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        }
+
+        /**
+         * Connects to the proxy and sends the queued messages, connecting again when the connection breaks,
+         * until the transport is closed and the queue is empty
+         */
+        private void sendMessages() {
+            boolean failing = false;
+            while (!closed) {
+                try (Socket connection = new Socket()) {
+                    socket = connection;
+                    connection.setTcpNoDelay(true);
+                    connection.setKeepAlive(true);
+                    //Resolved on every attempt, the proxy may have moved
+                    connection.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                    writeFrame(out, secret);
+                    out.flush();
+
+                    //What was queued meanwhile is outdated, the snapshot sent for the new connection replaces it
+                    logger.info("Connected to the proxy " + name + " to share the presence of the players");
+                    failing = false;
+                    queue.clear();
+                    receiver.onPeerConnected();
+
+                    while (!closed || !queue.isEmpty()) {
+                        byte[] message = queue.poll(100, TimeUnit.MILLISECONDS);
+                        if (message == null) {
+                            continue;
+                        }
+                        //Everything already queued goes in the same flush
+                        do {
+                            writeFrame(out, message);
+                            message = queue.poll();
+                        } while (message != null);
+                        out.flush();
+                    }
+                    return;
+                } catch (IOException e) {
+                    if (!failing && !closed) {
+                        logger.warn("Could not share the presence of the players with the proxy " + name + ", retrying every "
+                                + reconnectMillis + " ms", e);
+                    }
+                    failing = true;
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
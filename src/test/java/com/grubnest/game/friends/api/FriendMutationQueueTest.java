@@ -0,0 +1,128 @@
+package com.grubnest.game.friends.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the completion of the removals written through FriendMutationQueue, on top of an InMemoryFriendStore
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+class FriendMutationQueueTest {
+
+    /**
+     * Remembers the removals the queue reported, as "player>friend"
+     */
+    private static final class RecordingListener implements FriendMutationQueue.Listener {
+        private final List<String> removed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onAdded(UUID playerUUID, UUID friendUUID) {
+            throw new AssertionError("The queue only removes friendships");
+        }
+
+        @Override
+        public void onRemoved(UUID playerUUID, UUID friendUUID) {
+            removed.add(playerUUID + ">" + friendUUID);
+        }
+    }
+
+    private final InMemoryFriendStore store = new InMemoryFriendStore(4);
+    private final RecordingListener listener = new RecordingListener();
+    private final UUID player = UUID.randomUUID();
+    private final UUID friend = UUID.randomUUID();
+    private FriendMutationQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        FriendStores.set(store);
+        //Only flushed by a full batch, writeAfterPending or the shutdown
+        queue = new FriendMutationQueue(100, TimeUnit.HOURS.toMillis(1), listener);
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void reportsTheRemovalOnceWritten() throws Exception {
+        store.markAsFriend(player, friend);
+        CompletableFuture<FriendMutationQueue.Outcome> removal = queue.remove(player, friend);
+        assertFalse(removal.isDone());
+        assertEquals(1, queue.size());
+
+        queue.shutdown();
+        assertEquals(FriendMutationQueue.Outcome.REMOVED, removal.get(5, TimeUnit.SECONDS));
+        assertFalse(store.isFriendAlready(player, friend));
+        assertEquals(List.of(player + ">" + friend), listener.removed);
+    }
+
+    @Test
+    void coalescesTheRemovalsOfAFriendship() throws Exception {
+        store.markAsFriend(player, friend);
+        CompletableFuture<FriendMutationQueue.Outcome> first = queue.remove(player, friend);
+        CompletableFuture<FriendMutationQueue.Outcome> second = queue.remove(player, friend);
+        assertEquals(1, queue.size());
+
+        queue.shutdown();
+        assertEquals(FriendMutationQueue.Outcome.REMOVED, first.get(5, TimeUnit.SECONDS));
+        assertEquals(FriendMutationQueue.Outcome.NOT_PRESENT, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.removed.size());
+    }
+
+    @Test
+    void reportsAMissingFriendshipWithoutTellingTheListener() throws Exception {
+        CompletableFuture<FriendMutationQueue.Outcome> removal = queue.remove(player, friend);
+
+        queue.shutdown();
+        assertEquals(FriendMutationQueue.Outcome.NOT_PRESENT, removal.get(5, TimeUnit.SECONDS));
+        assertTrue(listener.removed.isEmpty());
+    }
+
+    @Test
+    void flushesAFullBatchRightAway() throws Exception {
+        FriendMutationQueue small = new FriendMutationQueue(2, TimeUnit.HOURS.toMillis(1), listener);
+        try {
+            store.markAsFriend(player, friend);
+            CompletableFuture<FriendMutationQueue.Outcome> first = small.remove(player, friend);
+            CompletableFuture<FriendMutationQueue.Outcome> second = small.remove(friend, player);
+
+            assertEquals(FriendMutationQueue.Outcome.REMOVED, first.get(5, TimeUnit.SECONDS));
+            assertEquals(FriendMutationQueue.Outcome.NOT_PRESENT, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void writesTheQueuedRemovalsBeforeAWriteAfterPending() throws Exception {
+        store.markAsFriend(player, friend);
+        CompletableFuture<FriendMutationQueue.Outcome> removal = queue.remove(player, friend);
+
+        boolean friendsDuringWrite = queue.writeAfterPending(friend, player, () -> store.isFriendAlready(player, friend));
+        assertFalse(friendsDuringWrite);
+        assertTrue(removal.isDone());
+        assertEquals(FriendMutationQueue.Outcome.REMOVED, removal.get());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void failsTheRemovalsQueuedAfterTheShutdown() {
+        queue.shutdown();
+        CompletableFuture<FriendMutationQueue.Outcome> removal = queue.remove(player, friend);
+        assertTrue(removal.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,94 @@
+package com.grubnest.game.friends.messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trips every message type through FriendMessageCodec
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+class FriendMessageCodecTest {
+
+    private static FriendMessage roundTrip(FriendMessage message) {
+        Optional<FriendMessage> decoded = FriendMessageCodec.decode(FriendMessageCodec.encode(message));
+        assertTrue(decoded.isPresent(), "could not decode " + message.type());
+        return decoded.get();
+    }
+
+    @Test
+    void roundTripsTheSmallMessages() {
+        UUID player = UUID.randomUUID();
+        UUID friend = UUID.randomUUID();
+        List<FriendMessage> messages = List.of(
+                new FriendMessage.MakeGUI(player, 42),
+                new FriendMessage.Join(player, friend),
+                new FriendMessage.WatchPresence(player, List.of(friend, UUID.randomUUID())),
+                new FriendMessage.UnwatchPresence(player),
+                new FriendMessage.PresenceUpdate(player, List.of(friend, UUID.randomUUID()), List.of("lobby", "Offline")),
+                new FriendMessage.GetFriendsPage(7, player, null, 45),
+                new FriendMessage.GetFriendsPage(8, player, new FriendMessage.PageCursor("lobby", 0, friend), 45),
+                new FriendMessage.GetFriendsPage(9, player, new FriendMessage.PageCursor(null, 1_650_000_000_000L, friend), 45)
+        );
+        for (FriendMessage message : messages) {
+            assertEquals(message, roundTrip(message));
+        }
+    }
+
+    @Test
+    void roundTripsACompressedFriendsPage() {
+        int size = 200;
+        List<UUID> friends = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        List<String> skins = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        List<Integer> mutuals = new ArrayList<>();
+        List<Integer> seen = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            friends.add(UUID.randomUUID());
+            usernames.add("Player" + i);
+            skins.add(i % 3 == 0 ? "" : "texture" + i);
+            servers.add(i % 2 == 0 ? "lobby" : "Offline");
+            mutuals.add(i % 5);
+            seen.add(i % 2 == 0 ? -1 : i * 60);
+        }
+        FriendMessage.FriendsPage page = new FriendMessage.FriendsPage(3, UUID.randomUUID(), 1000, friends, usernames, skins,
+                servers, mutuals, seen, new FriendMessage.PageCursor(null, 1_650_000_000_000L, friends.get(size - 1)));
+
+        byte[] encoded = FriendMessageCodec.encode(page);
+        assertTrue(encoded.length > 3 && encoded[2] != 0, "a large page should be compressed");
+        assertEquals(page, roundTrip(page));
+    }
+
+    @Test
+    void roundTripsAnEmptyFriendsPage() {
+        FriendMessage.FriendsPage page = new FriendMessage.FriendsPage(4, UUID.randomUUID(), 0, List.of(), List.of(), List.of(),
+                List.of(), List.of(), List.of(), null);
+        assertEquals(page, roundTrip(page));
+    }
+
+    @Test
+    void ignoresOtherVersionsAndMalformedMessages() {
+        byte[] encoded = FriendMessageCodec.encode(new FriendMessage.Join(UUID.randomUUID(), UUID.randomUUID()));
+
+        byte[] otherVersion = encoded.clone();
+        otherVersion[0] = (byte) (FriendMessageCodec.VERSION + 1);
+        assertTrue(FriendMessageCodec.decode(otherVersion).isEmpty());
+
+        byte[] unknownType = encoded.clone();
+        unknownType[1] = Byte.MAX_VALUE;
+        assertTrue(FriendMessageCodec.decode(unknownType).isEmpty());
+
+        assertTrue(FriendMessageCodec.decode(Arrays.copyOf(encoded, encoded.length - 4)).isEmpty());
+        assertTrue(FriendMessageCodec.decode(new byte[0]).isEmpty());
+    }
+}
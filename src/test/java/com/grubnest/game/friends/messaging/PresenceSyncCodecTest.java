@@ -0,0 +1,69 @@
+package com.grubnest.game.friends.messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trips every kind of message through PresenceSyncCodec
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+class PresenceSyncCodecTest {
+
+    private static PresenceSyncMessage roundTrip(PresenceSyncMessage message) {
+        Optional<PresenceSyncMessage> decoded = PresenceSyncCodec.decode(PresenceSyncCodec.encode(message));
+        assertTrue(decoded.isPresent(), "could not decode " + message.kind());
+        return decoded.get();
+    }
+
+    @Test
+    void roundTripsTheDeltasAndSnapshots() {
+        List<UUID> players = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        List<String> labels = List.of("lobby", "Offline", "lobby");
+        PresenceSyncMessage delta = new PresenceSyncMessage(PresenceSyncMessage.Kind.DELTA, "proxy-1", 1_650_000_000_000L, 12,
+                players, labels, List.of());
+        PresenceSyncMessage snapshot = new PresenceSyncMessage(PresenceSyncMessage.Kind.SNAPSHOT, "proxy-1", 1_650_000_000_000L, 13,
+                List.of(), List.of(), List.of());
+
+        assertEquals(delta, roundTrip(delta));
+        assertEquals(snapshot, roundTrip(snapshot));
+    }
+
+    @Test
+    void roundTripsTheEdges() {
+        PresenceSyncMessage edges = new PresenceSyncMessage(PresenceSyncMessage.Kind.EDGES, "proxy-2", 1_650_000_000_000L, 3,
+                List.of(UUID.randomUUID(), UUID.randomUUID()), List.of(), List.of(UUID.randomUUID(), UUID.randomUUID()));
+        assertEquals(edges, roundTrip(edges));
+    }
+
+    @Test
+    void ignoresOtherVersionsUnknownKindsAndMalformedMessages() {
+        byte[] encoded = PresenceSyncCodec.encode(new PresenceSyncMessage(PresenceSyncMessage.Kind.DELTA, "proxy-1", 1, 1,
+                List.of(UUID.randomUUID()), List.of("lobby"), List.of()));
+
+        byte[] otherVersion = encoded.clone();
+        otherVersion[0] = (byte) (PresenceSyncCodec.VERSION + 1);
+        assertTrue(PresenceSyncCodec.decode(otherVersion).isEmpty());
+
+        byte[] unknownKind = encoded.clone();
+        unknownKind[1] = (byte) PresenceSyncMessage.Kind.values().length;
+        assertTrue(PresenceSyncCodec.decode(unknownKind).isEmpty());
+
+        byte[] missingLabel = PresenceSyncCodec.encode(new PresenceSyncMessage(PresenceSyncMessage.Kind.DELTA, "proxy-1", 1, 2,
+                List.of(UUID.randomUUID(), UUID.randomUUID()), List.of("lobby"), List.of()));
+        assertTrue(PresenceSyncCodec.decode(missingLabel).isEmpty());
+
+        byte[] missingOther = PresenceSyncCodec.encode(new PresenceSyncMessage(PresenceSyncMessage.Kind.EDGES, "proxy-1", 1, 3,
+                List.of(UUID.randomUUID(), UUID.randomUUID()), List.of(), List.of(UUID.randomUUID())));
+        assertTrue(PresenceSyncCodec.decode(missingOther).isEmpty());
+
+        assertTrue(PresenceSyncCodec.decode(new byte[]{PresenceSyncCodec.VERSION}).isEmpty());
+    }
+}
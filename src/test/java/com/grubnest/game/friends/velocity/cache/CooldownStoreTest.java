@@ -0,0 +1,72 @@
+package com.grubnest.game.friends.velocity.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the cooldowns of CooldownStore and their removal by the timer wheel
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+class CooldownStoreTest {
+
+    @Test
+    void blocksTheSamePairDuringTheWindow() {
+        CooldownStore store = new CooldownStore(TimeUnit.MINUTES.toMillis(10), 100);
+        UUID sender = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+
+        assertTrue(store.tryAcquire(sender, receiver));
+        assertFalse(store.tryAcquire(sender, receiver));
+        assertTrue(store.tryAcquire(receiver, sender));
+        assertTrue(store.tryAcquire(sender, UUID.randomUUID()));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void refusesNewCooldownsWhenFull() {
+        CooldownStore store = new CooldownStore(TimeUnit.MINUTES.toMillis(10), 2);
+        assertTrue(store.tryAcquire(UUID.randomUUID(), UUID.randomUUID()));
+        assertTrue(store.tryAcquire(UUID.randomUUID(), UUID.randomUUID()));
+        assertFalse(store.tryAcquire(UUID.randomUUID(), UUID.randomUUID()));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void tickKeepsTheRunningCooldowns() {
+        CooldownStore store = new CooldownStore(TimeUnit.HOURS.toMillis(1), 100);
+        UUID sender = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+        assertTrue(store.tryAcquire(sender, receiver));
+
+        store.tick();
+        assertEquals(1, store.size());
+        assertFalse(store.tryAcquire(sender, receiver));
+    }
+
+    @Test
+    void tickRemovesTheExpiredCooldowns() throws InterruptedException {
+        CooldownStore store = new CooldownStore(1, 100);
+        UUID sender = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+        assertTrue(store.tryAcquire(sender, receiver));
+        assertTrue(store.tryAcquire(UUID.randomUUID(), UUID.randomUUID()));
+
+        //An expired cooldown can start again before the wheel removes it, it's queued in its new bucket
+        Thread.sleep(5);
+        assertTrue(store.tryAcquire(sender, receiver));
+        assertEquals(2, store.size());
+
+        //Every bucket holding a deadline is over once two ticks went by
+        Thread.sleep(2 * store.getTickMillis() + 100);
+        store.tick();
+        assertEquals(0, store.size());
+    }
+}
@@ -0,0 +1,135 @@
+package com.grubnest.game.friends.velocity.presence;
+
+import com.grubnest.game.friends.messaging.PresenceSyncCodec;
+import com.grubnest.game.friends.messaging.PresenceSyncMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the order in which PresenceSync applies the messages of another proxy, sent through a loopback bus
+ *
+ * @author NevaZyo
+ * @version 1.0 at 06/01/2022
+ */
+class PresenceSyncTest {
+
+    private static final String REMOTE = "remote";
+
+    private final PresenceIndex presenceIndex = new PresenceIndex();
+    private final LoopbackPresenceTransport.Bus bus = new LoopbackPresenceTransport.Bus();
+    private final LoopbackPresenceTransport remote = new LoopbackPresenceTransport(bus);
+    private final List<UUID> edges = new ArrayList<>();
+    private PresenceSync presenceSync;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        presenceSync = new PresenceSync("local", presenceIndex, new LoopbackPresenceTransport(bus), 500, 60_000, 60_000, 120_000,
+                NOPLogger.NOP_LOGGER);
+        presenceIndex.addLocalListener(presenceSync);
+        presenceSync.addEdgeListener((playerUUID, otherUUID) -> {
+            edges.add(playerUUID);
+            edges.add(otherUUID);
+        });
+        presenceSync.start();
+        remote.start(new PresenceTransport.Receiver() {
+            @Override
+            public void onMessage(byte[] message) {
+            }
+
+            @Override
+            public void onPeerConnected() {
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        presenceSync.shutdown();
+        remote.close();
+    }
+
+    /**
+     * Sends a message as the remote proxy, the loopback bus delivers it before returning
+     */
+    private void send(String proxyId, PresenceSyncMessage.Kind kind, long epoch, long sequence, Map<UUID, String> labels) {
+        remote.publish(PresenceSyncCodec.encode(new PresenceSyncMessage(kind, proxyId, epoch, sequence,
+                new ArrayList<>(labels.keySet()), new ArrayList<>(labels.values()), List.of())));
+    }
+
+    @Test
+    void ignoresTheMessagesOlderThanTheLastApplied() {
+        UUID player = UUID.randomUUID();
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 1, Map.of(player, "lobby"));
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 3, Map.of(player, "survival"));
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 2, Map.of(player, "minigames"));
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 3, Map.of(player, PresenceIndex.OFFLINE));
+
+        assertEquals("survival", presenceIndex.getLabel(player));
+    }
+
+    @Test
+    void replacesThePlayersOfTheProxyWithASnapshot() {
+        UUID left = UUID.randomUUID();
+        UUID stayed = UUID.randomUUID();
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 1, Map.of(left, "lobby", stayed, "lobby"));
+        send(REMOTE, PresenceSyncMessage.Kind.SNAPSHOT, 1, 2, Map.of(stayed, "survival"));
+
+        assertEquals(PresenceIndex.OFFLINE, presenceIndex.getLabel(left));
+        assertEquals("survival", presenceIndex.getLabel(stayed));
+    }
+
+    @Test
+    void dropsThePlayersOfAProxyWhichRestarted() {
+        UUID before = UUID.randomUUID();
+        UUID after = UUID.randomUUID();
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 5, Map.of(before, "lobby"));
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 2, 1, Map.of(after, "lobby"));
+        //A late message of the previous run
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 6, Map.of(before, "lobby"));
+
+        assertEquals(PresenceIndex.OFFLINE, presenceIndex.getLabel(before));
+        assertEquals("lobby", presenceIndex.getLabel(after));
+    }
+
+    @Test
+    void ignoresItsOwnMessages() {
+        UUID player = UUID.randomUUID();
+        send("local", PresenceSyncMessage.Kind.DELTA, 1, 1, Map.of(player, "lobby"));
+
+        assertEquals(PresenceIndex.OFFLINE, presenceIndex.getLabel(player));
+    }
+
+    @Test
+    void movesAPlayerClaimedByAnotherProxyOnceTheyLeave() {
+        UUID player = UUID.randomUUID();
+        presenceIndex.onLogin(player);
+        presenceIndex.onServerConnected(player, "lobby");
+        //The other proxy tells the player joined it before this one sees them leave
+        send(REMOTE, PresenceSyncMessage.Kind.DELTA, 1, 1, Map.of(player, "survival"));
+        assertEquals("lobby", presenceIndex.getLabel(player));
+
+        presenceIndex.onDisconnect(player);
+        assertEquals("survival", presenceIndex.getLabel(player));
+        assertTrue(presenceIndex.getLocalLabels().isEmpty());
+    }
+
+    @Test
+    void givesTheEdgesToTheListeners() {
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        remote.publish(PresenceSyncCodec.encode(new PresenceSyncMessage(PresenceSyncMessage.Kind.EDGES, REMOTE, 1, 1,
+                List.of(player), List.of(), List.of(other))));
+
+        assertEquals(List.of(player, other), edges);
+    }
+}